@@ -0,0 +1,113 @@
+package psy.lob.saw;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.profile.ProfilerResult;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+
+/**
+ * Reports the bytes allocated per iteration by the benchmark threads, as gc.alloc.rate (MB/sec) and gc.alloc.rate.norm
+ * (B/op). The JMH GCProfiler we build against only reports churn per GC space, which is zero for any iteration too
+ * short to trigger a GC, so this counts allocation directly with
+ * com.sun.management.ThreadMXBean.getThreadAllocatedBytes, as the per thread difference between the start and end of
+ * the iteration. Only the JMH worker threads are counted, so what other profilers (e.g. the stack sampler) allocate
+ * does not show up as allocation on the benchmarked path.
+ *
+ * @author nitsan
+ */
+public class AllocationProfiler implements InternalProfiler {
+	// JMH names the benchmark threads <benchmark>-jmh-worker-<n>
+	private static final String WORKER_THREAD = "-jmh-worker-";
+
+	private long[] startIds;
+	private long[] startAllocated;
+	private long startTime;
+
+	@Override
+	public boolean checkSupport(List<String> msgs) {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			msgs.add("No com.sun.management.ThreadMXBean on this JVM");
+			return false;
+		}
+		if (!((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			msgs.add("Thread allocated memory is not supported on this JVM");
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public String label() {
+		return "alloc";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Bytes allocated per op, counted with ThreadMXBean";
+	}
+
+	@Override
+	public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+		com.sun.management.ThreadMXBean bean = threadBean();
+		if (!bean.isThreadAllocatedMemoryEnabled()) {
+			bean.setThreadAllocatedMemoryEnabled(true);
+		}
+		startIds = bean.getAllThreadIds();
+		startAllocated = bean.getThreadAllocatedBytes(startIds);
+		startTime = System.nanoTime();
+	}
+
+	@Override
+	public Collection<? extends Result<?>> afterIteration(BenchmarkParams benchmarkParams,
+	        IterationParams iterationParams, IterationResult result) {
+		long allocated = allocatedSinceStart(threadBean());
+		long duration = System.nanoTime() - startTime;
+		long ops = result.getMetadata().getAllOps();
+		List<Result<?>> results = new ArrayList<Result<?>>();
+		results.add(new ProfilerResult("gc.alloc.rate", duration == 0 ? Double.NaN : allocated * 1000.0 / duration
+		        / 1024 / 1024, "MB/sec", AggregationPolicy.AVG));
+		results.add(new ProfilerResult("gc.alloc.rate.norm", ops == 0 ? Double.NaN : (double) allocated / ops,
+		        "B/op", AggregationPolicy.AVG));
+		return results;
+	}
+
+	private static com.sun.management.ThreadMXBean threadBean() {
+		return (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	}
+
+	private long allocatedSinceStart(com.sun.management.ThreadMXBean bean) {
+		long[] ids = bean.getAllThreadIds();
+		long[] allocated = bean.getThreadAllocatedBytes(ids);
+		ThreadInfo[] infos = bean.getThreadInfo(ids);
+		Map<Long, Long> start = new HashMap<Long, Long>();
+		for (int i = 0; i < startIds.length; i++) {
+			start.put(startIds[i], startAllocated[i]);
+		}
+		long sum = 0;
+		for (int i = 0; i < ids.length; i++) {
+			// null info/-1 for threads which died since we got the ids
+			if (infos[i] == null || allocated[i] <= 0 || !infos[i].getThreadName().contains(WORKER_THREAD)) {
+				continue;
+			}
+			Long before = start.get(ids[i]);
+			long delta = before == null || before < 0 ? allocated[i] : allocated[i] - before;
+			// the start value can come back as garbage for a thread which was just starting, skip it
+			if (delta > 0) {
+				sum += delta;
+			}
+		}
+		return sum;
+	}
+}
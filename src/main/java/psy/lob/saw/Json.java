@@ -0,0 +1,242 @@
+package psy.lob.saw;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of a JSON reader to load JMH result files, so we don't need a JSON library on the classpath. Objects
+ * are read into a LinkedHashMap, arrays into a List, numbers into Double, and true/false/null as Boolean/null. JMH
+ * writes NaN and the infinities as the strings "NaN", "+INF" and "-INF", {@link #toDouble(Object)} takes care of
+ * those.
+ *
+ * @author nitsan
+ */
+final class Json {
+	private final String text;
+	private int pos;
+
+	private Json(String text) {
+		this.text = text;
+	}
+
+	static Object parse(String text) {
+		Json json = new Json(text);
+		Object value = json.value();
+		json.skipWhitespace();
+		if (json.pos != text.length()) {
+			throw json.error("Trailing characters");
+		}
+		return value;
+	}
+
+	static Object parse(File file) throws IOException {
+		Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+		try {
+			StringBuilder sb = new StringBuilder();
+			char[] buffy = new char[8192];
+			int read;
+			while ((read = reader.read(buffy)) != -1) {
+				sb.append(buffy, 0, read);
+			}
+			return parse(sb.toString());
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * @return the value as a double, where value is a number, one of the strings JMH writes for NaN and the infinities
+	 *         ("NaN", "+INF" and "-INF") or any other string Double.parseDouble takes
+	 */
+	static double toDouble(Object value) {
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+		if ("+INF".equals(value)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		if ("-INF".equals(value)) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		if (value instanceof String) {
+			return Double.parseDouble((String) value);
+		}
+		throw new IllegalArgumentException("Not a number: " + value);
+	}
+
+	private Object value() {
+		skipWhitespace();
+		if (pos == text.length()) {
+			throw error("Unexpected end of input");
+		}
+		char c = text.charAt(pos);
+		switch (c) {
+		case '{':
+			return object();
+		case '[':
+			return array();
+		case '"':
+			return string();
+		case 't':
+			literal("true");
+			return Boolean.TRUE;
+		case 'f':
+			literal("false");
+			return Boolean.FALSE;
+		case 'n':
+			literal("null");
+			return null;
+		default:
+			return number();
+		}
+	}
+
+	private Map<String, Object> object() {
+		Map<String, Object> object = new LinkedHashMap<String, Object>();
+		pos++;
+		skipWhitespace();
+		if (peek() == '}') {
+			pos++;
+			return object;
+		}
+		while (true) {
+			skipWhitespace();
+			if (peek() != '"') {
+				throw error("Expected a key");
+			}
+			String key = string();
+			skipWhitespace();
+			expect(':');
+			object.put(key, value());
+			skipWhitespace();
+			if (peek() == ',') {
+				pos++;
+			} else {
+				expect('}');
+				return object;
+			}
+		}
+	}
+
+	private List<Object> array() {
+		List<Object> array = new ArrayList<Object>();
+		pos++;
+		skipWhitespace();
+		if (peek() == ']') {
+			pos++;
+			return array;
+		}
+		while (true) {
+			array.add(value());
+			skipWhitespace();
+			if (peek() == ',') {
+				pos++;
+			} else {
+				expect(']');
+				return array;
+			}
+		}
+	}
+
+	private String string() {
+		pos++;
+		StringBuilder sb = new StringBuilder();
+		while (true) {
+			if (pos == text.length()) {
+				throw error("Unterminated string");
+			}
+			char c = text.charAt(pos++);
+			if (c == '"') {
+				return sb.toString();
+			}
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			if (pos == text.length()) {
+				throw error("Unterminated escape");
+			}
+			c = text.charAt(pos++);
+			switch (c) {
+			case 'b':
+				sb.append('\b');
+				break;
+			case 'f':
+				sb.append('\f');
+				break;
+			case 'n':
+				sb.append('\n');
+				break;
+			case 'r':
+				sb.append('\r');
+				break;
+			case 't':
+				sb.append('\t');
+				break;
+			case 'u':
+				if (pos + 4 > text.length()) {
+					throw error("Bad unicode escape");
+				}
+				sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+				pos += 4;
+				break;
+			default:
+				// '"', '\\' and '/'
+				sb.append(c);
+			}
+		}
+	}
+
+	private Double number() {
+		int start = pos;
+		while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) != -1) {
+			pos++;
+		}
+		if (start == pos) {
+			throw error("Unexpected character '" + text.charAt(pos) + "'");
+		}
+		try {
+			return Double.valueOf(text.substring(start, pos));
+		} catch (NumberFormatException e) {
+			throw error("Bad number " + text.substring(start, pos));
+		}
+	}
+
+	private void literal(String literal) {
+		if (!text.startsWith(literal, pos)) {
+			throw error("Expected " + literal);
+		}
+		pos += literal.length();
+	}
+
+	private void expect(char c) {
+		if (peek() != c) {
+			throw error("Expected '" + c + "'");
+		}
+		pos++;
+	}
+
+	private char peek() {
+		if (pos == text.length()) {
+			throw error("Unexpected end of input");
+		}
+		return text.charAt(pos);
+	}
+
+	private void skipWhitespace() {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at offset " + pos);
+	}
+}
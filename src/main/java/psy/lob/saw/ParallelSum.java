@@ -0,0 +1,69 @@
+package psy.lob.saw;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+/**
+ * Summing a byte[] on many threads of a ForkJoinPool, splitting it into parts of at most threshold bytes each summed
+ * with {@link ReductionKernels#sumScalar(byte[], int, int)}. Either as a RecursiveTask halving the range until it is
+ * under the threshold, or as a parallel stream over the part indices run from within the pool (so it uses the pool
+ * rather than the common one).
+ *
+ * @author nitsan
+ */
+public final class ParallelSum {
+	private ParallelSum() {
+	}
+
+	static final class SumTask extends RecursiveTask<Long> {
+		private static final long serialVersionUID = 1L;
+		private final byte[] a;
+		private final int from;
+		private final int to;
+		private final int threshold;
+
+		SumTask(byte[] a, int from, int to, int threshold) {
+			this.a = a;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected Long compute() {
+			if (to - from <= threshold) {
+				return ReductionKernels.sumScalar(a, from, to);
+			}
+			int mid = (from + to) >>> 1;
+			SumTask left = new SumTask(a, from, mid, threshold);
+			left.fork();
+			// the right half on this thread, then join the left
+			long right = new SumTask(a, mid, to, threshold).compute();
+			return left.join() + right;
+		}
+	}
+
+	public static long forkJoinSum(ForkJoinPool pool, byte[] a, int threshold) {
+		return pool.invoke(new SumTask(a, 0, a.length, Math.max(threshold, 1)));
+	}
+
+	public static long parallelStreamSum(ForkJoinPool pool, byte[] a, int threshold) {
+		int partSize = Math.max(threshold, 1);
+		// not (length + partSize - 1) / partSize, which overflows for a threshold near Integer.MAX_VALUE
+		int parts = a.length / partSize + (a.length % partSize == 0 ? 0 : 1);
+		try {
+			// a parallel stream started from a pool thread forks its tasks into that pool
+			return pool.submit(() -> IntStream.range(0, parts).parallel().mapToLong(part -> {
+				int from = part * partSize;
+				return ReductionKernels.sumScalar(a, from, (int) Math.min(a.length, from + (long) partSize));
+			}).sum()).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package psy.lob.saw;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * LoopyBenchmarks.sumOldLoop over the same bunn array, against summing it in parallel with {@link ParallelSum} from a
+ * ForkJoinPool of the given parallelism, split into parts of threshold bytes. Sizes go from 32 bytes to 256MB. Run
+ * main to sweep the parallelism from 1 to the core count and get a table of the best parallel score against the loop
+ * per size, and the smallest size where parallel wins.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ParallelSumBenchmarks {
+	@Param({ "32", "1024", "32768", "1048576", "33554432", "268435456" })
+	int size;
+
+	byte[] bunn;
+
+	@Setup
+	public void prepare() {
+		bunn = new byte[size];
+	}
+
+	@State(Scope.Benchmark)
+	public static class Pool {
+		@Param({ "1" })
+		int parallelism;
+
+		@Param({ "8192", "262144" })
+		int threshold;
+
+		ForkJoinPool pool;
+
+		@Setup
+		public void start() {
+			pool = new ForkJoinPool(parallelism);
+		}
+
+		@TearDown
+		public void stop() {
+			pool.shutdown();
+		}
+	}
+
+	@Benchmark
+	public int sumOldLoop() {
+		int sum = 0;
+		for (int y = 0; y < bunn.length; y++) {
+			sum += bunn[y];
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long forkJoin(Pool pool) {
+		return ParallelSum.forkJoinSum(pool.pool, bunn, pool.threshold);
+	}
+
+	@Benchmark
+	public long parallelStream(Pool pool) {
+		return ParallelSum.parallelStreamSum(pool.pool, bunn, pool.threshold);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		int cores = Runtime.getRuntime().availableProcessors();
+		List<String> parallelism = new ArrayList<String>();
+		// powers of 2 up to the core count, and the core count itself
+		for (int threads = 1; threads < cores; threads *= 2) {
+			parallelism.add(Integer.toString(threads));
+		}
+		parallelism.add(Integer.toString(cores));
+		Options opt = new OptionsBuilder().include(ParallelSumBenchmarks.class.getSimpleName())
+		        .param("parallelism", parallelism.toArray(new String[parallelism.size()])).build();
+		report(new Runner(opt).run());
+	}
+
+	private static void report(Collection<RunResult> results) {
+		// size -> loop score, and size -> best parallel score/label
+		TreeMap<Integer, Double> loop = new TreeMap<Integer, Double>();
+		TreeMap<Integer, Double> best = new TreeMap<Integer, Double>();
+		TreeMap<Integer, String> bestLabel = new TreeMap<Integer, String>();
+		for (RunResult result : results) {
+			String benchmark = result.getParams().getBenchmark();
+			String method = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+			int size = Integer.parseInt(result.getParams().getParam("size"));
+			double score = result.getPrimaryResult().getScore();
+			if ("sumOldLoop".equals(method)) {
+				loop.put(size, score);
+			} else if (!best.containsKey(size) || score < best.get(size)) {
+				best.put(size, score);
+				bestLabel.put(size, method + " parallelism=" + result.getParams().getParam("parallelism")
+				        + " threshold=" + result.getParams().getParam("threshold"));
+			}
+		}
+		System.out.println();
+		System.out.printf("%12s %16s %16s %9s  %s%n", "size", "loop ns/op", "parallel ns/op", "winner", "best parallel");
+		Integer crossover = null;
+		for (Integer size : loop.keySet()) {
+			Double parallel = best.get(size);
+			if (parallel == null) {
+				continue;
+			}
+			System.out.printf("%12d %16.1f %16.1f %9s  %s%n", size, loop.get(size), parallel,
+			        parallel < loop.get(size) ? "parallel" : "loop", bestLabel.get(size));
+			if (crossover == null && parallel < loop.get(size)) {
+				crossover = size;
+			}
+		}
+		System.out.println(crossover == null ? "Parallel never beat the loop" : "Parallel beats the loop from size "
+		        + crossover);
+	}
+}
@@ -0,0 +1,103 @@
+package psy.lob.saw;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.profile.HotspotRuntimeProfiler;
+import org.openjdk.jmh.profile.ProfilerFactory;
+import org.openjdk.jmh.profile.StackProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks with the GC, stack and {@link AllocationProfiler} profilers attached, plus the HotSpot runtime
+ * profiler (safepoint counts and times) where the JVM supports it. Takes the usual JMH command line, so with no
+ * arguments it runs everything. Results go to jmh-result.json unless -rf/-rff say otherwise, and a bytes/op and GC
+ * count summary is printed at the end.
+ * <p>
+ * Benchmarks which are meant to be allocation free can be listed with -DProfilingRunner.zeroAlloc=&lt;regex&gt;,
+ * matched against the full benchmark name, and the runner exits with 1 if any of them allocates, e.g.:
+ *
+ * <pre>
+ * java -DProfilingRunner.zeroAlloc='.*Utf8EncodingBenchmark.customEncoder' -cp ... psy.lob.saw.ProfilingRunner Utf8EncodingBenchmark
+ * </pre>
+ *
+ * @author nitsan
+ */
+public class ProfilingRunner {
+	private static final String ALLOC_NORM = "gc.alloc.rate.norm";
+	private static final String GC_COUNT = "gc.count";
+	// per iteration overheads amortised over the ops come to a fraction of a byte, a real allocation is at least 16
+	private static final double ZERO_ALLOC_TOLERANCE = 1.0;
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+		CommandLineOptions cmdOptions = new CommandLineOptions(args);
+		if (cmdOptions.shouldHelp()) {
+			cmdOptions.showHelp();
+			return;
+		}
+		ChainedOptionsBuilder builder = new OptionsBuilder().parent(cmdOptions).addProfiler(GCProfiler.class)
+		        .addProfiler(StackProfiler.class).addProfiler(AllocationProfiler.class);
+		if (ProfilerFactory.checkSupport(HotspotRuntimeProfiler.class, new ArrayList<String>())) {
+			builder.addProfiler(HotspotRuntimeProfiler.class);
+		}
+		if (!cmdOptions.getResultFormat().hasValue()) {
+			builder.resultFormat(ResultFormatType.JSON);
+		}
+		Collection<RunResult> results = new Runner(builder.build()).run();
+		String zeroAlloc = System.getProperty("ProfilingRunner.zeroAlloc");
+		List<String> allocating = report(results, zeroAlloc == null ? null : Pattern.compile(zeroAlloc));
+		if (!allocating.isEmpty()) {
+			System.out.println();
+			System.out.println("Allocating on a zero allocation path:");
+			for (String benchmark : allocating) {
+				System.out.println("  " + benchmark);
+			}
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Prints the allocation summary table.
+	 *
+	 * @return the benchmarks matching zeroAlloc which allocated
+	 */
+	private static List<String> report(Collection<RunResult> results, Pattern zeroAlloc) {
+		List<String> allocating = new ArrayList<String>();
+		System.out.println();
+		System.out.printf("%-70s %14s %10s%n", "Benchmark", "B/op", "gc.count");
+		for (RunResult result : results) {
+			String benchmark = result.getParams().getBenchmark();
+			StringBuilder label = new StringBuilder(benchmark);
+			for (String key : result.getParams().getParamsKeys()) {
+				label.append(' ').append(key).append('=').append(result.getParams().getParam(key));
+			}
+			double bytesPerOp = score(result, ALLOC_NORM);
+			System.out.printf("%-70s %14.3f %10.0f%n", label, bytesPerOp, score(result, GC_COUNT));
+			if (zeroAlloc != null && zeroAlloc.matcher(benchmark).matches() && !(bytesPerOp < ZERO_ALLOC_TOLERANCE)) {
+				allocating.add(label + " " + bytesPerOp + " B/op");
+			}
+		}
+		return allocating;
+	}
+
+	private static double score(RunResult result, String label) {
+		Result<?> secondary = result.getSecondaryResults().get(label);
+		if (secondary == null) {
+			// the built in profilers' labels are prefixed with a middle dot
+			secondary = result.getSecondaryResults().get("\u00B7" + label);
+		}
+		return secondary == null ? Double.NaN : secondary.getScore();
+	}
+}
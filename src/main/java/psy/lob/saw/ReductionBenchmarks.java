@@ -0,0 +1,210 @@
+package psy.lob.saw;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The {@link ReductionKernels} over byte/int/long arrays of the same footprint, size bytes each. The sizes are those
+ * of LoopyBenchmarks plus L2 sized (1MB) and well past L3 (64MB).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ReductionBenchmarks {
+	@Param({ "32", "1024", "32768", "1048576", "67108864" })
+	int size;
+
+	byte[] bytes;
+	int[] ints;
+	long[] longs;
+	byte byteValue;
+	int intValue;
+	long longValue;
+	int[] histogram = new int[256];
+
+	@Setup
+	public void prepare() {
+		Random r = new Random(666);
+		bytes = new byte[size];
+		r.nextBytes(bytes);
+		ints = new int[size / 4];
+		for (int i = 0; i < ints.length; i++) {
+			// small range so there is something to count
+			ints[i] = r.nextInt(256);
+		}
+		longs = new long[size / 8];
+		for (int i = 0; i < longs.length; i++) {
+			longs[i] = r.nextInt(256);
+		}
+		byteValue = bytes[size / 2];
+		intValue = 42;
+		longValue = 42;
+	}
+
+	@Benchmark
+	public long byteSumScalar() {
+		return ReductionKernels.sumScalar(bytes);
+	}
+
+	@Benchmark
+	public long byteSumUnrolled() {
+		return ReductionKernels.sumUnrolled(bytes);
+	}
+
+	@Benchmark
+	public long byteSumSwar() {
+		return ReductionKernels.sumSwar(bytes);
+	}
+
+	@Benchmark
+	public byte byteMinScalar() {
+		return ReductionKernels.minScalar(bytes);
+	}
+
+	@Benchmark
+	public byte byteMinUnrolled() {
+		return ReductionKernels.minUnrolled(bytes);
+	}
+
+	@Benchmark
+	public byte byteMaxScalar() {
+		return ReductionKernels.maxScalar(bytes);
+	}
+
+	@Benchmark
+	public byte byteMaxUnrolled() {
+		return ReductionKernels.maxUnrolled(bytes);
+	}
+
+	@Benchmark
+	public int byteCountScalar() {
+		return ReductionKernels.countScalar(bytes, byteValue);
+	}
+
+	@Benchmark
+	public int byteCountUnrolled() {
+		return ReductionKernels.countUnrolled(bytes, byteValue);
+	}
+
+	@Benchmark
+	public int byteCountSwar() {
+		return ReductionKernels.countSwar(bytes, byteValue);
+	}
+
+	@Benchmark
+	public int[] byteHistogramScalar() {
+		ReductionKernels.histogramScalar(bytes, histogram);
+		return histogram;
+	}
+
+	@Benchmark
+	public int[] byteHistogramUnrolled() {
+		ReductionKernels.histogramUnrolled(bytes, histogram);
+		return histogram;
+	}
+
+	@Benchmark
+	public int[] byteHistogramSwar() {
+		ReductionKernels.histogramSwar(bytes, histogram);
+		return histogram;
+	}
+
+	@Benchmark
+	public long intSumScalar() {
+		return ReductionKernels.sumScalar(ints);
+	}
+
+	@Benchmark
+	public long intSumUnrolled() {
+		return ReductionKernels.sumUnrolled(ints);
+	}
+
+	@Benchmark
+	public long intSumSwar() {
+		return ReductionKernels.sumSwar(ints);
+	}
+
+	@Benchmark
+	public int intMinScalar() {
+		return ReductionKernels.minScalar(ints);
+	}
+
+	@Benchmark
+	public int intMinUnrolled() {
+		return ReductionKernels.minUnrolled(ints);
+	}
+
+	@Benchmark
+	public int intMaxScalar() {
+		return ReductionKernels.maxScalar(ints);
+	}
+
+	@Benchmark
+	public int intMaxUnrolled() {
+		return ReductionKernels.maxUnrolled(ints);
+	}
+
+	@Benchmark
+	public int intCountScalar() {
+		return ReductionKernels.countScalar(ints, intValue);
+	}
+
+	@Benchmark
+	public int intCountUnrolled() {
+		return ReductionKernels.countUnrolled(ints, intValue);
+	}
+
+	@Benchmark
+	public int intCountSwar() {
+		return ReductionKernels.countSwar(ints, intValue);
+	}
+
+	@Benchmark
+	public long longSumScalar() {
+		return ReductionKernels.sumScalar(longs);
+	}
+
+	@Benchmark
+	public long longSumUnrolled() {
+		return ReductionKernels.sumUnrolled(longs);
+	}
+
+	@Benchmark
+	public long longMinScalar() {
+		return ReductionKernels.minScalar(longs);
+	}
+
+	@Benchmark
+	public long longMinUnrolled() {
+		return ReductionKernels.minUnrolled(longs);
+	}
+
+	@Benchmark
+	public long longMaxScalar() {
+		return ReductionKernels.maxScalar(longs);
+	}
+
+	@Benchmark
+	public long longMaxUnrolled() {
+		return ReductionKernels.maxUnrolled(longs);
+	}
+
+	@Benchmark
+	public int longCountScalar() {
+		return ReductionKernels.countScalar(longs, longValue);
+	}
+
+	@Benchmark
+	public int longCountUnrolled() {
+		return ReductionKernels.countUnrolled(longs, longValue);
+	}
+}
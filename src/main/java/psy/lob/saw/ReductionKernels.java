@@ -0,0 +1,465 @@
+package psy.lob.saw;
+
+import static psy.lob.saw.util.UnsafeAccess.UNSAFE;
+
+/**
+ * Reductions over primitive arrays (sum, min, max, count of matches, histogram) in 3 flavours:
+ * <ul>
+ * <li>scalar: the plain loop, left to the JIT to unroll/vectorize if it will.
+ * <li>unrolled: 4 elements an iteration into 4 independent accumulators, so the adds don't wait on each other.
+ * <li>swar: SIMD within a register, reading 8 bytes at a time with Unsafe and working on all of them in one go. Only
+ * where it makes sense, for bytes and (as a wide read of 2 at a time) for ints. A long is already a word.
+ * </ul>
+ * Sums are all returned as long so they don't overflow on big arrays.
+ *
+ * @author nitsan
+ */
+public final class ReductionKernels {
+	private static final long BYTE_ARRAY_BASE = UNSAFE.arrayBaseOffset(byte[].class);
+	private static final long INT_ARRAY_BASE = UNSAFE.arrayBaseOffset(int[].class);
+	private static final long LOW_7_BITS = 0x7F7F7F7F7F7F7F7FL;
+	private static final long HIGH_BITS = 0x8080808080808080L;
+	private static final long ODD_BYTES = 0x00FF00FF00FF00FFL;
+	private static final long ODD_SHORTS = 0x0000FFFF0000FFFFL;
+	// 16 bit lanes take 2 bytes of up to 255 per word, so can add up 128 words before they overflow
+	private static final int SWAR_SUM_BLOCK = 128 * 8;
+
+	private ReductionKernels() {
+	}
+
+	// byte[]
+
+	public static long sumScalar(byte[] a) {
+		long sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			sum += a[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Sum of a[from, to), for splitting the work up.
+	 */
+	public static long sumScalar(byte[] a, int from, int to) {
+		long sum = 0;
+		for (int i = from; i < to; i++) {
+			sum += a[i];
+		}
+		return sum;
+	}
+
+	public static long sumUnrolled(byte[] a) {
+		long s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for (; i < a.length - 3; i += 4) {
+			s0 += a[i];
+			s1 += a[i + 1];
+			s2 += a[i + 2];
+			s3 += a[i + 3];
+		}
+		for (; i < a.length; i++) {
+			s0 += a[i];
+		}
+		return s0 + s1 + s2 + s3;
+	}
+
+	/**
+	 * Adds up the bytes as unsigned in 16 bit lanes, and corrects for the negative ones by counting their sign bits.
+	 */
+	public static long sumSwar(byte[] a) {
+		long sum = 0;
+		long negatives = 0;
+		int i = 0;
+		int wordsEnd = a.length & ~7;
+		while (i < wordsEnd) {
+			int blockEnd = Math.min(wordsEnd, i + SWAR_SUM_BLOCK);
+			long lanes = 0;
+			for (; i < blockEnd; i += 8) {
+				long w = UNSAFE.getLong(a, BYTE_ARRAY_BASE + i);
+				lanes += (w & ODD_BYTES) + ((w >>> 8) & ODD_BYTES);
+				negatives += Long.bitCount(w & HIGH_BITS);
+			}
+			lanes = (lanes & ODD_SHORTS) + ((lanes >>> 16) & ODD_SHORTS);
+			sum += (lanes & 0xFFFFFFFFL) + (lanes >>> 32);
+		}
+		sum -= negatives << 8;
+		for (; i < a.length; i++) {
+			sum += a[i];
+		}
+		return sum;
+	}
+
+	public static byte minScalar(byte[] a) {
+		int min = Byte.MAX_VALUE;
+		for (int i = 0; i < a.length; i++) {
+			min = Math.min(min, a[i]);
+		}
+		return (byte) min;
+	}
+
+	public static byte minUnrolled(byte[] a) {
+		int m0 = Byte.MAX_VALUE, m1 = m0, m2 = m0, m3 = m0;
+		int i = 0;
+		for (; i < a.length - 3; i += 4) {
+			m0 = Math.min(m0, a[i]);
+			m1 = Math.min(m1, a[i + 1]);
+			m2 = Math.min(m2, a[i + 2]);
+			m3 = Math.min(m3, a[i + 3]);
+		}
+		for (; i < a.length; i++) {
+			m0 = Math.min(m0, a[i]);
+		}
+		return (byte) Math.min(Math.min(m0, m1), Math.min(m2, m3));
+	}
+
+	public static byte maxScalar(byte[] a) {
+		int max = Byte.MIN_VALUE;
+		for (int i = 0; i < a.length; i++) {
+			max = Math.max(max, a[i]);
+		}
+		return (byte) max;
+	}
+
+	public static byte maxUnrolled(byte[] a) {
+		int m0 = Byte.MIN_VALUE, m1 = m0, m2 = m0, m3 = m0;
+		int i = 0;
+		for (; i < a.length - 3; i += 4) {
+			m0 = Math.max(m0, a[i]);
+			m1 = Math.max(m1, a[i + 1]);
+			m2 = Math.max(m2, a[i + 2]);
+			m3 = Math.max(m3, a[i + 3]);
+		}
+		for (; i < a.length; i++) {
+			m0 = Math.max(m0, a[i]);
+		}
+		return (byte) Math.max(Math.max(m0, m1), Math.max(m2, m3));
+	}
+
+	public static int countScalar(byte[] a, byte value) {
+		int count = 0;
+		for (int i = 0; i < a.length; i++) {
+			if (a[i] == value) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public static int countUnrolled(byte[] a, byte value) {
+		int c0 = 0, c1 = 0, c2 = 0, c3 = 0;
+		int i = 0;
+		for (; i < a.length - 3; i += 4) {
+			c0 += a[i] == value ? 1 : 0;
+			c1 += a[i + 1] == value ? 1 : 0;
+			c2 += a[i + 2] == value ? 1 : 0;
+			c3 += a[i + 3] == value ? 1 : 0;
+		}
+		for (; i < a.length; i++) {
+			c0 += a[i] == value ? 1 : 0;
+		}
+		return c0 + c1 + c2 + c3;
+	}
+
+	/**
+	 * XOR with the value in every byte leaves the matches as zero bytes, which get their high bit set (and only
+	 * they, unlike the cheaper has-zero-byte test) by ~(((w & 0x7F..) + 0x7F..) | w | 0x7F..).
+	 */
+	public static int countSwar(byte[] a, byte value) {
+		long pattern = (value & 0xFFL) * 0x0101010101010101L;
+		int count = 0;
+		int i = 0;
+		int wordsEnd = a.length & ~7;
+		for (; i < wordsEnd; i += 8) {
+			long w = UNSAFE.getLong(a, BYTE_ARRAY_BASE + i) ^ pattern;
+			count += Long.bitCount(~(((w & LOW_7_BITS) + LOW_7_BITS) | w | LOW_7_BITS));
+		}
+		for (; i < a.length; i++) {
+			count += a[i] == value ? 1 : 0;
+		}
+		return count;
+	}
+
+	/**
+	 * @param histogram 256 counts, indexed by the unsigned byte value, added to
+	 */
+	public static void histogramScalar(byte[] a, int[] histogram) {
+		for (int i = 0; i < a.length; i++) {
+			histogram[a[i] & 0xFF]++;
+		}
+	}
+
+	/**
+	 * Counts into 4 histograms so runs of the same value don't stall on the store to the same counter, and adds them
+	 * up at the end.
+	 */
+	public static void histogramUnrolled(byte[] a, int[] histogram) {
+		int[] h = new int[256 * 4];
+		int i = 0;
+		for (; i < a.length - 3; i += 4) {
+			h[a[i] & 0xFF]++;
+			h[256 + (a[i + 1] & 0xFF)]++;
+			h[512 + (a[i + 2] & 0xFF)]++;
+			h[768 + (a[i + 3] & 0xFF)]++;
+		}
+		for (; i < a.length; i++) {
+			h[a[i] & 0xFF]++;
+		}
+		for (int b = 0; b < 256; b++) {
+			histogram[b] += h[b] + h[256 + b] + h[512 + b] + h[768 + b];
+		}
+	}
+
+	/**
+	 * As unrolled, but reading 8 bytes at a time and picking them out of the word.
+	 */
+	public static void histogramSwar(byte[] a, int[] histogram) {
+		int[] h = new int[256 * 4];
+		int i = 0;
+		int wordsEnd = a.length & ~7;
+		for (; i < wordsEnd; i += 8) {
+			long w = UNSAFE.getLong(a, BYTE_ARRAY_BASE + i);
+			h[(int) w & 0xFF]++;
+			h[256 + ((int) (w >>> 8) & 0xFF)]++;
+			h[512 + ((int) (w >>> 16) & 0xFF)]++;
+			h[768 + ((int) (w >>> 24) & 0xFF)]++;
+			h[(int) (w >>> 32) & 0xFF]++;
+			h[256 + ((int) (w >>> 40) & 0xFF)]++;
+			h[512 + ((int) (w >>> 48) & 0xFF)]++;
+			h[768 + (int) (w >>> 56)]++;
+		}
+		for (; i < a.length; i++) {
+			h[a[i] & 0xFF]++;
+		}
+		for (int b = 0; b < 256; b++) {
+			histogram[b] += h[b] + h[256 + b] + h[512 + b] + h[768 + b];
+		}
+	}
+
+	// int[]
+
+	public static long sumScalar(int[] a) {
+		long sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			sum += a[i];
+		}
+		return sum;
+	}
+
+	public static long sumUnrolled(int[] a) {
+		long s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for (; i < a.length - 3; i += 4) {
+			s0 += a[i];
+			s1 += a[i + 1];
+			s2 += a[i + 2];
+			s3 += a[i + 3];
+		}
+		for (; i < a.length; i++) {
+			s0 += a[i];
+		}
+		return s0 + s1 + s2 + s3;
+	}
+
+	/**
+	 * Wide read, 2 ints a long.
+	 */
+	public static long sumSwar(int[] a) {
+		long s0 = 0, s1 = 0;
+		int i = 0;
+		int wordsEnd = a.length & ~1;
+		for (; i < wordsEnd; i += 2) {
+			long w = UNSAFE.getLong(a, INT_ARRAY_BASE + ((long) i << 2));
+			s0 += (int) w;
+			s1 += (int) (w >> 32);
+		}
+		if (i < a.length) {
+			s0 += a[i];
+		}
+		return s0 + s1;
+	}
+
+	public static int minScalar(int[] a) {
+		int min = Integer.MAX_VALUE;
+		for (int i = 0; i < a.length; i++) {
+			min = Math.min(min, a[i]);
+		}
+		return min;
+	}
+
+	public static int minUnrolled(int[] a) {
+		int m0 = Integer.MAX_VALUE, m1 = m0, m2 = m0, m3 = m0;
+		int i = 0;
+		for (; i < a.length - 3; i += 4) {
+			m0 = Math.min(m0, a[i]);
+			m1 = Math.min(m1, a[i + 1]);
+			m2 = Math.min(m2, a[i + 2]);
+			m3 = Math.min(m3, a[i + 3]);
+		}
+		for (; i < a.length; i++) {
+			m0 = Math.min(m0, a[i]);
+		}
+		return Math.min(Math.min(m0, m1), Math.min(m2, m3));
+	}
+
+	public static int maxScalar(int[] a) {
+		int max = Integer.MIN_VALUE;
+		for (int i = 0; i < a.length; i++) {
+			max = Math.max(max, a[i]);
+		}
+		return max;
+	}
+
+	public static int maxUnrolled(int[] a) {
+		int m0 = Integer.MIN_VALUE, m1 = m0, m2 = m0, m3 = m0;
+		int i = 0;
+		for (; i < a.length - 3; i += 4) {
+			m0 = Math.max(m0, a[i]);
+			m1 = Math.max(m1, a[i + 1]);
+			m2 = Math.max(m2, a[i + 2]);
+			m3 = Math.max(m3, a[i + 3]);
+		}
+		for (; i < a.length; i++) {
+			m0 = Math.max(m0, a[i]);
+		}
+		return Math.max(Math.max(m0, m1), Math.max(m2, m3));
+	}
+
+	public static int countScalar(int[] a, int value) {
+		int count = 0;
+		for (int i = 0; i < a.length; i++) {
+			if (a[i] == value) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public static int countUnrolled(int[] a, int value) {
+		int c0 = 0, c1 = 0, c2 = 0, c3 = 0;
+		int i = 0;
+		for (; i < a.length - 3; i += 4) {
+			c0 += a[i] == value ? 1 : 0;
+			c1 += a[i + 1] == value ? 1 : 0;
+			c2 += a[i + 2] == value ? 1 : 0;
+			c3 += a[i + 3] == value ? 1 : 0;
+		}
+		for (; i < a.length; i++) {
+			c0 += a[i] == value ? 1 : 0;
+		}
+		return c0 + c1 + c2 + c3;
+	}
+
+	/**
+	 * Wide read, 2 ints a long.
+	 */
+	public static int countSwar(int[] a, int value) {
+		int c0 = 0, c1 = 0;
+		int i = 0;
+		int wordsEnd = a.length & ~1;
+		for (; i < wordsEnd; i += 2) {
+			long w = UNSAFE.getLong(a, INT_ARRAY_BASE + ((long) i << 2));
+			c0 += (int) w == value ? 1 : 0;
+			c1 += (int) (w >>> 32) == value ? 1 : 0;
+		}
+		if (i < a.length) {
+			c0 += a[i] == value ? 1 : 0;
+		}
+		return c0 + c1;
+	}
+
+	// long[]
+
+	public static long sumScalar(long[] a) {
+		long sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			sum += a[i];
+		}
+		return sum;
+	}
+
+	public static long sumUnrolled(long[] a) {
+		long s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for (; i < a.length - 3; i += 4) {
+			s0 += a[i];
+			s1 += a[i + 1];
+			s2 += a[i + 2];
+			s3 += a[i + 3];
+		}
+		for (; i < a.length; i++) {
+			s0 += a[i];
+		}
+		return s0 + s1 + s2 + s3;
+	}
+
+	public static long minScalar(long[] a) {
+		long min = Long.MAX_VALUE;
+		for (int i = 0; i < a.length; i++) {
+			min = Math.min(min, a[i]);
+		}
+		return min;
+	}
+
+	public static long minUnrolled(long[] a) {
+		long m0 = Long.MAX_VALUE, m1 = m0, m2 = m0, m3 = m0;
+		int i = 0;
+		for (; i < a.length - 3; i += 4) {
+			m0 = Math.min(m0, a[i]);
+			m1 = Math.min(m1, a[i + 1]);
+			m2 = Math.min(m2, a[i + 2]);
+			m3 = Math.min(m3, a[i + 3]);
+		}
+		for (; i < a.length; i++) {
+			m0 = Math.min(m0, a[i]);
+		}
+		return Math.min(Math.min(m0, m1), Math.min(m2, m3));
+	}
+
+	public static long maxScalar(long[] a) {
+		long max = Long.MIN_VALUE;
+		for (int i = 0; i < a.length; i++) {
+			max = Math.max(max, a[i]);
+		}
+		return max;
+	}
+
+	public static long maxUnrolled(long[] a) {
+		long m0 = Long.MIN_VALUE, m1 = m0, m2 = m0, m3 = m0;
+		int i = 0;
+		for (; i < a.length - 3; i += 4) {
+			m0 = Math.max(m0, a[i]);
+			m1 = Math.max(m1, a[i + 1]);
+			m2 = Math.max(m2, a[i + 2]);
+			m3 = Math.max(m3, a[i + 3]);
+		}
+		for (; i < a.length; i++) {
+			m0 = Math.max(m0, a[i]);
+		}
+		return Math.max(Math.max(m0, m1), Math.max(m2, m3));
+	}
+
+	public static int countScalar(long[] a, long value) {
+		int count = 0;
+		for (int i = 0; i < a.length; i++) {
+			if (a[i] == value) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public static int countUnrolled(long[] a, long value) {
+		int c0 = 0, c1 = 0, c2 = 0, c3 = 0;
+		int i = 0;
+		for (; i < a.length - 3; i += 4) {
+			c0 += a[i] == value ? 1 : 0;
+			c1 += a[i + 1] == value ? 1 : 0;
+			c2 += a[i + 2] == value ? 1 : 0;
+			c3 += a[i + 3] == value ? 1 : 0;
+		}
+		for (; i < a.length; i++) {
+			c0 += a[i] == value ? 1 : 0;
+		}
+		return c0 + c1 + c2 + c3;
+	}
+}
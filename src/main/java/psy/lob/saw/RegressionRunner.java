@@ -0,0 +1,264 @@
+package psy.lob.saw;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.util.ListStatistics;
+import org.openjdk.jmh.util.Statistics;
+
+/**
+ * Keeps JMH JSON results as baselines and compares new runs against them, for JDK and hardware upgrades:
+ *
+ * <pre>
+ * RegressionRunner record &lt;baseline.json&gt; [JMH options]    run and save the results as the baseline
+ * RegressionRunner compare &lt;baseline.json&gt; [JMH options]   run (results to jmh-result.json) and compare
+ * RegressionRunner diff &lt;baseline.json&gt; &lt;current.json&gt;    compare two result files
+ * </pre>
+ *
+ * Runs include the {@link BaselineBenchmarks} whenever a selection is given. The current/baseline ratio of their
+ * noop, increment and consume scores (geometric mean) is taken as the machine factor, i.e. how much faster or slower
+ * the machine runs anything at all, and the current scores are scaled by it before comparing. Each benchmark and
+ * param combination is compared with a t-test over the per fork scores, or over all the iteration scores if either
+ * side has fewer than 5 forks, and reported as a regression or an improvement if the difference is both significant
+ * and past the threshold. Exits with 1 if there are any regressions. Tune with -DRegressionRunner.threshold (relative
+ * change, default 0.05), -DRegressionRunner.confidence (default 0.99) and -DRegressionRunner.normalize=false.
+ *
+ * @author nitsan
+ */
+public class RegressionRunner {
+	private static final double THRESHOLD = Double.parseDouble(System.getProperty("RegressionRunner.threshold",
+	        "0.05"));
+	private static final double CONFIDENCE = Double.parseDouble(System.getProperty("RegressionRunner.confidence",
+	        "0.99"));
+	private static final boolean NORMALIZE = !"false".equals(System.getProperty("RegressionRunner.normalize"));
+	// fewer forks than this and a t-test over the fork scores has too few degrees of freedom to flag anything
+	private static final int MIN_FORKS = 5;
+	private static final String[] NOISE_BENCHMARKS = { BaselineBenchmarks.class.getName() + ".noop",
+	        BaselineBenchmarks.class.getName() + ".increment", BaselineBenchmarks.class.getName() + ".consume" };
+
+	static final class Entry {
+		final String benchmark;
+		final String mode;
+		final String params;
+		final String unit;
+		final double score;
+		// iteration scores per fork
+		final List<double[]> forks;
+
+		Entry(String benchmark, String mode, String params, String unit, double score, List<double[]> forks) {
+			this.benchmark = benchmark;
+			this.mode = mode;
+			this.params = params;
+			this.unit = unit;
+			this.score = score;
+			this.forks = forks;
+		}
+
+		String key() {
+			return benchmark + params + " " + mode;
+		}
+
+		boolean higherIsBetter() {
+			return "thrpt".equals(mode);
+		}
+
+		/**
+		 * @param perFork fork means if true, all iteration scores if false
+		 * @param scale applied to every score
+		 */
+		Statistics samples(boolean perFork, double scale) {
+			ListStatistics statistics = new ListStatistics();
+			for (double[] fork : forks) {
+				if (perFork) {
+					double sum = 0;
+					for (double score : fork) {
+						sum += score;
+					}
+					statistics.addValue(sum / fork.length * scale);
+				} else {
+					for (double score : fork) {
+						statistics.addValue(score * scale);
+					}
+				}
+			}
+			return statistics;
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+		if (args.length < 2 || ("diff".equals(args[0]) && args.length != 3)) {
+			usage();
+			return;
+		}
+		File baseline = new File(args[1]);
+		String[] jmhArgs = Arrays.copyOfRange(args, 2, args.length);
+		File current;
+		if ("record".equals(args[0])) {
+			run(jmhArgs, baseline);
+			System.out.println("Baseline saved to " + baseline);
+			return;
+		} else if ("compare".equals(args[0])) {
+			current = new File("jmh-result.json");
+			run(jmhArgs, current);
+		} else if ("diff".equals(args[0])) {
+			current = new File(args[2]);
+		} else {
+			usage();
+			return;
+		}
+		int regressions = compare(load(baseline), load(current));
+		System.exit(regressions == 0 ? 0 : 1);
+	}
+
+	private static void usage() {
+		System.out.println("Usage: RegressionRunner record <baseline.json> [JMH options]");
+		System.out.println("       RegressionRunner compare <baseline.json> [JMH options]");
+		System.out.println("       RegressionRunner diff <baseline.json> <current.json>");
+	}
+
+	private static void run(String[] jmhArgs, File result) throws CommandLineOptionException, RunnerException {
+		CommandLineOptions cmdOptions = new CommandLineOptions(jmhArgs);
+		ChainedOptionsBuilder builder = new OptionsBuilder().parent(cmdOptions).resultFormat(ResultFormatType.JSON)
+		        .result(result.getPath());
+		// no includes runs everything, BaselineBenchmarks included
+		if (!cmdOptions.getIncludes().isEmpty()) {
+			builder.include(BaselineBenchmarks.class.getSimpleName());
+		}
+		new Runner(builder.build()).run();
+	}
+
+	@SuppressWarnings("unchecked")
+	static Map<String, Entry> load(File file) throws IOException {
+		Map<String, Entry> entries = new TreeMap<String, Entry>();
+		for (Object element : (List<Object>) Json.parse(file)) {
+			Map<String, Object> result = (Map<String, Object>) element;
+			StringBuilder params = new StringBuilder();
+			Map<String, Object> paramsMap = (Map<String, Object>) result.get("params");
+			if (paramsMap != null) {
+				for (Map.Entry<String, Object> param : paramsMap.entrySet()) {
+					params.append(' ').append(param.getKey()).append('=').append(param.getValue());
+				}
+			}
+			Map<String, Object> primary = (Map<String, Object>) result.get("primaryMetric");
+			List<double[]> forks = new ArrayList<double[]>();
+			for (Object fork : (List<Object>) primary.get("rawData")) {
+				List<Object> iterations = (List<Object>) fork;
+				double[] scores = new double[iterations.size()];
+				for (int i = 0; i < scores.length; i++) {
+					scores[i] = Json.toDouble(iterations.get(i));
+				}
+				forks.add(scores);
+			}
+			Entry entry = new Entry((String) result.get("benchmark"), (String) result.get("mode"),
+			        params.toString(), (String) primary.get("scoreUnit"), Json.toDouble(primary.get("score")), forks);
+			entries.put(entry.key(), entry);
+		}
+		return entries;
+	}
+
+	/**
+	 * Prints the comparison table.
+	 *
+	 * @return the number of regressions
+	 */
+	static int compare(Map<String, Entry> baseline, Map<String, Entry> current) {
+		double factor = NORMALIZE ? machineFactor(baseline, current) : 1;
+		int regressions = 0;
+		System.out.println();
+		System.out.printf("%-70s %14s %14s %12s %8s  %s%n", "Benchmark", "Baseline", "Current", "Units", "Change",
+		        "Verdict");
+		for (Entry base : baseline.values()) {
+			if (isNoiseBenchmark(base)) {
+				continue;
+			}
+			String label = base.key();
+			Entry now = current.get(base.key());
+			if (now == null) {
+				System.out.printf("%-70s %14.3f %14s %12s %8s  %s%n", label, base.score, "-", base.unit, "-",
+				        "missing");
+				continue;
+			}
+			// a slower machine makes times longer and throughput lower, take that out of the current scores
+			double scale = now.higherIsBetter() ? factor : 1 / factor;
+			boolean perFork = base.forks.size() >= MIN_FORKS && now.forks.size() >= MIN_FORKS;
+			Statistics before = base.samples(perFork, 1);
+			Statistics after = now.samples(perFork, scale);
+			double change = after.getMean() / before.getMean() - 1;
+			boolean worse = now.higherIsBetter() ? change < 0 : change > 0;
+			String verdict;
+			if (Math.abs(change) <= THRESHOLD) {
+				verdict = "same";
+			} else if (before.getN() < 2 || after.getN() < 2) {
+				verdict = "untested, too few samples";
+			} else if (!before.isDifferent(after, CONFIDENCE)) {
+				verdict = "same, not significant";
+			} else if (worse) {
+				verdict = "REGRESSION";
+				regressions++;
+			} else {
+				verdict = "improvement";
+			}
+			System.out.printf("%-70s %14.3f %14.3f %12s %+7.1f%%  %s%n", label, before.getMean(), after.getMean(),
+			        now.unit, change * 100, verdict);
+		}
+		for (Entry now : current.values()) {
+			if (!baseline.containsKey(now.key()) && !isNoiseBenchmark(now)) {
+				System.out.printf("%-70s %14s %14.3f %12s %8s  %s%n", now.key(), "-", now.score,
+				        now.unit, "-", "new");
+			}
+		}
+		System.out.println(regressions + " regressions past " + THRESHOLD * 100 + "% at " + CONFIDENCE * 100
+		        + "% confidence");
+		return regressions;
+	}
+
+	/**
+	 * @return geometric mean of current/baseline for the noise benchmarks found in both, 1 if there are none
+	 */
+	private static double machineFactor(Map<String, Entry> baseline, Map<String, Entry> current) {
+		double logSum = 0;
+		int count = 0;
+		for (Entry base : baseline.values()) {
+			Entry now = current.get(base.key());
+			if (!isNoiseBenchmark(base) || now == null) {
+				continue;
+			}
+			double ratio = now.score / base.score;
+			if (now.higherIsBetter()) {
+				ratio = 1 / ratio;
+			}
+			System.out.printf("Machine noise %s %s: %.3f -> %.3f %s%n", base.benchmark, base.mode, base.score,
+			        now.score, now.unit);
+			logSum += Math.log(ratio);
+			count++;
+		}
+		if (count == 0) {
+			System.out.println("No BaselineBenchmarks results in both runs, not normalising");
+			return 1;
+		}
+		double factor = Math.exp(logSum / count);
+		System.out.printf("Machine factor %.3f (current time per op / baseline time per op)%n", factor);
+		return factor;
+	}
+
+	private static boolean isNoiseBenchmark(Entry entry) {
+		for (String benchmark : NOISE_BENCHMARKS) {
+			if (benchmark.equals(entry.benchmark)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
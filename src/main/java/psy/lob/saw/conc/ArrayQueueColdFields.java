@@ -0,0 +1,114 @@
+package psy.lob.saw.conc;
+
+import static psy.lob.saw.util.UnsafeAccess.UNSAFE;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The fields the array backed queues share and never write after construction, the buffer is padded so its ends
+ * don't share a cache line with whatever is allocated next to it.
+ */
+abstract class ArrayQueueColdFields<E> extends AbstractQueue<E> implements DrainableQueue<E> {
+    // pad the buffer by this many references on each side, a cache line and then some for compressed and uncompressed
+    protected static final int BUFFER_PAD = 32;
+    protected static final long ARRAY_BASE;
+    protected static final int ELEMENT_SHIFT;
+    static {
+        int scale = UNSAFE.arrayIndexScale(Object[].class);
+        if (scale == 4) {
+            ELEMENT_SHIFT = 2;
+        } else if (scale == 8) {
+            ELEMENT_SHIFT = 3;
+        } else {
+            throw new IllegalStateException("Unknown pointer size");
+        }
+        ARRAY_BASE = UNSAFE.arrayBaseOffset(Object[].class) + (BUFFER_PAD << ELEMENT_SHIFT);
+    }
+    protected final int capacity;
+    protected final long mask;
+    protected final E[] buffer;
+
+    @SuppressWarnings("unchecked")
+    ArrayQueueColdFields(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30))
+            throw new IllegalArgumentException("capacity: " + capacity);
+        this.capacity = roundToPowerOfTwo(capacity);
+        this.mask = this.capacity - 1;
+        this.buffer = (E[]) new Object[this.capacity + BUFFER_PAD * 2];
+    }
+
+    static int roundToPowerOfTwo(int value) {
+        int powerOfTwo = Integer.highestOneBit(value - 1) << 1;
+        return powerOfTwo == 0 ? 1 : powerOfTwo;
+    }
+
+    protected final long offset(long index) {
+        return ARRAY_BASE + ((index & mask) << ELEMENT_SHIFT);
+    }
+
+    /**
+     * @return the consumer index, a volatile read
+     */
+    protected abstract long currentHead();
+
+    /**
+     * @return the producer index, a volatile read
+     */
+    protected abstract long currentTail();
+
+    /**
+     * A weakly consistent, read only iterator over the slots between head and tail as they were when it was created.
+     * It never throws ConcurrentModificationException, but may miss elements offered or return elements polled while
+     * it runs. It does not support remove. This is what toString/contains and friends go through, so they are only
+     * estimates too.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new WeakIterator(currentHead(), currentTail());
+    }
+
+    private final class WeakIterator implements Iterator<E> {
+        private final long end;
+        private long index;
+        private E next;
+
+        WeakIterator(long start, long end) {
+            this.index = start;
+            this.end = end;
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while (next == null && index < end) {
+                E e = (E) UNSAFE.getObjectVolatile(buffer, offset(index));
+                // null is a slot consumed or not yet written, and a slot head has passed may hold a later element
+                if (e != null && currentHead() <= index)
+                    next = e;
+                index++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public E next() {
+            E e = next;
+            if (e == null)
+                throw new NoSuchElementException();
+            advance();
+            return e;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package psy.lob.saw.conc;
+
+import java.util.Queue;
+
+/**
+ * A queue the consumer can take a batch of elements from at a time, paying for the index update (and its fence) once
+ * per batch rather than once per element.
+ *
+ * @author nitsan
+ */
+public interface DrainableQueue<E> extends Queue<E> {
+    interface Consumer<E> {
+        void accept(E e);
+    }
+
+    /**
+     * Hands up to limit elements to the consumer, stopping early if the queue is (or looks) empty.
+     *
+     * @return the number of elements drained
+     */
+    int drain(Consumer<? super E> consumer, int limit);
+}
@@ -0,0 +1,103 @@
+package psy.lob.saw.conc;
+
+import static psy.lob.saw.util.UnsafeAccess.UNSAFE;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The other side of {@link InterProcessPingPongBenchmark}: echoes every record it gets back to the sender, either
+ * from one {@link OffHeapSpscQueue} in a mapped file to another or over a loopback TCP connection. Exits when its
+ * stdin is closed, which happens when the process which launched it goes away.<br>
+ * Usage: InterProcessEchoer mappedQueue &lt;file&gt; &lt;capacity&gt; &lt;record size&gt; | tcp &lt;port&gt;
+ */
+public class InterProcessEchoer {
+    public static void main(String[] args) throws Exception {
+        exitWithParent();
+        if ("mappedQueue".equals(args[0])) {
+            echoMapped(new File(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+        } else if ("tcp".equals(args[0])) {
+            echoTcp(Integer.parseInt(args[1]));
+        } else {
+            throw new IllegalArgumentException("Unknown transport: " + args[0]);
+        }
+    }
+
+    /**
+     * Maps the file and splits it in 2 page aligned regions, requests then responses, each big enough for a queue of
+     * the given size.
+     */
+    static ByteBuffer[] mapRegions(File file, int capacity, int recordSize) throws IOException {
+        int pageSize = UNSAFE.pageSize();
+        int regionSize = (OffHeapSpscQueue.requiredBytes(capacity, recordSize) + pageSize - 1) / pageSize * pageSize;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            MappedByteBuffer mapped = raf.getChannel().map(MapMode.READ_WRITE, 0, regionSize * 2);
+            mapped.limit(regionSize);
+            ByteBuffer requests = mapped.slice();
+            mapped.limit(regionSize * 2).position(regionSize);
+            ByteBuffer responses = mapped.slice();
+            return new ByteBuffer[] { requests, responses };
+        } finally {
+            // the mapping outlives the channel
+            raf.close();
+        }
+    }
+
+    private static void echoMapped(File file, int capacity, int recordSize) throws IOException {
+        ByteBuffer[] regions = mapRegions(file, capacity, recordSize);
+        OffHeapSpscQueue requests = OffHeapSpscQueue.attach(regions[0]);
+        OffHeapSpscQueue responses = OffHeapSpscQueue.attach(regions[1]);
+        while (true) {
+            long request;
+            while ((request = requests.peek()) == 0) {
+            }
+            long response;
+            while ((response = responses.claim()) == 0) {
+            }
+            UNSAFE.copyMemory(request, response, recordSize);
+            requests.release();
+            responses.commit();
+        }
+    }
+
+    private static void echoTcp(int port) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.connect(new InetSocketAddress("127.0.0.1", port));
+        ByteBuffer buffy = ByteBuffer.allocateDirect(65536);
+        while (true) {
+            buffy.clear();
+            if (channel.read(buffy) < 0)
+                return;
+            buffy.flip();
+            while (buffy.hasRemaining()) {
+                channel.write(buffy);
+            }
+        }
+    }
+
+    private static void exitWithParent() {
+        Thread watcher = new Thread("parent-watcher") {
+            @Override
+            public void run() {
+                try {
+                    while (System.in.read() != -1) {
+                    }
+                } catch (IOException e) {
+                    // as good as closed
+                }
+                System.exit(0);
+            }
+        };
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+}
@@ -0,0 +1,137 @@
+package psy.lob.saw.conc;
+
+import static psy.lob.saw.util.UnsafeAccess.UNSAFE;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import psy.lob.saw.utf8.UnsafeDirectByteBuffer;
+
+/**
+ * Round trip of a record to another process and back: through a pair of {@link OffHeapSpscQueue}s in a file both
+ * processes map (under /dev/shm where there is one), against a loopback TCP connection. The other process is an
+ * {@link InterProcessEchoer} launched from the benchmark fork with the same JVM and class path. Both sides spin, so
+ * this wants 2 free cores (pinned, ideally on the same socket) to mean anything.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InterProcessPingPongBenchmark {
+    private static final int CAPACITY = 1024;
+
+    @Param({ "mappedQueue", "tcp" })
+    String transport;
+
+    @Param({ "8", "64" })
+    int recordSize;
+
+    Process echoer;
+    File file;
+    OffHeapSpscQueue requests;
+    OffHeapSpscQueue responses;
+    ServerSocketChannel server;
+    SocketChannel channel;
+    ByteBuffer record;
+    long sequence;
+
+    @Setup
+    public void init() throws IOException {
+        if ("mappedQueue".equals(transport)) {
+            File shm = new File("/dev/shm");
+            file = File.createTempFile("InterProcessPingPongBenchmark", ".queue", shm.isDirectory() ? shm : null);
+            ByteBuffer[] regions = InterProcessEchoer.mapRegions(file, CAPACITY, recordSize);
+            requests = OffHeapSpscQueue.create(regions[0], CAPACITY, recordSize);
+            responses = OffHeapSpscQueue.create(regions[1], CAPACITY, recordSize);
+            echoer = launch("mappedQueue", file.getPath(), Integer.toString(CAPACITY), Integer.toString(recordSize));
+        } else if ("tcp".equals(transport)) {
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+            echoer = launch("tcp", Integer.toString(port));
+            channel = server.accept();
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            record = ByteBuffer.allocateDirect(recordSize);
+        } else {
+            throw new IllegalArgumentException("Unknown transport: " + transport);
+        }
+    }
+
+    private static Process launch(String... args) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(InterProcessEchoer.class.getName());
+        for (String arg : args) {
+            command.add(arg);
+        }
+        // stdin stays a pipe, the echoer exits when we close it (or die)
+        return new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    @TearDown
+    public void close() throws Exception {
+        echoer.getOutputStream().close();
+        echoer.waitFor();
+        if (channel != null) {
+            channel.close();
+            server.close();
+        }
+        if (file != null) {
+            // both queues are in the one mapping
+            UnsafeDirectByteBuffer.free(requests.region());
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public long pingPong() throws IOException {
+        long stamp = ++sequence;
+        if (requests != null) {
+            long address;
+            while ((address = requests.claim()) == 0) {
+            }
+            UNSAFE.putLong(address, stamp);
+            requests.commit();
+            while ((address = responses.peek()) == 0) {
+            }
+            stamp = UNSAFE.getLong(address);
+            responses.release();
+        } else {
+            ByteBuffer buffy = record;
+            buffy.clear();
+            buffy.putLong(0, stamp);
+            while (buffy.hasRemaining()) {
+                channel.write(buffy);
+            }
+            buffy.clear();
+            while (buffy.hasRemaining()) {
+                if (channel.read(buffy) < 0)
+                    throw new IOException("Echoer went away");
+            }
+            stamp = buffy.getLong(0);
+        }
+        if (stamp != sequence)
+            throw new IllegalStateException("Expected " + sequence + " got " + stamp);
+        return stamp;
+    }
+}
@@ -0,0 +1,239 @@
+package psy.lob.saw.conc;
+
+import static psy.lob.saw.util.UnsafeAccess.UNSAFE;
+
+abstract class MpmcArrayQueueSequenceFields<E> extends ArrayQueueColdFields<E> {
+    // padded like the buffer, 8 longs a cache line
+    protected static final int SEQUENCE_PAD = 8;
+    protected static final long SEQUENCE_BASE = UNSAFE.arrayBaseOffset(long[].class) + (SEQUENCE_PAD << 3);
+    protected final long[] sequences;
+
+    MpmcArrayQueueSequenceFields(int capacity) {
+        super(capacity);
+        sequences = new long[this.capacity + SEQUENCE_PAD * 2];
+        for (int i = 0; i < this.capacity; i++) {
+            // slot i is free for the producer claiming index i
+            UNSAFE.putOrderedLong(sequences, sequenceOffset(i), i);
+        }
+    }
+
+    protected final long sequenceOffset(long index) {
+        return SEQUENCE_BASE + ((index & mask) << 3);
+    }
+}
+
+abstract class MpmcArrayQueueL1Pad<E> extends MpmcArrayQueueSequenceFields<E> {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+
+    MpmcArrayQueueL1Pad(int capacity) {
+        super(capacity);
+    }
+}
+
+abstract class MpmcArrayQueueTailFields<E> extends MpmcArrayQueueL1Pad<E> {
+    protected static final long TAIL_OFFSET;
+    static {
+        try {
+            TAIL_OFFSET = UNSAFE.objectFieldOffset(MpmcArrayQueueTailFields.class.getDeclaredField("tail"));
+        } catch (NoSuchFieldException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    protected volatile long tail;
+
+    MpmcArrayQueueTailFields(int capacity) {
+        super(capacity);
+    }
+
+    protected final boolean casTail(long expect, long newValue) {
+        return UNSAFE.compareAndSwapLong(this, TAIL_OFFSET, expect, newValue);
+    }
+}
+
+abstract class MpmcArrayQueueL2Pad<E> extends MpmcArrayQueueTailFields<E> {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+
+    MpmcArrayQueueL2Pad(int capacity) {
+        super(capacity);
+    }
+}
+
+abstract class MpmcArrayQueueHeadFields<E> extends MpmcArrayQueueL2Pad<E> {
+    protected static final long HEAD_OFFSET;
+    static {
+        try {
+            HEAD_OFFSET = UNSAFE.objectFieldOffset(MpmcArrayQueueHeadFields.class.getDeclaredField("head"));
+        } catch (NoSuchFieldException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    protected volatile long head;
+
+    MpmcArrayQueueHeadFields(int capacity) {
+        super(capacity);
+    }
+
+    protected final boolean casHead(long expect, long newValue) {
+        return UNSAFE.compareAndSwapLong(this, HEAD_OFFSET, expect, newValue);
+    }
+}
+
+abstract class MpmcArrayQueueL3Pad<E> extends MpmcArrayQueueHeadFields<E> {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+
+    MpmcArrayQueueL3Pad(int capacity) {
+        super(capacity);
+    }
+}
+
+/**
+ * A bounded multi producer multi consumer queue after Dmitry Vyukov's bounded MPMC queue. Every slot has a sequence
+ * number which says whose turn it is: a slot at index i is free for the producer claiming index i when its sequence
+ * is i, and full for the consumer claiming index i when its sequence is i + 1. Producers and consumers claim indices
+ * with a CAS on tail/head, and hand the slot over by an ordered store of the next sequence (i + 1 for the consumer,
+ * i + capacity for the next round's producer). Indices are padded as in {@link SpscArrayQueue}.<br>
+ * Size is an estimate and iteration is weakly consistent.
+ *
+ * @author nitsan
+ */
+public final class MpmcArrayQueue<E> extends MpmcArrayQueueL3Pad<E> {
+
+    /**
+     * @param capacity rounded up to the next power of 2, at least 2
+     */
+    public MpmcArrayQueue(int capacity) {
+        // with 1 slot the full (i + 1) and free (i + capacity) sequences are the same
+        super(Math.max(capacity, 2));
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException("Null elements are not supported");
+        long[] sequences = this.sequences;
+        long currentTail;
+        long sequenceOffset;
+        while (true) {
+            currentTail = tail;
+            sequenceOffset = sequenceOffset(currentTail);
+            long delta = UNSAFE.getLongVolatile(sequences, sequenceOffset) - currentTail;
+            if (delta == 0) {
+                if (casTail(currentTail, currentTail + 1))
+                    break;
+            } else if (delta < 0) {
+                // the slot still holds the element from the previous round
+                return false;
+            }
+            // else another producer got this index, try the next
+        }
+        UNSAFE.putObject(buffer, offset(currentTail), e);
+        UNSAFE.putOrderedLong(sequences, sequenceOffset, currentTail + 1);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public E poll() {
+        long[] sequences = this.sequences;
+        long currentHead;
+        long sequenceOffset;
+        while (true) {
+            currentHead = head;
+            sequenceOffset = sequenceOffset(currentHead);
+            long delta = UNSAFE.getLongVolatile(sequences, sequenceOffset) - (currentHead + 1);
+            if (delta == 0) {
+                if (casHead(currentHead, currentHead + 1))
+                    break;
+            } else if (delta < 0) {
+                // empty, or the producer has not written it yet
+                return null;
+            }
+        }
+        long offset = offset(currentHead);
+        E e = (E) UNSAFE.getObject(buffer, offset);
+        UNSAFE.putObject(buffer, offset, null);
+        UNSAFE.putOrderedLong(sequences, sequenceOffset, currentHead + capacity);
+        return e;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public E peek() {
+        while (true) {
+            long currentHead = head;
+            long delta = UNSAFE.getLongVolatile(sequences, sequenceOffset(currentHead)) - (currentHead + 1);
+            if (delta < 0)
+                return null;
+            E e = (E) UNSAFE.getObjectVolatile(buffer, offset(currentHead));
+            // make sure a consumer did not take it from under us
+            if (delta == 0 && e != null && currentHead == head)
+                return e;
+        }
+    }
+
+    /**
+     * Claims as many consecutive full slots as are there (up to the limit) with a single CAS on head, then takes them
+     * one by one. The claimed slots can't be handed back, so if the consumer throws the rest of the batch is dropped.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public int drain(Consumer<? super E> consumer, int limit) {
+        long[] sequences = this.sequences;
+        long currentHead;
+        int batch;
+        do {
+            currentHead = head;
+            batch = 0;
+            while (batch < limit
+                    && UNSAFE.getLongVolatile(sequences, sequenceOffset(currentHead + batch)) == currentHead + batch + 1) {
+                batch++;
+            }
+            if (batch == 0)
+                return 0;
+        } while (!casHead(currentHead, currentHead + batch));
+        E[] buffer = this.buffer;
+        int taken = 0;
+        try {
+            while (taken < batch) {
+                long index = currentHead + taken;
+                long offset = offset(index);
+                E e = (E) UNSAFE.getObject(buffer, offset);
+                UNSAFE.putObject(buffer, offset, null);
+                UNSAFE.putOrderedLong(sequences, sequenceOffset(index), index + capacity);
+                taken++;
+                consumer.accept(e);
+            }
+        } finally {
+            // hand the slots claimed but not taken on to the producers
+            for (long index = currentHead + taken; index < currentHead + batch; index++) {
+                UNSAFE.putObject(buffer, offset(index), null);
+                UNSAFE.putOrderedLong(sequences, sequenceOffset(index), index + capacity);
+            }
+        }
+        return taken;
+    }
+
+    @Override
+    protected long currentHead() {
+        return head;
+    }
+
+    @Override
+    protected long currentTail() {
+        return tail;
+    }
+
+    @Override
+    public int size() {
+        long currentHead = head;
+        return (int) Math.max(tail - currentHead, 0);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+}
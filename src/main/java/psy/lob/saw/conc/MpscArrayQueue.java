@@ -0,0 +1,204 @@
+package psy.lob.saw.conc;
+
+import static psy.lob.saw.util.UnsafeAccess.UNSAFE;
+
+abstract class MpscArrayQueueL1Pad<E> extends ArrayQueueColdFields<E> {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+
+    MpscArrayQueueL1Pad(int capacity) {
+        super(capacity);
+    }
+}
+
+abstract class MpscArrayQueueTailFields<E> extends MpscArrayQueueL1Pad<E> {
+    protected static final long TAIL_OFFSET;
+    static {
+        try {
+            TAIL_OFFSET = UNSAFE.objectFieldOffset(MpscArrayQueueTailFields.class.getDeclaredField("tail"));
+        } catch (NoSuchFieldException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    // producer index, claimed with a CAS
+    protected volatile long tail;
+
+    MpscArrayQueueTailFields(int capacity) {
+        super(capacity);
+    }
+
+    protected final boolean casTail(long expect, long newValue) {
+        return UNSAFE.compareAndSwapLong(this, TAIL_OFFSET, expect, newValue);
+    }
+}
+
+abstract class MpscArrayQueueHeadCacheFields<E> extends MpscArrayQueueTailFields<E> {
+    // last consumer index seen by any producer, racy but it only ever errs on the side of full
+    protected volatile long headCache;
+
+    MpscArrayQueueHeadCacheFields(int capacity) {
+        super(capacity);
+    }
+}
+
+abstract class MpscArrayQueueL2Pad<E> extends MpscArrayQueueHeadCacheFields<E> {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+
+    MpscArrayQueueL2Pad(int capacity) {
+        super(capacity);
+    }
+}
+
+abstract class MpscArrayQueueHeadFields<E> extends MpscArrayQueueL2Pad<E> {
+    protected static final long HEAD_OFFSET;
+    static {
+        try {
+            HEAD_OFFSET = UNSAFE.objectFieldOffset(MpscArrayQueueHeadFields.class.getDeclaredField("head"));
+        } catch (NoSuchFieldException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    // consumer index, only written by the consumer
+    protected volatile long head;
+
+    MpscArrayQueueHeadFields(int capacity) {
+        super(capacity);
+    }
+}
+
+abstract class MpscArrayQueueL3Pad<E> extends MpscArrayQueueHeadFields<E> {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+
+    MpscArrayQueueL3Pad(int capacity) {
+        super(capacity);
+    }
+}
+
+/**
+ * A bounded multi producer single consumer queue. Producers claim a slot by a CAS on the producer index (tail) and
+ * then publish the element into it with an ordered store, so the consumer may see the index move before the element
+ * lands. The consumer tells the two apart by the slot being null: an empty queue has head == tail, a slot which is
+ * claimed but not yet written has head < tail. The consumer nulls out each slot before moving head on, so a producer
+ * seeing head move knows the slot is free. Padding and the cached consumer index are as in {@link SpscArrayQueue},
+ * except the cache is shared between the producers.<br>
+ * Only {@link #poll()}/{@link #peek()}/{@link #drain(DrainableQueue.Consumer, int)} from one thread are supported,
+ * size is an estimate and iteration is weakly consistent.
+ *
+ * @author nitsan
+ */
+public final class MpscArrayQueue<E> extends MpscArrayQueueL3Pad<E> {
+
+    /**
+     * @param capacity rounded up to the next power of 2
+     */
+    public MpscArrayQueue(int capacity) {
+        super(capacity);
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException("Null elements are not supported");
+        long currentTail;
+        do {
+            currentTail = tail;
+            long wrapPoint = currentTail - capacity;
+            if (headCache <= wrapPoint) {
+                long currentHead = head;
+                if (currentHead <= wrapPoint)
+                    return false;
+                headCache = currentHead;
+            }
+        } while (!casTail(currentTail, currentTail + 1));
+        UNSAFE.putOrderedObject(buffer, offset(currentTail), e);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public E poll() {
+        long currentHead = head;
+        long offset = offset(currentHead);
+        E[] buffer = this.buffer;
+        E e = (E) UNSAFE.getObjectVolatile(buffer, offset);
+        if (e == null) {
+            if (currentHead == tail)
+                return null;
+            // the slot is claimed, the producer is about to write it
+            do {
+                e = (E) UNSAFE.getObjectVolatile(buffer, offset);
+            } while (e == null);
+        }
+        UNSAFE.putOrderedObject(buffer, offset, null);
+        UNSAFE.putOrderedLong(this, HEAD_OFFSET, currentHead + 1);
+        return e;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public E peek() {
+        long currentHead = head;
+        long offset = offset(currentHead);
+        E e = (E) UNSAFE.getObjectVolatile(buffer, offset);
+        if (e == null) {
+            if (currentHead == tail)
+                return null;
+            do {
+                e = (E) UNSAFE.getObjectVolatile(buffer, offset);
+            } while (e == null);
+        }
+        return e;
+    }
+
+    /**
+     * Takes elements until the limit or the first slot not yet written, and publishes the consumer index once for
+     * the whole batch. The slots are nulled out with plain stores, which the ordered store of the index keeps from
+     * being seen after it.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public int drain(Consumer<? super E> consumer, int limit) {
+        long currentHead = head;
+        E[] buffer = this.buffer;
+        int batch = 0;
+        try {
+            while (batch < limit) {
+                long offset = offset(currentHead + batch);
+                E e = (E) UNSAFE.getObjectVolatile(buffer, offset);
+                if (e == null)
+                    break;
+                UNSAFE.putObject(buffer, offset, null);
+                batch++;
+                consumer.accept(e);
+            }
+        } finally {
+            // the slots taken are free even if the consumer threw
+            if (batch > 0)
+                UNSAFE.putOrderedLong(this, HEAD_OFFSET, currentHead + batch);
+        }
+        return batch;
+    }
+
+    @Override
+    protected long currentHead() {
+        return head;
+    }
+
+    @Override
+    protected long currentTail() {
+        return tail;
+    }
+
+    @Override
+    public int size() {
+        long currentHead = head;
+        return (int) (tail - currentHead);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return tail == head;
+    }
+}
@@ -0,0 +1,145 @@
+package psy.lob.saw.conc;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Control;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Many producers feeding one consumer, 1:1, 4:1 and 16:1. The consumer takes up to consumeBatch elements per op, by
+ * drain where the queue has it and by polling in a loop where it does not, the elements counter is the number of
+ * elements actually consumed. Run main to get the allocation rate (gc.churn) from the GC profiler alongside.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MpscQueueBenchmark {
+    private static final Integer ONE = 777;
+
+    @Param({ "MpscArrayQueue", "MpmcArrayQueue", "ArrayBlockingQueue", "LinkedBlockingQueue", "ConcurrentLinkedQueue" })
+    String qType;
+
+    @Param({ "1", "64" })
+    int consumeBatch;
+
+    @Param({ "1024" })
+    int qCapacity;
+
+    Queue<Integer> q;
+    // the one consumer thread, so a plain field will do
+    long blackhole;
+    final DrainableQueue.Consumer<Integer> consumer = new DrainableQueue.Consumer<Integer>() {
+        @Override
+        public void accept(Integer e) {
+            blackhole += e;
+        }
+    };
+
+    @AuxCounters
+    @State(Scope.Thread)
+    public static class Consumed {
+        public long elements;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            elements = 0;
+        }
+    }
+
+    @Setup
+    public void init() {
+        q = QueueFactory.build(qType, qCapacity);
+    }
+
+    @Benchmark
+    @Group("p1c1")
+    @GroupThreads(1)
+    public void offer1(Control ctl) {
+        offer(ctl);
+    }
+
+    @Benchmark
+    @Group("p1c1")
+    @GroupThreads(1)
+    public int consume1(Control ctl, Consumed consumed) {
+        return consume(ctl, consumed);
+    }
+
+    @Benchmark
+    @Group("p4c1")
+    @GroupThreads(4)
+    public void offer4(Control ctl) {
+        offer(ctl);
+    }
+
+    @Benchmark
+    @Group("p4c1")
+    @GroupThreads(1)
+    public int consume4(Control ctl, Consumed consumed) {
+        return consume(ctl, consumed);
+    }
+
+    @Benchmark
+    @Group("p16c1")
+    @GroupThreads(16)
+    public void offer16(Control ctl) {
+        offer(ctl);
+    }
+
+    @Benchmark
+    @Group("p16c1")
+    @GroupThreads(1)
+    public int consume16(Control ctl, Consumed consumed) {
+        return consume(ctl, consumed);
+    }
+
+    private void offer(Control ctl) {
+        while (!q.offer(ONE) && !ctl.stopMeasurement) {
+        }
+    }
+
+    private int consume(Control ctl, Consumed consumed) {
+        int count;
+        while ((count = take()) == 0 && !ctl.stopMeasurement) {
+        }
+        consumed.elements += count;
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int take() {
+        if (consumeBatch > 1 && q instanceof DrainableQueue) {
+            return ((DrainableQueue<Integer>) q).drain(consumer, consumeBatch);
+        }
+        int count = 0;
+        Integer e;
+        while (count < consumeBatch && (e = q.poll()) != null) {
+            consumer.accept(e);
+            count++;
+        }
+        return count;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(MpscQueueBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class).build();
+        new Runner(opt).run();
+    }
+}
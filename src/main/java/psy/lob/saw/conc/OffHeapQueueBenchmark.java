@@ -0,0 +1,152 @@
+package psy.lob.saw.conc;
+
+import static psy.lob.saw.util.UnsafeAccess.UNSAFE;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Control;
+
+import psy.lob.saw.utf8.UnsafeDirectByteBuffer;
+
+/**
+ * The {@link OffHeapSpscQueue} between two threads of the same JVM, over a cache line aligned direct buffer or a
+ * mapped file: the same pingPong and burst groups as {@link SpscQueueBenchmark} (which has the on heap queues to
+ * compare with), with a long written to/read from each record in place. See {@link InterProcessPingPongBenchmark} for
+ * the two process case.
+ */
+@State(Scope.Group)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OffHeapQueueBenchmark {
+    private static final int CAPACITY = 1024;
+
+    @Param({ "aligned", "mapped" })
+    String region;
+
+    @Param({ "8", "64" })
+    int recordSize;
+
+    @Param({ "1", "100" })
+    int burstSize;
+
+    File file;
+    OffHeapSpscQueue in;
+    OffHeapSpscQueue out;
+    OffHeapSpscQueue inConsumer;
+    OffHeapSpscQueue outConsumer;
+
+    @Setup
+    public void init() throws IOException {
+        ByteBuffer[] regions;
+        if ("mapped".equals(region)) {
+            file = File.createTempFile("OffHeapQueueBenchmark", ".queue");
+            regions = InterProcessEchoer.mapRegions(file, CAPACITY, recordSize);
+        } else {
+            int size = OffHeapSpscQueue.requiredBytes(CAPACITY, recordSize);
+            regions = new ByteBuffer[] {
+                    UnsafeDirectByteBuffer.allocateAlignedByteBuffer(size, UnsafeDirectByteBuffer.PAGE_SIZE),
+                    UnsafeDirectByteBuffer.allocateAlignedByteBuffer(size, UnsafeDirectByteBuffer.PAGE_SIZE) };
+        }
+        // each side has an instance of its own, as it would across processes
+        in = OffHeapSpscQueue.create(regions[0], CAPACITY, recordSize);
+        out = OffHeapSpscQueue.create(regions[1], CAPACITY, recordSize);
+        inConsumer = OffHeapSpscQueue.attach(regions[0]);
+        outConsumer = OffHeapSpscQueue.attach(regions[1]);
+    }
+
+    @TearDown
+    public void close() {
+        // for a mapped file these are slices of the same mapping, freeing it twice does no harm
+        UnsafeDirectByteBuffer.free(in.region());
+        UnsafeDirectByteBuffer.free(out.region());
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    @Group("pingPong")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.AverageTime)
+    public void ping(Control ctl) {
+        for (int i = 0; i < burstSize; i++) {
+            offer(in, i, ctl);
+        }
+        for (int i = 0; i < burstSize; i++) {
+            poll(outConsumer, ctl);
+        }
+    }
+
+    @Benchmark
+    @Group("pingPong")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.AverageTime)
+    public void pong(Control ctl) {
+        for (int i = 0; i < burstSize; i++) {
+            long address;
+            while ((address = inConsumer.peek()) == 0 && !ctl.stopMeasurement) {
+            }
+            if (address == 0)
+                return;
+            long value = UNSAFE.getLong(address);
+            inConsumer.release();
+            offer(out, value, ctl);
+        }
+    }
+
+    @Benchmark
+    @Group("burst")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.Throughput)
+    public void offer(Control ctl) {
+        for (int i = 0; i < burstSize; i++) {
+            offer(in, i, ctl);
+        }
+    }
+
+    @Benchmark
+    @Group("burst")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.Throughput)
+    public long poll(Control ctl) {
+        long sum = 0;
+        for (int i = 0; i < burstSize; i++) {
+            sum += poll(inConsumer, ctl);
+        }
+        return sum;
+    }
+
+    private static void offer(OffHeapSpscQueue q, long value, Control ctl) {
+        long address;
+        while ((address = q.claim()) == 0 && !ctl.stopMeasurement) {
+        }
+        if (address == 0)
+            return;
+        UNSAFE.putLong(address, value);
+        q.commit();
+    }
+
+    private static long poll(OffHeapSpscQueue q, Control ctl) {
+        long address;
+        while ((address = q.peek()) == 0 && !ctl.stopMeasurement) {
+        }
+        if (address == 0)
+            return 0;
+        long value = UNSAFE.getLong(address);
+        q.release();
+        return value;
+    }
+}
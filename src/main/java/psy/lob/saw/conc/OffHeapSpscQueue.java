@@ -0,0 +1,216 @@
+package psy.lob.saw.conc;
+
+import static psy.lob.saw.util.UnsafeAccess.UNSAFE;
+
+import java.nio.ByteBuffer;
+
+import psy.lob.saw.utf8.UnsafeDirectByteBuffer;
+
+/**
+ * A single producer single consumer queue of fixed size records, laid out entirely in a direct buffer so the two
+ * sides can be in different processes mapping the same file (or in the same process, over an aligned buffer). The
+ * region must be cache line aligned ({@link UnsafeDirectByteBuffer#allocateAlignedByteBuffer(int, long)}, or a
+ * MappedByteBuffer which is page aligned) and is laid out as:
+ *
+ * <pre>
+ * 0   capacity (int), record size (int)
+ * 128 tail, the producer index (long)
+ * 256 head, the consumer index (long)
+ * 384 capacity slots of record size rounded up to 8 bytes
+ * </pre>
+ *
+ * The indices are 2 cache lines apart to keep clear of adjacent line prefetch. Each side keeps a cached copy of the
+ * other's index on heap, and publishes its own with an ordered store, as in {@link SpscArrayQueue}. Records are
+ * written and read in place: {@link #claim()} returns the address of the next free slot and {@link #commit()}
+ * publishes it, {@link #peek()} returns the address of the next full slot and {@link #release()} frees it. An
+ * instance is either the producer or the consumer side, and the region must be kept reachable while it is in use.
+ *
+ * @author nitsan
+ */
+public final class OffHeapSpscQueue {
+    private static final int CAPACITY_OFFSET = 0;
+    private static final int RECORD_SIZE_OFFSET = 4;
+    private static final int TAIL_OFFSET = 2 * UnsafeDirectByteBuffer.CACHE_LINE_SIZE;
+    private static final int HEAD_OFFSET = 4 * UnsafeDirectByteBuffer.CACHE_LINE_SIZE;
+    private static final int HEADER_SIZE = 6 * UnsafeDirectByteBuffer.CACHE_LINE_SIZE;
+    private static final long BYTE_ARRAY_BASE = UNSAFE.arrayBaseOffset(byte[].class);
+
+    private final ByteBuffer region;
+    private final long tailAddress;
+    private final long headAddress;
+    private final long slotsAddress;
+    private final int capacity;
+    private final long mask;
+    private final int recordSize;
+    private final int slotSize;
+    // producer side
+    private long tail;
+    private long headCache;
+    // consumer side
+    private long head;
+    private long tailCache;
+
+    private OffHeapSpscQueue(ByteBuffer region) {
+        if (!region.isDirect() || !UnsafeDirectByteBuffer.isCacheAligned(region))
+            throw new IllegalArgumentException("Region must be a cache line aligned direct buffer");
+        long address = UnsafeDirectByteBuffer.getAddress(region);
+        this.region = region;
+        this.capacity = UNSAFE.getIntVolatile(null, address + CAPACITY_OFFSET);
+        this.recordSize = UNSAFE.getInt(null, address + RECORD_SIZE_OFFSET);
+        // the header is whatever is in the region, check it before trusting it with addresses
+        if (!isValid(capacity, recordSize) || region.capacity() < regionBytes(capacity, recordSize))
+            throw new IllegalArgumentException("Region is not a queue: capacity=" + capacity + ", recordSize="
+                    + recordSize);
+        this.slotSize = (int) slotSize(recordSize);
+        this.mask = capacity - 1;
+        this.tailAddress = address + TAIL_OFFSET;
+        this.headAddress = address + HEAD_OFFSET;
+        this.slotsAddress = address + HEADER_SIZE;
+        this.tail = UNSAFE.getLongVolatile(null, tailAddress);
+        this.head = UNSAFE.getLongVolatile(null, headAddress);
+        this.headCache = head;
+        this.tailCache = tail;
+    }
+
+    /**
+     * @return the region size needed for a queue of this capacity (a power of 2) and record size
+     * @throws IllegalArgumentException if that is more than a buffer can hold
+     */
+    public static int requiredBytes(int capacity, int recordSize) {
+        if (!isValid(capacity, recordSize))
+            throw new IllegalArgumentException("capacity=" + capacity + ", recordSize=" + recordSize);
+        long bytes = regionBytes(capacity, recordSize);
+        if (bytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Queue too large for a buffer: " + bytes + " bytes");
+        return (int) bytes;
+    }
+
+    private static boolean isValid(int capacity, int recordSize) {
+        return capacity > 0 && Integer.bitCount(capacity) == 1 && recordSize > 0;
+    }
+
+    private static long regionBytes(int capacity, int recordSize) {
+        return HEADER_SIZE + capacity * slotSize(recordSize);
+    }
+
+    private static long slotSize(int recordSize) {
+        return (recordSize + 7L) & ~7L;
+    }
+
+    /**
+     * Lay out an empty queue in the region. Only one side should do this, before the other attaches.
+     *
+     * @param capacity rounded up to the next power of 2
+     */
+    public static OffHeapSpscQueue create(ByteBuffer region, int capacity, int recordSize) {
+        capacity = ArrayQueueColdFields.roundToPowerOfTwo(capacity);
+        int requiredBytes = requiredBytes(capacity, recordSize);
+        if (region.capacity() < requiredBytes)
+            throw new IllegalArgumentException("Region too small, need " + requiredBytes);
+        long address = UnsafeDirectByteBuffer.getAddress(region);
+        UNSAFE.putLong(null, address + TAIL_OFFSET, 0);
+        UNSAFE.putLong(null, address + HEAD_OFFSET, 0);
+        UNSAFE.putInt(null, address + RECORD_SIZE_OFFSET, recordSize);
+        // capacity last, the other side can tell the queue is ready once it is there
+        UNSAFE.putIntVolatile(null, address + CAPACITY_OFFSET, capacity);
+        return new OffHeapSpscQueue(region);
+    }
+
+    /**
+     * Attach to a queue created (by this or another process) in the region.
+     */
+    public static OffHeapSpscQueue attach(ByteBuffer region) {
+        return new OffHeapSpscQueue(region);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int recordSize() {
+        return recordSize;
+    }
+
+    public ByteBuffer region() {
+        return region;
+    }
+
+    /**
+     * @return the address of the next free slot to write a record to, or 0 if the queue is full
+     */
+    public long claim() {
+        long wrapPoint = tail - capacity;
+        if (headCache <= wrapPoint) {
+            headCache = UNSAFE.getLongVolatile(null, headAddress);
+            if (headCache <= wrapPoint)
+                return 0;
+        }
+        return slotsAddress + (tail & mask) * slotSize;
+    }
+
+    /**
+     * Publish the record written to the claimed slot.
+     */
+    public void commit() {
+        UNSAFE.putOrderedLong(null, tailAddress, ++tail);
+    }
+
+    /**
+     * @return the address of the next record to read, or 0 if the queue is empty
+     */
+    public long peek() {
+        if (head >= tailCache) {
+            tailCache = UNSAFE.getLongVolatile(null, tailAddress);
+            if (head >= tailCache)
+                return 0;
+        }
+        return slotsAddress + (head & mask) * slotSize;
+    }
+
+    /**
+     * Free the slot of the record last peeked, once done reading it.
+     */
+    public void release() {
+        UNSAFE.putOrderedLong(null, headAddress, ++head);
+    }
+
+    /**
+     * Copy a record in from the array.
+     */
+    public boolean offer(byte[] src, int offset) {
+        checkArray(src, offset);
+        long address = claim();
+        if (address == 0)
+            return false;
+        UNSAFE.copyMemory(src, BYTE_ARRAY_BASE + offset, null, address, recordSize);
+        commit();
+        return true;
+    }
+
+    /**
+     * Copy a record out to the array.
+     */
+    public boolean poll(byte[] dst, int offset) {
+        checkArray(dst, offset);
+        long address = peek();
+        if (address == 0)
+            return false;
+        UNSAFE.copyMemory(null, address, dst, BYTE_ARRAY_BASE + offset, recordSize);
+        release();
+        return true;
+    }
+
+    private void checkArray(byte[] array, int offset) {
+        if (offset < 0 || recordSize > array.length - offset)
+            throw new IndexOutOfBoundsException("offset: " + offset + ", record size: " + recordSize
+                    + ", array length: " + array.length);
+    }
+
+    /**
+     * @return an estimate, may be read by either side
+     */
+    public int size() {
+        long currentHead = UNSAFE.getLongVolatile(null, headAddress);
+        return (int) (UNSAFE.getLongVolatile(null, tailAddress) - currentHead);
+    }
+}
@@ -0,0 +1,33 @@
+package psy.lob.saw.conc;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Builds the queues compared in the queue benchmarks by name, so they can be picked with a @Param.
+ *
+ * @author nitsan
+ */
+public final class QueueFactory {
+    private QueueFactory() {
+    }
+
+    public static <E> Queue<E> build(String type, int capacity) {
+        if ("SpscArrayQueue".equals(type))
+            return new SpscArrayQueue<E>(capacity);
+        if ("MpscArrayQueue".equals(type))
+            return new MpscArrayQueue<E>(capacity);
+        if ("MpmcArrayQueue".equals(type))
+            return new MpmcArrayQueue<E>(capacity);
+        if ("ArrayBlockingQueue".equals(type))
+            return new ArrayBlockingQueue<E>(capacity);
+        if ("LinkedBlockingQueue".equals(type))
+            return new LinkedBlockingQueue<E>(capacity);
+        // unbounded
+        if ("ConcurrentLinkedQueue".equals(type))
+            return new ConcurrentLinkedQueue<E>();
+        throw new IllegalArgumentException("Unknown queue type: " + type);
+    }
+}
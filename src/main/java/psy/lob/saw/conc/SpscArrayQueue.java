@@ -0,0 +1,185 @@
+package psy.lob.saw.conc;
+
+import static psy.lob.saw.util.UnsafeAccess.UNSAFE;
+
+abstract class SpscArrayQueueL1Pad<E> extends ArrayQueueColdFields<E> {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+
+    SpscArrayQueueL1Pad(int capacity) {
+        super(capacity);
+    }
+}
+
+abstract class SpscArrayQueueTailFields<E> extends SpscArrayQueueL1Pad<E> {
+    protected static final long TAIL_OFFSET;
+    static {
+        try {
+            TAIL_OFFSET = UNSAFE.objectFieldOffset(SpscArrayQueueTailFields.class.getDeclaredField("tail"));
+        } catch (NoSuchFieldException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    // producer index, and the last consumer index it saw
+    protected volatile long tail;
+    protected long headCache;
+
+    SpscArrayQueueTailFields(int capacity) {
+        super(capacity);
+    }
+}
+
+abstract class SpscArrayQueueL2Pad<E> extends SpscArrayQueueTailFields<E> {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+
+    SpscArrayQueueL2Pad(int capacity) {
+        super(capacity);
+    }
+}
+
+abstract class SpscArrayQueueHeadFields<E> extends SpscArrayQueueL2Pad<E> {
+    protected static final long HEAD_OFFSET;
+    static {
+        try {
+            HEAD_OFFSET = UNSAFE.objectFieldOffset(SpscArrayQueueHeadFields.class.getDeclaredField("head"));
+        } catch (NoSuchFieldException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    // consumer index, and the last producer index it saw
+    protected volatile long head;
+    protected long tailCache;
+
+    SpscArrayQueueHeadFields(int capacity) {
+        super(capacity);
+    }
+}
+
+abstract class SpscArrayQueueL3Pad<E> extends SpscArrayQueueHeadFields<E> {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+
+    SpscArrayQueueL3Pad(int capacity) {
+        super(capacity);
+    }
+}
+
+/**
+ * A bounded single producer single consumer queue, putting the lazySet lesson from FalseSharingBenchmarkLazySet to
+ * use. The producer (tail) and consumer (head) indices are padded away from each other and from everything else (the
+ * padding is in the super classes, the JVM lays out the super class fields first and won't reorder them across the
+ * hierarchy), and so is the buffer. Each side keeps a cached copy of the other's index and only reads the volatile
+ * index when the cache says the queue is full/empty. Indices and elements are published with putOrdered (lazySet),
+ * which costs a store-store barrier rather than the full fence of a volatile write.<br>
+ * Only {@link #offer(Object)} from one thread and {@link #poll()}/{@link #peek()} from one (other) thread are
+ * supported (drain and clear count as polling), size is an estimate and iteration is weakly consistent (see
+ * {@link #iterator()}).
+ *
+ * @author nitsan
+ */
+public final class SpscArrayQueue<E> extends SpscArrayQueueL3Pad<E> {
+
+    /**
+     * @param capacity rounded up to the next power of 2
+     */
+    public SpscArrayQueue(int capacity) {
+        super(capacity);
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException("Null elements are not supported");
+        E[] buffer = this.buffer;
+        long currentTail = tail;
+        long wrapPoint = currentTail - capacity;
+        if (headCache <= wrapPoint) {
+            headCache = head;
+            if (headCache <= wrapPoint)
+                return false;
+        }
+        // element first (ordered, so the consumer nulling it out can't be reordered after it), then the index
+        UNSAFE.putOrderedObject(buffer, offset(currentTail), e);
+        UNSAFE.putOrderedLong(this, TAIL_OFFSET, currentTail + 1);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public E poll() {
+        long currentHead = head;
+        if (currentHead >= tailCache) {
+            tailCache = tail;
+            if (currentHead >= tailCache)
+                return null;
+        }
+        long offset = offset(currentHead);
+        E[] buffer = this.buffer;
+        E e = (E) UNSAFE.getObject(buffer, offset);
+        UNSAFE.putOrderedObject(buffer, offset, null);
+        UNSAFE.putOrderedLong(this, HEAD_OFFSET, currentHead + 1);
+        return e;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public E peek() {
+        long currentHead = head;
+        if (currentHead >= tailCache) {
+            tailCache = tail;
+            if (currentHead >= tailCache)
+                return null;
+        }
+        return (E) UNSAFE.getObject(buffer, offset(currentHead));
+    }
+
+    /**
+     * Reads the producer index once and publishes the consumer index once for the whole batch.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public int drain(Consumer<? super E> consumer, int limit) {
+        long currentHead = head;
+        long available = tail - currentHead;
+        int batch = (int) Math.min(available, limit);
+        E[] buffer = this.buffer;
+        int taken = 0;
+        try {
+            while (taken < batch) {
+                long offset = offset(currentHead + taken);
+                E e = (E) UNSAFE.getObject(buffer, offset);
+                UNSAFE.putObject(buffer, offset, null);
+                taken++;
+                consumer.accept(e);
+            }
+        } finally {
+            // the slots taken are free even if the consumer threw
+            if (taken > 0)
+                UNSAFE.putOrderedLong(this, HEAD_OFFSET, currentHead + taken);
+        }
+        return taken;
+    }
+
+    @Override
+    protected long currentHead() {
+        return head;
+    }
+
+    @Override
+    protected long currentTail() {
+        return tail;
+    }
+
+    @Override
+    public int size() {
+        // read head first, so the size is never negative
+        long currentHead = head;
+        return (int) (tail - currentHead);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return tail == head;
+    }
+}
@@ -0,0 +1,102 @@
+package psy.lob.saw.conc;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Control;
+
+/**
+ * One producer and one consumer thread passing messages:
+ * <ul>
+ * <li>pingPong: a message goes out on one queue and comes back on another, the score is the round trip time.
+ * <li>burst: the producer offers a burst of messages and the consumer polls a burst, the score is bursts per
+ * microsecond.
+ * </ul>
+ * Spinning on a full/empty queue checks the JMH Control so the threads can be stopped when the other side is done.
+ * Pin the threads (e.g. with taskset) to get stable numbers, and note a single core box will measure the scheduler
+ * more than the queue.
+ */
+@State(Scope.Group)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SpscQueueBenchmark {
+    private static final Integer ONE = 777;
+
+    @Param({ "SpscArrayQueue", "ArrayBlockingQueue", "ConcurrentLinkedQueue" })
+    String qType;
+
+    @Param({ "1", "100" })
+    int burstSize;
+
+    @Param({ "1024" })
+    int qCapacity;
+
+    Queue<Integer> in;
+    Queue<Integer> out;
+
+    @Setup
+    public void init() {
+        in = QueueFactory.build(qType, qCapacity);
+        out = QueueFactory.build(qType, qCapacity);
+    }
+
+    @Benchmark
+    @Group("pingPong")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.AverageTime)
+    public void ping(Control ctl) {
+        for (int i = 0; i < burstSize; i++) {
+            while (!in.offer(ONE) && !ctl.stopMeasurement) {
+            }
+        }
+        for (int i = 0; i < burstSize; i++) {
+            while (out.poll() == null && !ctl.stopMeasurement) {
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("pingPong")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.AverageTime)
+    public void pong(Control ctl) {
+        for (int i = 0; i < burstSize; i++) {
+            Integer e;
+            while ((e = in.poll()) == null && !ctl.stopMeasurement) {
+            }
+            while (e != null && !out.offer(e) && !ctl.stopMeasurement) {
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("burst")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.Throughput)
+    public void offer(Control ctl) {
+        for (int i = 0; i < burstSize; i++) {
+            while (!in.offer(ONE) && !ctl.stopMeasurement) {
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("burst")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.Throughput)
+    public void poll(Control ctl) {
+        for (int i = 0; i < burstSize; i++) {
+            while (in.poll() == null && !ctl.stopMeasurement) {
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package psy.lob.saw.conc;
+
+import static psy.lob.saw.util.UnsafeAccess.UNSAFE;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A counter striped over cells which are padded a cache line apart (LONGS_IN_CACHELINE longs, set by the
+ * "longs.in.cacheline" property as in the FalseSharingBenchmark* experiments), so threads counting in different cells
+ * never share a line. {@link #sum()} reads every cell and is not a snapshot while counting goes on.<br>
+ * The write mode picks how a cell is updated:
+ * <ul>
+ * <li>PLAIN, LAZY_SET and VOLATILE read the cell and write back the new value with a plain, ordered or volatile
+ * store. This is only correct with a single writer per cell, so every writing thread claims a cell of its own and
+ * claiming more cells than there are throws an IllegalStateException. A PLAIN count may not be visible to sum() for
+ * a while (or at all, if the JIT keeps it in a register).
+ * <li>ATOMIC adds with a LOCK XADD, so cells may be shared and threads claim cells round robin.
+ * </ul>
+ * Callers keeping their own index (e.g. a thread state or a thread id hash) can skip the claim lookup with
+ * {@link #add(int, long)}, which masks the index to the number of cells.
+ *
+ * @author nitsan
+ */
+public final class StripedCounter {
+    public enum WriteMode {
+        PLAIN, LAZY_SET, VOLATILE, ATOMIC
+    }
+
+    public final static int LONGS_IN_CACHELINE = Integer.getInteger("longs.in.cacheline", 8);
+    private static final long LONG_ARRAY_BASE = UNSAFE.arrayBaseOffset(long[].class);
+
+    private final long[] cells;
+    private final int mask;
+    private final WriteMode mode;
+    private final AtomicInteger nextCell = new AtomicInteger();
+    private final ThreadLocal<Integer> threadCell = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            int cell = nextCell.getAndIncrement();
+            if (mode != WriteMode.ATOMIC && cell > mask)
+                throw new IllegalStateException("More writing threads than cells: " + (mask + 1));
+            return cell & mask;
+        }
+    };
+
+    /**
+     * @param cells rounded up to the next power of 2, at least the number of writing threads for the single writer
+     *            modes
+     */
+    public StripedCounter(int cells, WriteMode mode) {
+        int capacity = Integer.highestOneBit(Math.max(cells, 1) - 1) << 1;
+        if (capacity == 0)
+            capacity = 1;
+        this.mask = capacity - 1;
+        this.mode = mode;
+        // padded by a cache line to the left of the first cell and to the right of the last
+        this.cells = new long[(capacity + 2) * LONGS_IN_CACHELINE];
+    }
+
+    /**
+     * ATOMIC counter with 2 cells per core.
+     */
+    public StripedCounter() {
+        this(Runtime.getRuntime().availableProcessors() * 2, WriteMode.ATOMIC);
+    }
+
+    /**
+     * @return the cell claimed by the calling thread, claiming it on first call
+     */
+    public int cell() {
+        return threadCell.get();
+    }
+
+    public void increment() {
+        add(threadCell.get(), 1);
+    }
+
+    public void add(long delta) {
+        add(threadCell.get(), delta);
+    }
+
+    public void add(int cell, long delta) {
+        long offset = offset(cell & mask);
+        switch (mode) {
+        case PLAIN:
+            UNSAFE.putLong(cells, offset, UNSAFE.getLong(cells, offset) + delta);
+            break;
+        case LAZY_SET:
+            UNSAFE.putOrderedLong(cells, offset, UNSAFE.getLong(cells, offset) + delta);
+            break;
+        case VOLATILE:
+            UNSAFE.putLongVolatile(cells, offset, UNSAFE.getLong(cells, offset) + delta);
+            break;
+        default:
+            UNSAFE.getAndAddLong(cells, offset, delta);
+        }
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int cell = 0; cell <= mask; cell++) {
+            sum += UNSAFE.getLongVolatile(cells, offset(cell));
+        }
+        return sum;
+    }
+
+    public int cells() {
+        return mask + 1;
+    }
+
+    public WriteMode mode() {
+        return mode;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+
+    private static long offset(int cell) {
+        return LONG_ARRAY_BASE + (((long) (cell + 1) * LONGS_IN_CACHELINE) << 3);
+    }
+}
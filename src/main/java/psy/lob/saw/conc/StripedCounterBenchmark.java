@@ -0,0 +1,104 @@
+package psy.lob.saw.conc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Counting from many threads: the StripedCounter in each write mode, against AtomicLong, LongAdder and the
+ * FalseSharingBenchmark* shared/unshared AtomicLongArray layouts. Run main to sweep 1 to 64 threads, the padding is
+ * set with -Dlongs.in.cacheline (passed on to the forks by main).
+ */
+public class StripedCounterBenchmark {
+    private final static int LONGS_IN_CACHELINE = StripedCounter.LONGS_IN_CACHELINE;
+    private final static int MAX_THREADS = 64;
+    private final static AtomicInteger THREAD_INDEX = new AtomicInteger(0);
+
+    @State(Scope.Benchmark)
+    public static class Counters {
+        private final AtomicLong atomicLong = new AtomicLong();
+        private final LongAdder longAdder = new LongAdder();
+        private final StripedCounter plain = new StripedCounter(MAX_THREADS, StripedCounter.WriteMode.PLAIN);
+        private final StripedCounter lazySet = new StripedCounter(MAX_THREADS, StripedCounter.WriteMode.LAZY_SET);
+        private final StripedCounter volatileSet = new StripedCounter(MAX_THREADS, StripedCounter.WriteMode.VOLATILE);
+        private final StripedCounter atomic = new StripedCounter(MAX_THREADS, StripedCounter.WriteMode.ATOMIC);
+        private final AtomicLongArray array = new AtomicLongArray(LONGS_IN_CACHELINE * (MAX_THREADS + 2));
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadIndex {
+        // same layouts as in FalseSharingBenchmarkLazySet
+        private final int falseSharedIndex = LONGS_IN_CACHELINE + (THREAD_INDEX.getAndIncrement() % MAX_THREADS);
+        private final int noSharingIndex = LONGS_IN_CACHELINE + (falseSharedIndex - LONGS_IN_CACHELINE)
+                * LONGS_IN_CACHELINE;
+        // the striped counters cell, single writer as long as we stay under MAX_THREADS
+        private final int cell = falseSharedIndex - LONGS_IN_CACHELINE;
+    }
+
+    @Benchmark
+    public long atomicLong(Counters counters) {
+        return counters.atomicLong.incrementAndGet();
+    }
+
+    @Benchmark
+    public void longAdder(Counters counters) {
+        counters.longAdder.increment();
+    }
+
+    @Benchmark
+    public void stripedPlain(Counters counters, ThreadIndex index) {
+        counters.plain.add(index.cell, 1);
+    }
+
+    @Benchmark
+    public void stripedLazySet(Counters counters, ThreadIndex index) {
+        counters.lazySet.add(index.cell, 1);
+    }
+
+    @Benchmark
+    public void stripedVolatile(Counters counters, ThreadIndex index) {
+        counters.volatileSet.add(index.cell, 1);
+    }
+
+    @Benchmark
+    public void stripedAtomic(Counters counters, ThreadIndex index) {
+        counters.atomic.add(index.cell, 1);
+    }
+
+    /**
+     * Cell looked up from the ThreadLocal claim.
+     */
+    @Benchmark
+    public void stripedAtomicClaimed(Counters counters) {
+        counters.atomic.increment();
+    }
+
+    @Benchmark
+    public void arrayUnshared(Counters counters, ThreadIndex index) {
+        long value = counters.array.get(index.noSharingIndex);
+        counters.array.lazySet(index.noSharingIndex, value + 1);
+    }
+
+    @Benchmark
+    public void arrayShared(Counters counters, ThreadIndex index) {
+        long value = counters.array.get(index.falseSharedIndex);
+        counters.array.lazySet(index.falseSharedIndex, value + 1);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+            Options opt = new OptionsBuilder().include(StripedCounterBenchmark.class.getSimpleName())
+                    .jvmArgsAppend("-Dlongs.in.cacheline=" + LONGS_IN_CACHELINE).threads(threads).build();
+            new Runner(opt).run();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package psy.lob.saw.latency;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Control;
+
+import psy.lob.saw.conc.QueueFactory;
+import psy.lob.saw.utf8.Utf8Corpus;
+
+/**
+ * The {@link LoadGenerator} operations as SampleTime benchmarks, the percentiles here should line up with the load
+ * generator's service time (JMH runs them back to back, so there is no response time to compare with). Sampling
+ * costs a couple of nanoTime calls, so the low percentiles of very short operations are inflated in both.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LatencyBenchmark {
+    private static final Integer ONE = 777;
+
+    @State(Scope.Thread)
+    public static class Encoder {
+        LoadGenerator.EncodeOp op;
+
+        @Setup
+        public void init() {
+            op = new LoadGenerator.EncodeOp(Utf8Corpus.load("mixed", "short"));
+        }
+    }
+
+    @State(Scope.Group)
+    public static class QueueState {
+        @Param({ "SpscArrayQueue", "ArrayBlockingQueue" })
+        String qType;
+
+        Queue<Integer> q;
+
+        @Setup
+        public void init() {
+            q = QueueFactory.build(qType, 1024);
+        }
+    }
+
+    @Benchmark
+    public void encode(Encoder encoder) {
+        encoder.op.run();
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public void offer(QueueState state, Control ctl) {
+        while (!state.q.offer(ONE) && !ctl.stopMeasurement) {
+        }
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public Integer poll(QueueState state) {
+        return state.q.poll();
+    }
+}
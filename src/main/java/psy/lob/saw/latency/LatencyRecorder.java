@@ -0,0 +1,140 @@
+package psy.lob.saw.latency;
+
+/**
+ * A log-linear histogram of latencies along the lines of HdrHistogram: values below 2^precisionBits are counted
+ * exactly, and every power of 2 range above that is split into 2^(precisionBits-1) equal buckets, so a value is known
+ * to within 1/2^(precisionBits-1) of itself, across the full positive long range. Recording is a few shifts and an
+ * array increment with no allocation. Single writer, read the results after the writer is done (or stopped).
+ *
+ * @author nitsan
+ */
+public final class LatencyRecorder {
+    public static final int DEFAULT_PRECISION_BITS = 8;
+
+    private final int precisionBits;
+    private final int subBuckets;
+    private final int halfSubBuckets;
+    private final long[] counts;
+    private long count;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    private double sum;
+
+    public LatencyRecorder() {
+        this(DEFAULT_PRECISION_BITS);
+    }
+
+    /**
+     * @param precisionBits 8 bits gives buckets within 1/128 (under 1%) of the value, in 7424 counters
+     */
+    public LatencyRecorder(int precisionBits) {
+        if (precisionBits < 2 || precisionBits > 20)
+            throw new IllegalArgumentException("precisionBits must be in [2,20]: " + precisionBits);
+        this.precisionBits = precisionBits;
+        this.subBuckets = 1 << precisionBits;
+        this.halfSubBuckets = subBuckets >> 1;
+        // exact values below subBuckets, then half a sub bucket range per shift up to the top bit
+        this.counts = new long[subBuckets + (64 - precisionBits) * halfSubBuckets];
+    }
+
+    /**
+     * @param value in whatever unit the caller likes, negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts[index(value)]++;
+        count++;
+        sum += value;
+        if (value < min)
+            min = value;
+        if (value > max)
+            max = value;
+    }
+
+    private int index(long value) {
+        if (value < subBuckets)
+            return (int) value;
+        // shift puts value >>> shift in [halfSubBuckets, subBuckets)
+        int shift = 64 - Long.numberOfLeadingZeros(value) - precisionBits;
+        return subBuckets + (shift - 1) * halfSubBuckets + (int) (value >>> shift) - halfSubBuckets;
+    }
+
+    /**
+     * @return the highest value which falls in the bucket at index
+     */
+    private long highestEquivalentValue(int index) {
+        if (index < subBuckets)
+            return index;
+        int shift = (index - subBuckets) / halfSubBuckets + 1;
+        long sub = (index - subBuckets) % halfSubBuckets + halfSubBuckets;
+        return (sub << shift) + (1L << shift) - 1;
+    }
+
+    /**
+     * @param percentile in [0,100]
+     * @return the value at or under which the percentile of recorded values fall, to within the bucket precision and
+     *         never more than the max. 0 if nothing was recorded.
+     */
+    public long valueAtPercentile(double percentile) {
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(highestEquivalentValue(i), max);
+        }
+        return max;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long min() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public double mean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Adds the counts recorded by other, which must have the same precision.
+     */
+    public void add(LatencyRecorder other) {
+        if (other.precisionBits != precisionBits)
+            throw new IllegalArgumentException("Precision mismatch: " + other.precisionBits + " != " + precisionBits);
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        if (other.count != 0) {
+            count += other.count;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+        }
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1f p50=%d p99=%d p99.9=%d max=%d", count, mean(),
+                valueAtPercentile(50), valueAtPercentile(99), valueAtPercentile(99.9), max);
+    }
+}
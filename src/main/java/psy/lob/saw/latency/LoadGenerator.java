@@ -0,0 +1,170 @@
+package psy.lob.saw.latency;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import psy.lob.saw.conc.QueueFactory;
+import psy.lob.saw.utf8.CustomUtf8Encoder;
+import psy.lob.saw.utf8.Utf8Corpus;
+
+/**
+ * Runs an operation at a fixed target rate and records its latency into two {@link LatencyRecorder}s:
+ * <ul>
+ * <li>response time: from when the operation was meant to start, per the schedule, to when it finished. An operation
+ * that runs long delays the ones after it, and that delay is counted against them, so a stall shows up in the tail as
+ * it would for a client sending at that rate (i.e. no coordinated omission).
+ * <li>service time: from when the operation actually started to when it finished, which is what a JMH SampleTime
+ * benchmark of the same operation reports and what an average time benchmark averages.
+ * </ul>
+ * Run main for a workload (encoder, or a queue type from {@link QueueFactory}) at a rate, e.g.:
+ *
+ * <pre>
+ * java -cp ... psy.lob.saw.latency.LoadGenerator encoder 200000 10
+ * java -cp ... psy.lob.saw.latency.LoadGenerator SpscArrayQueue 1000000 10
+ * </pre>
+ *
+ * Compare the service time percentiles with {@link LatencyBenchmark}.
+ *
+ * @author nitsan
+ */
+public final class LoadGenerator {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private LoadGenerator() {
+    }
+
+    /**
+     * Runs op on the calling thread at opsPerSecond for durationNanos.
+     *
+     * @param opsPerSecond in [1, 1e9], the schedule has nanosecond resolution
+     * @return the number of ops run
+     */
+    public static long run(Runnable op, long opsPerSecond, long durationNanos, LatencyRecorder response,
+            LatencyRecorder service) {
+        if (opsPerSecond < 1 || opsPerSecond > NANOS_PER_SECOND)
+            throw new IllegalArgumentException("opsPerSecond not in [1, 1e9]: " + opsPerSecond);
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+        long ops = 0;
+        long intended = start;
+        while (intended < end) {
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                // spin to the scheduled start
+            }
+            op.run();
+            long done = System.nanoTime();
+            response.record(done - intended);
+            service.record(done - now);
+            ops++;
+            intended = start + intendedOffset(ops, opsPerSecond);
+        }
+        return ops;
+    }
+
+    /**
+     * @return ops * 1e9 / opsPerSecond, not truncated to a whole interval per op (which would run fast) and without
+     *         overflowing ops * 1e9
+     */
+    static long intendedOffset(long ops, long opsPerSecond) {
+        return ops / opsPerSecond * NANOS_PER_SECOND + ops % opsPerSecond * NANOS_PER_SECOND / opsPerSecond;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 1) {
+            System.out.println("Usage: LoadGenerator <encoder|queue type> [ops per second] [seconds]");
+            return;
+        }
+        String workload = args[0];
+        long opsPerSecond = args.length > 1 ? Long.parseLong(args[1]) : 100000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        QueueConsumer consumer = null;
+        Runnable op;
+        if ("encoder".equals(workload)) {
+            op = new EncodeOp(Utf8Corpus.load("mixed", "short"));
+        } else {
+            Queue<Integer> q = QueueFactory.build(workload, 1024);
+            consumer = new QueueConsumer(q);
+            consumer.start();
+            op = new OfferOp(q);
+        }
+        LatencyRecorder response = new LatencyRecorder();
+        LatencyRecorder service = new LatencyRecorder();
+        // warmup at the same rate, then start over
+        run(op, opsPerSecond, TimeUnit.SECONDS.toNanos(Math.max(1, seconds / 5)), response, service);
+        response.reset();
+        service.reset();
+        long ops = run(op, opsPerSecond, TimeUnit.SECONDS.toNanos(seconds), response, service);
+        if (consumer != null) {
+            consumer.running = false;
+            consumer.join();
+        }
+        System.out.printf("%s at %d ops/s for %ds, %d ops (%.0f ops/s achieved)%n", workload, opsPerSecond, seconds,
+                ops, ops / (double) seconds);
+        System.out.printf("%-10s %12s %10s %10s %10s %10s %12s%n", "ns", "count", "mean", "p50", "p99", "p99.9",
+                "max");
+        print("response", response);
+        print("service", service);
+    }
+
+    private static void print(String label, LatencyRecorder recorder) {
+        System.out.printf("%-10s %12d %10.1f %10d %10d %10d %12d%n", label, recorder.count(), recorder.mean(),
+                recorder.valueAtPercentile(50), recorder.valueAtPercentile(99), recorder.valueAtPercentile(99.9),
+                recorder.max());
+    }
+
+    static final class EncodeOp implements Runnable {
+        private final String[] strings;
+        private final CustomUtf8Encoder encoder = new CustomUtf8Encoder();
+        private final ByteBuffer buffy = ByteBuffer.allocateDirect(4096);
+        private int index;
+
+        EncodeOp(List<String> strings) {
+            this.strings = strings.toArray(new String[strings.size()]);
+        }
+
+        @Override
+        public void run() {
+            if (++index == strings.length)
+                index = 0;
+            buffy.clear();
+            encoder.encodeString(strings[index], buffy);
+        }
+    }
+
+    static final class OfferOp implements Runnable {
+        private static final Integer ONE = 777;
+        private final Queue<Integer> q;
+
+        OfferOp(Queue<Integer> q) {
+            this.q = q;
+        }
+
+        @Override
+        public void run() {
+            // a full queue is back pressure, waiting on it is part of the latency
+            while (!q.offer(ONE)) {
+            }
+        }
+    }
+
+    static final class QueueConsumer extends Thread {
+        private final Queue<Integer> q;
+        volatile boolean running = true;
+
+        QueueConsumer(Queue<Integer> q) {
+            super("QueueConsumer");
+            setDaemon(true);
+            this.q = q;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                q.poll();
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package psy.lob.saw.mem;
+
+import static psy.lob.saw.utf8.UnsafeDirectByteBuffer.getAddress;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import static psy.lob.saw.util.StripedSlots.SLOT_SPREAD;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import psy.lob.saw.conc.StripedCounter;
+import psy.lob.saw.utf8.UnsafeDirectByteBuffer;
+import psy.lob.saw.util.StripedSlots;
+
+/**
+ * A pool of aligned direct buffers in power of 2 size classes. Each size class is a single aligned slab allocated up
+ * front with {@link UnsafeDirectByteBuffer#allocateAlignedByteBuffer(int, long)} and cut into buffers of the class
+ * size, so acquiring and releasing never touches the direct memory allocator or the Cleaner. Free buffers sit in
+ * {@link StripedSlots} per class, as in the utf8 CodecPool. Buffers are cache line aligned, or page aligned for
+ * classes of a page and up.
+ * <p>
+ * When a class runs dry, or the requested capacity is bigger than the largest class, a buffer is allocated outside
+ * the pool and counted as a miss. Releasing such a buffer frees it explicitly. {@link #free()} releases the slabs, no
+ * buffer acquired from the pool may be used after that.
+ * <p>
+ * Each pooled buffer has a lent flag, set on acquire and cleared by CAS on release, so releasing a pooled buffer
+ * twice throws unless it was acquired again in between. Releasing a buffer allocated on a miss twice frees it twice,
+ * which is undefined.
+ *
+ * @author nitsan
+ */
+public final class AlignedBufferPool {
+    private final int minShift;
+    private final int maxShift;
+    private final int buffersPerClass;
+    private final ByteBuffer[] slabs;
+    private final long[] slabAddresses;
+    private final StripedSlots<ByteBuffer>[] slots;
+    // per class, 1 at the buffer index (in its slab) times SLOT_SPREAD while the buffer is acquired
+    private final AtomicIntegerArray[] lent;
+    // striped by the same probe as the slots, so counting does not make the pool contended where the slots are not
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final StripedCounter bytesOutstanding = new StripedCounter();
+
+    /**
+     * @param minCapacity smallest size class, rounded up to a power of 2 and at least a cache line
+     * @param maxCapacity largest size class, rounded up to a power of 2
+     * @param buffersPerClass rounded up to a power of 2, the number of buffers pre-allocated in each size class
+     */
+    public AlignedBufferPool(int minCapacity, int maxCapacity, int buffersPerClass) {
+        if (minCapacity > maxCapacity || maxCapacity > (1 << 30) || buffersPerClass < 1)
+            throw new IllegalArgumentException();
+        this.minShift = shift(Math.max(minCapacity, UnsafeDirectByteBuffer.CACHE_LINE_SIZE));
+        this.maxShift = Math.max(minShift, shift(maxCapacity));
+        this.buffersPerClass = 1 << shift(buffersPerClass);
+        if (((long) this.buffersPerClass << maxShift) > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Largest size class slab is over 2GB");
+        int classes = maxShift - minShift + 1;
+        this.slabs = new ByteBuffer[classes];
+        this.slabAddresses = new long[classes];
+        @SuppressWarnings("unchecked")
+        StripedSlots<ByteBuffer>[] slots = (StripedSlots<ByteBuffer>[]) new StripedSlots<?>[classes];
+        this.slots = slots;
+        this.lent = new AtomicIntegerArray[classes];
+        for (int sizeClass = 0; sizeClass < classes; sizeClass++) {
+            int capacity = 1 << (minShift + sizeClass);
+            ByteBuffer slab = UnsafeDirectByteBuffer.allocateAlignedByteBuffer(capacity * this.buffersPerClass,
+                    alignment(capacity));
+            slabs[sizeClass] = slab;
+            slabAddresses[sizeClass] = getAddress(slab);
+            StripedSlots<ByteBuffer> classSlots = new StripedSlots<ByteBuffer>(this.buffersPerClass);
+            for (int i = 0; i < this.buffersPerClass; i++) {
+                slab.limit((i + 1) * capacity).position(i * capacity);
+                classSlots.init(i, slab.slice().order(ByteOrder.nativeOrder()));
+            }
+            slab.clear();
+            slots[sizeClass] = classSlots;
+            lent[sizeClass] = new AtomicIntegerArray(this.buffersPerClass * SLOT_SPREAD);
+        }
+    }
+
+    /**
+     * @return a cleared buffer in native order, with the limit set to the requested capacity. The buffer capacity is
+     *         the size class, which may be bigger.
+     */
+    public ByteBuffer acquire(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity < 0: " + capacity);
+        int sizeClass = sizeClass(capacity);
+        int probe = StripedSlots.probe();
+        ByteBuffer buffy = sizeClass < slots.length ? slots[sizeClass].take(probe) : null;
+        if (buffy != null) {
+            lent[sizeClass].set(lentIndex(sizeClass, buffy), 1);
+            hits.add(probe, 1);
+            buffy.clear();
+            buffy.order(ByteOrder.nativeOrder());
+        } else {
+            misses.add(probe, 1);
+            int missCapacity = sizeClass < slots.length ? 1 << (minShift + sizeClass) : capacity;
+            buffy = UnsafeDirectByteBuffer.allocateAlignedByteBuffer(missCapacity, alignment(missCapacity));
+        }
+        bytesOutstanding.add(probe, buffy.capacity());
+        buffy.limit(capacity);
+        return buffy;
+    }
+
+    /**
+     * Return a buffer acquired from this pool. Buffers allocated on a miss are freed, the others go back to the pool.
+     * The buffer (and any slice/duplicate taken from it) must not be used after this.
+     *
+     * @throws IllegalStateException if a pooled buffer is not currently acquired
+     */
+    public void release(ByteBuffer buffy) {
+        int probe = StripedSlots.probe();
+        int sizeClass = sizeClass(buffy.capacity());
+        if (sizeClass < slots.length && isFromSlab(sizeClass, getAddress(buffy))) {
+            if (!lent[sizeClass].compareAndSet(lentIndex(sizeClass, buffy), 1, 0))
+                throw new IllegalStateException("Buffer released more than once");
+            bytesOutstanding.add(probe, -buffy.capacity());
+            // there is a free slot for every buffer out, keep looking until one is seen free
+            while (!slots[sizeClass].put(probe, buffy))
+                ;
+            return;
+        }
+        bytesOutstanding.add(probe, -buffy.capacity());
+        UnsafeDirectByteBuffer.free(buffy);
+    }
+
+    /**
+     * Free the pooled memory now. Buffers allocated on a miss and still outstanding are not affected.
+     */
+    public void free() {
+        for (ByteBuffer slab : slabs) {
+            UnsafeDirectByteBuffer.free(slab);
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return bytes in buffers acquired and not yet released, counting the size class capacity for each
+     */
+    public long bytesOutstanding() {
+        return bytesOutstanding.sum();
+    }
+
+    /**
+     * @return the number of bytes pre-allocated for the pool
+     */
+    public long pooledBytes() {
+        long bytes = 0;
+        for (ByteBuffer slab : slabs) {
+            bytes += slab.capacity();
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "AlignedBufferPool[" + (1 << minShift) + ".." + (1 << maxShift) + " x " + buffersPerClass + ", hits="
+                + hits() + ", misses=" + misses() + ", bytesOutstanding=" + bytesOutstanding() + "]";
+    }
+
+    private boolean isFromSlab(int sizeClass, long address) {
+        long offset = address - slabAddresses[sizeClass];
+        return offset >= 0 && offset < slabs[sizeClass].capacity();
+    }
+
+    private int lentIndex(int sizeClass, ByteBuffer buffy) {
+        return (int) ((getAddress(buffy) - slabAddresses[sizeClass]) >>> (minShift + sizeClass)) * SLOT_SPREAD;
+    }
+
+    /**
+     * @return index of the smallest class that fits capacity, slots.length or more if there is none
+     */
+    private int sizeClass(int capacity) {
+        return capacity <= (1 << minShift) ? 0 : shift(capacity) - minShift;
+    }
+
+    private static int shift(int capacity) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1) - 1);
+    }
+
+    private static long alignment(int capacity) {
+        return capacity >= UnsafeDirectByteBuffer.PAGE_SIZE ? UnsafeDirectByteBuffer.PAGE_SIZE
+                : UnsafeDirectByteBuffer.CACHE_LINE_SIZE;
+    }
+}
@@ -0,0 +1,98 @@
+package psy.lob.saw.mem;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import psy.lob.saw.utf8.UnsafeDirectByteBuffer;
+
+/**
+ * Getting hold of a direct buffer and letting it go: acquire+release from the pool, against allocateDirect (freed by
+ * the Cleaner once collected, or explicitly) and allocateAlignedByteBuffer. The *Contended variants run on all cores
+ * against the same pool. SampleTime is there to catch the allocation/GC spikes throughput averages away.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AlignedBufferPoolBenchmark {
+	@Param({ "64", "4096", "65536" })
+	int size;
+
+	AlignedBufferPool pool;
+	long alignment;
+
+	@Setup
+	public void init() {
+		pool = new AlignedBufferPool(64, 65536, Runtime.getRuntime().availableProcessors() * 2);
+		alignment = size >= UnsafeDirectByteBuffer.PAGE_SIZE ? UnsafeDirectByteBuffer.PAGE_SIZE
+		        : UnsafeDirectByteBuffer.CACHE_LINE_SIZE;
+	}
+
+	@TearDown
+	public void free() {
+		System.out.println(pool);
+		pool.free();
+	}
+
+	@Benchmark
+	public int pooled() {
+		return acquireRelease();
+	}
+
+	@Benchmark
+	public ByteBuffer allocateDirect() {
+		return ByteBuffer.allocateDirect(size);
+	}
+
+	@Benchmark
+	public int allocateDirectFree() {
+		return allocateFree();
+	}
+
+	@Benchmark
+	public ByteBuffer allocateAligned() {
+		return UnsafeDirectByteBuffer.allocateAlignedByteBuffer(size, alignment);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public int pooledContended() {
+		return acquireRelease();
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public ByteBuffer allocateDirectContended() {
+		return ByteBuffer.allocateDirect(size);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public int allocateDirectFreeContended() {
+		return allocateFree();
+	}
+
+	private int acquireRelease() {
+		ByteBuffer buffy = pool.acquire(size);
+		int capacity = buffy.capacity();
+		pool.release(buffy);
+		return capacity;
+	}
+
+	private int allocateFree() {
+		ByteBuffer buffy = ByteBuffer.allocateDirect(size);
+		int capacity = buffy.capacity();
+		UnsafeDirectByteBuffer.free(buffy);
+		return capacity;
+	}
+}
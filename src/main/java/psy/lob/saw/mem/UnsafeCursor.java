@@ -0,0 +1,470 @@
+package psy.lob.saw.mem;
+
+import static psy.lob.saw.util.UnsafeAccess.UNSAFE;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import psy.lob.saw.utf8.UnsafeDirectByteBuffer;
+
+/**
+ * A cursor for reading and writing primitives over a native address or a byte[], through Unsafe. Every primitive has
+ * an absolute (index) and a relative (position) get/put in native order, and a big-endian "BE" variant. On top of
+ * those there are unsigned LEB128 varints, zigzag signed varints and bulk copies to and from arrays.
+ * <p>
+ * Bounds are only checked when the "UnsafeCursor.checkBounds" system property is set to true, which is meant for
+ * tests and debugging. The flag is a static final so the JIT drops the checks altogether when it is off, in which
+ * case an out of bounds access is an out of bounds access and may crash the JVM. The cursor does not keep a buffer it
+ * wraps from being collected, keep a reference to it while the cursor is in use.
+ *
+ * @author nitsan
+ */
+public final class UnsafeCursor {
+    public static final boolean CHECK_BOUNDS = Boolean.getBoolean("UnsafeCursor.checkBounds");
+    private static final long BYTE_ARRAY_BASE = UNSAFE.arrayBaseOffset(byte[].class);
+    private static final long INT_ARRAY_BASE = UNSAFE.arrayBaseOffset(int[].class);
+    private static final long LONG_ARRAY_BASE = UNSAFE.arrayBaseOffset(long[].class);
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    // array, or null if baseOffset is an address
+    private Object base;
+    private long baseOffset;
+    private int capacity;
+    private int position;
+
+    public UnsafeCursor wrap(byte[] array) {
+        return wrap(array, BYTE_ARRAY_BASE, array.length);
+    }
+
+    /**
+     * Wrap the buffer between 0 and its limit, the buffer position is ignored.
+     */
+    public UnsafeCursor wrap(ByteBuffer buffy) {
+        if (buffy.hasArray())
+            return wrap(buffy.array(), BYTE_ARRAY_BASE + buffy.arrayOffset(), buffy.limit());
+        if (!buffy.isDirect())
+            throw new IllegalArgumentException("Read only heap buffer");
+        return wrap(null, UnsafeDirectByteBuffer.getAddress(buffy), buffy.limit());
+    }
+
+    public UnsafeCursor wrap(long address, int capacity) {
+        return wrap(null, address, capacity);
+    }
+
+    private UnsafeCursor wrap(Object base, long baseOffset, int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity < 0: " + capacity);
+        this.base = base;
+        this.baseOffset = baseOffset;
+        this.capacity = capacity;
+        this.position = 0;
+        return this;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int position() {
+        return position;
+    }
+
+    public UnsafeCursor position(int position) {
+        if (position < 0 || position > capacity)
+            throw new IndexOutOfBoundsException("position: " + position + ", capacity: " + capacity);
+        this.position = position;
+        return this;
+    }
+
+    public int remaining() {
+        return capacity - position;
+    }
+
+    /**
+     * @return the offset for an access of size bytes at index, checking bounds if enabled
+     */
+    private long offset(int index, int size) {
+        if (CHECK_BOUNDS && (index < 0 || size > capacity - index))
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size + ", capacity: " + capacity);
+        return baseOffset + index;
+    }
+
+    /**
+     * @return the position before moving it on by size
+     */
+    private int advance(int size) {
+        int index = position;
+        if (CHECK_BOUNDS && size > capacity - index)
+            throw new IndexOutOfBoundsException("position: " + index + ", size: " + size + ", capacity: " + capacity);
+        position = index + size;
+        return index;
+    }
+
+    public byte getByte(int index) {
+        return UNSAFE.getByte(base, offset(index, 1));
+    }
+
+    public UnsafeCursor putByte(int index, byte v) {
+        UNSAFE.putByte(base, offset(index, 1), v);
+        return this;
+    }
+
+    public byte getByte() {
+        return getByte(advance(1));
+    }
+
+    public UnsafeCursor putByte(byte v) {
+        return putByte(advance(1), v);
+    }
+
+    public short getShort(int index) {
+        return UNSAFE.getShort(base, offset(index, 2));
+    }
+
+    public UnsafeCursor putShort(int index, short v) {
+        UNSAFE.putShort(base, offset(index, 2), v);
+        return this;
+    }
+
+    public short getShortBE(int index) {
+        short v = UNSAFE.getShort(base, offset(index, 2));
+        return LITTLE_ENDIAN ? Short.reverseBytes(v) : v;
+    }
+
+    public UnsafeCursor putShortBE(int index, short v) {
+        UNSAFE.putShort(base, offset(index, 2), LITTLE_ENDIAN ? Short.reverseBytes(v) : v);
+        return this;
+    }
+
+    public short getShort() {
+        return getShort(advance(2));
+    }
+
+    public UnsafeCursor putShort(short v) {
+        return putShort(advance(2), v);
+    }
+
+    public short getShortBE() {
+        return getShortBE(advance(2));
+    }
+
+    public UnsafeCursor putShortBE(short v) {
+        return putShortBE(advance(2), v);
+    }
+
+    public char getChar(int index) {
+        return UNSAFE.getChar(base, offset(index, 2));
+    }
+
+    public UnsafeCursor putChar(int index, char v) {
+        UNSAFE.putChar(base, offset(index, 2), v);
+        return this;
+    }
+
+    public char getCharBE(int index) {
+        char v = UNSAFE.getChar(base, offset(index, 2));
+        return LITTLE_ENDIAN ? Character.reverseBytes(v) : v;
+    }
+
+    public UnsafeCursor putCharBE(int index, char v) {
+        UNSAFE.putChar(base, offset(index, 2), LITTLE_ENDIAN ? Character.reverseBytes(v) : v);
+        return this;
+    }
+
+    public char getChar() {
+        return getChar(advance(2));
+    }
+
+    public UnsafeCursor putChar(char v) {
+        return putChar(advance(2), v);
+    }
+
+    public char getCharBE() {
+        return getCharBE(advance(2));
+    }
+
+    public UnsafeCursor putCharBE(char v) {
+        return putCharBE(advance(2), v);
+    }
+
+    public int getInt(int index) {
+        return UNSAFE.getInt(base, offset(index, 4));
+    }
+
+    public UnsafeCursor putInt(int index, int v) {
+        UNSAFE.putInt(base, offset(index, 4), v);
+        return this;
+    }
+
+    public int getIntBE(int index) {
+        int v = UNSAFE.getInt(base, offset(index, 4));
+        return LITTLE_ENDIAN ? Integer.reverseBytes(v) : v;
+    }
+
+    public UnsafeCursor putIntBE(int index, int v) {
+        UNSAFE.putInt(base, offset(index, 4), LITTLE_ENDIAN ? Integer.reverseBytes(v) : v);
+        return this;
+    }
+
+    public int getInt() {
+        return getInt(advance(4));
+    }
+
+    public UnsafeCursor putInt(int v) {
+        return putInt(advance(4), v);
+    }
+
+    public int getIntBE() {
+        return getIntBE(advance(4));
+    }
+
+    public UnsafeCursor putIntBE(int v) {
+        return putIntBE(advance(4), v);
+    }
+
+    public long getLong(int index) {
+        return UNSAFE.getLong(base, offset(index, 8));
+    }
+
+    public UnsafeCursor putLong(int index, long v) {
+        UNSAFE.putLong(base, offset(index, 8), v);
+        return this;
+    }
+
+    public long getLongBE(int index) {
+        long v = UNSAFE.getLong(base, offset(index, 8));
+        return LITTLE_ENDIAN ? Long.reverseBytes(v) : v;
+    }
+
+    public UnsafeCursor putLongBE(int index, long v) {
+        UNSAFE.putLong(base, offset(index, 8), LITTLE_ENDIAN ? Long.reverseBytes(v) : v);
+        return this;
+    }
+
+    public long getLong() {
+        return getLong(advance(8));
+    }
+
+    public UnsafeCursor putLong(long v) {
+        return putLong(advance(8), v);
+    }
+
+    public long getLongBE() {
+        return getLongBE(advance(8));
+    }
+
+    public UnsafeCursor putLongBE(long v) {
+        return putLongBE(advance(8), v);
+    }
+
+    public float getFloat(int index) {
+        return UNSAFE.getFloat(base, offset(index, 4));
+    }
+
+    public UnsafeCursor putFloat(int index, float v) {
+        UNSAFE.putFloat(base, offset(index, 4), v);
+        return this;
+    }
+
+    public float getFloatBE(int index) {
+        return Float.intBitsToFloat(getIntBE(index));
+    }
+
+    public UnsafeCursor putFloatBE(int index, float v) {
+        return putIntBE(index, Float.floatToRawIntBits(v));
+    }
+
+    public float getFloat() {
+        return getFloat(advance(4));
+    }
+
+    public UnsafeCursor putFloat(float v) {
+        return putFloat(advance(4), v);
+    }
+
+    public float getFloatBE() {
+        return getFloatBE(advance(4));
+    }
+
+    public UnsafeCursor putFloatBE(float v) {
+        return putFloatBE(advance(4), v);
+    }
+
+    public double getDouble(int index) {
+        return UNSAFE.getDouble(base, offset(index, 8));
+    }
+
+    public UnsafeCursor putDouble(int index, double v) {
+        UNSAFE.putDouble(base, offset(index, 8), v);
+        return this;
+    }
+
+    public double getDoubleBE(int index) {
+        return Double.longBitsToDouble(getLongBE(index));
+    }
+
+    public UnsafeCursor putDoubleBE(int index, double v) {
+        return putLongBE(index, Double.doubleToRawLongBits(v));
+    }
+
+    public double getDouble() {
+        return getDouble(advance(8));
+    }
+
+    public UnsafeCursor putDouble(double v) {
+        return putDouble(advance(8), v);
+    }
+
+    public double getDoubleBE() {
+        return getDoubleBE(advance(8));
+    }
+
+    public UnsafeCursor putDoubleBE(double v) {
+        return putDoubleBE(advance(8), v);
+    }
+
+    /**
+     * Put as an unsigned LEB128 varint, 7 bits a byte least significant first, 1 to 5 bytes.
+     */
+    public UnsafeCursor putVarInt(int v) {
+        int index = advance(varIntSize(v));
+        while ((v & ~0x7F) != 0) {
+            UNSAFE.putByte(base, baseOffset + index++, (byte) (v | 0x80));
+            v >>>= 7;
+        }
+        UNSAFE.putByte(base, baseOffset + index, (byte) v);
+        return this;
+    }
+
+    /**
+     * Put as an unsigned LEB128 varint, 1 to 10 bytes.
+     */
+    public UnsafeCursor putVarLong(long v) {
+        int index = advance(varLongSize(v));
+        while ((v & ~0x7FL) != 0) {
+            UNSAFE.putByte(base, baseOffset + index++, (byte) (v | 0x80));
+            v >>>= 7;
+        }
+        UNSAFE.putByte(base, baseOffset + index, (byte) v);
+        return this;
+    }
+
+    /**
+     * @throws IllegalStateException if the varint is longer than 5 bytes, the position is left unchanged
+     */
+    public int getVarInt() {
+        int index = position;
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = UNSAFE.getByte(base, offset(index++, 1));
+            v |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                position = index;
+                return v;
+            }
+        }
+        throw new IllegalStateException("Malformed varint at: " + position);
+    }
+
+    /**
+     * @throws IllegalStateException if the varint is longer than 10 bytes, the position is left unchanged
+     */
+    public long getVarLong() {
+        int index = position;
+        long v = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = UNSAFE.getByte(base, offset(index++, 1));
+            v |= (b & 0x7FL) << shift;
+            if (b >= 0) {
+                position = index;
+                return v;
+            }
+        }
+        throw new IllegalStateException("Malformed varint at: " + position);
+    }
+
+    /**
+     * Put a signed value zigzag encoded as a varint, so small negative values take few bytes.
+     */
+    public UnsafeCursor putZigZagInt(int v) {
+        return putVarInt((v << 1) ^ (v >> 31));
+    }
+
+    public UnsafeCursor putZigZagLong(long v) {
+        return putVarLong((v << 1) ^ (v >> 63));
+    }
+
+    public int getZigZagInt() {
+        int v = getVarInt();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    public long getZigZagLong() {
+        long v = getVarLong();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    public static int varIntSize(int v) {
+        // 1 byte for every 7 bits, and 1 for 0
+        return (31 - Integer.numberOfLeadingZeros(v | 1)) / 7 + 1;
+    }
+
+    public static int varLongSize(long v) {
+        return (63 - Long.numberOfLeadingZeros(v | 1)) / 7 + 1;
+    }
+
+    public UnsafeCursor put(byte[] src, int offset, int length) {
+        checkArray(src.length, offset, length);
+        UNSAFE.copyMemory(src, BYTE_ARRAY_BASE + offset, base, baseOffset + advance(length), length);
+        return this;
+    }
+
+    public UnsafeCursor get(byte[] dst, int offset, int length) {
+        checkArray(dst.length, offset, length);
+        UNSAFE.copyMemory(base, baseOffset + advance(length), dst, BYTE_ARRAY_BASE + offset, length);
+        return this;
+    }
+
+    /**
+     * Copy in native order.
+     */
+    public UnsafeCursor put(int[] src, int offset, int length) {
+        checkArray(src.length, offset, length);
+        UNSAFE.copyMemory(src, INT_ARRAY_BASE + ((long) offset << 2), base, baseOffset + advance(length << 2),
+                (long) length << 2);
+        return this;
+    }
+
+    public UnsafeCursor get(int[] dst, int offset, int length) {
+        checkArray(dst.length, offset, length);
+        UNSAFE.copyMemory(base, baseOffset + advance(length << 2), dst, INT_ARRAY_BASE + ((long) offset << 2),
+                (long) length << 2);
+        return this;
+    }
+
+    /**
+     * Copy in native order.
+     */
+    public UnsafeCursor put(long[] src, int offset, int length) {
+        checkArray(src.length, offset, length);
+        UNSAFE.copyMemory(src, LONG_ARRAY_BASE + ((long) offset << 3), base, baseOffset + advance(length << 3),
+                (long) length << 3);
+        return this;
+    }
+
+    public UnsafeCursor get(long[] dst, int offset, int length) {
+        checkArray(dst.length, offset, length);
+        UNSAFE.copyMemory(base, baseOffset + advance(length << 3), dst, LONG_ARRAY_BASE + ((long) offset << 3),
+                (long) length << 3);
+        return this;
+    }
+
+    /**
+     * The array side is always checked, it's the cursor side Unsafe can't tell is wrong.
+     */
+    private static void checkArray(int arrayLength, int offset, int length) {
+        if ((offset | length) < 0 || length > arrayLength - offset)
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length + ", array length: "
+                    + arrayLength);
+    }
+}
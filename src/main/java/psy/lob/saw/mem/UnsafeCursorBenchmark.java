@@ -0,0 +1,216 @@
+package psy.lob.saw.mem;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Writing and then reading back a buffer full of primitives with the UnsafeCursor, against ByteBuffer absolute and
+ * relative accessors in big-endian (the ByteBuffer default) and native order. Run main to get the cursor with and
+ * without bounds checks, or pass -jvmArgsAppend -DUnsafeCursor.checkBounds=true.
+ */
+@State(Scope.Thread)
+public class UnsafeCursorBenchmark {
+	private static final int SIZE = 4096;
+
+	@Param({ "false", "true" })
+	boolean directBuffer;
+
+	ByteBuffer bigEndianBuffy;
+	ByteBuffer nativeBuffy;
+	UnsafeCursor cursor;
+	long[] longs;
+	long[] varLongs;
+	byte[] bytes;
+
+	@Setup
+	public void init() {
+		bigEndianBuffy = directBuffer ? ByteBuffer.allocateDirect(SIZE) : ByteBuffer.allocate(SIZE);
+		nativeBuffy = bigEndianBuffy.duplicate().order(ByteOrder.nativeOrder());
+		cursor = new UnsafeCursor().wrap(bigEndianBuffy);
+		Random r = new Random(666);
+		longs = new long[SIZE / 8];
+		for (int i = 0; i < longs.length; i++) {
+			longs[i] = r.nextLong();
+		}
+		// small values mostly, worst case fits in the buffer
+		varLongs = new long[SIZE / 10];
+		for (int i = 0; i < varLongs.length; i++) {
+			varLongs[i] = r.nextLong() >> r.nextInt(64);
+		}
+		bytes = new byte[SIZE];
+		r.nextBytes(bytes);
+	}
+
+	@Benchmark
+	public long cursorLong() {
+		UnsafeCursor c = cursor;
+		long[] src = longs;
+		for (int i = 0; i < src.length; i++) {
+			c.putLong(i << 3, src[i]);
+		}
+		long sum = 0;
+		for (int i = 0; i < src.length; i++) {
+			sum += c.getLong(i << 3);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long cursorLongRelative() {
+		UnsafeCursor c = cursor;
+		long[] src = longs;
+		c.position(0);
+		for (int i = 0; i < src.length; i++) {
+			c.putLong(src[i]);
+		}
+		c.position(0);
+		long sum = 0;
+		for (int i = 0; i < src.length; i++) {
+			sum += c.getLong();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long cursorLongBE() {
+		UnsafeCursor c = cursor;
+		long[] src = longs;
+		for (int i = 0; i < src.length; i++) {
+			c.putLongBE(i << 3, src[i]);
+		}
+		long sum = 0;
+		for (int i = 0; i < src.length; i++) {
+			sum += c.getLongBE(i << 3);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long bufferLongAbsolute() {
+		return absoluteLongs(bigEndianBuffy);
+	}
+
+	@Benchmark
+	public long bufferLongAbsoluteNative() {
+		return absoluteLongs(nativeBuffy);
+	}
+
+	@Benchmark
+	public long bufferLongRelative() {
+		return relativeLongs(bigEndianBuffy);
+	}
+
+	@Benchmark
+	public long bufferLongRelativeNative() {
+		return relativeLongs(nativeBuffy);
+	}
+
+	private long absoluteLongs(ByteBuffer buffy) {
+		long[] src = longs;
+		for (int i = 0; i < src.length; i++) {
+			buffy.putLong(i << 3, src[i]);
+		}
+		long sum = 0;
+		for (int i = 0; i < src.length; i++) {
+			sum += buffy.getLong(i << 3);
+		}
+		return sum;
+	}
+
+	private long relativeLongs(ByteBuffer buffy) {
+		long[] src = longs;
+		buffy.clear();
+		for (int i = 0; i < src.length; i++) {
+			buffy.putLong(src[i]);
+		}
+		buffy.flip();
+		long sum = 0;
+		for (int i = 0; i < src.length; i++) {
+			sum += buffy.getLong();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long cursorZigZag() {
+		UnsafeCursor c = cursor;
+		long[] src = varLongs;
+		c.position(0);
+		for (int i = 0; i < src.length; i++) {
+			c.putZigZagLong(src[i]);
+		}
+		c.position(0);
+		long sum = 0;
+		for (int i = 0; i < src.length; i++) {
+			sum += c.getZigZagLong();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long bufferZigZag() {
+		ByteBuffer buffy = bigEndianBuffy;
+		long[] src = varLongs;
+		buffy.clear();
+		for (int i = 0; i < src.length; i++) {
+			long v = src[i];
+			v = (v << 1) ^ (v >> 63);
+			while ((v & ~0x7FL) != 0) {
+				buffy.put((byte) (v | 0x80));
+				v >>>= 7;
+			}
+			buffy.put((byte) v);
+		}
+		buffy.flip();
+		long sum = 0;
+		for (int i = 0; i < src.length; i++) {
+			long v = 0;
+			byte b;
+			int shift = 0;
+			do {
+				b = buffy.get();
+				v |= (b & 0x7FL) << shift;
+				shift += 7;
+			} while (b < 0);
+			sum += (v >>> 1) ^ -(v & 1);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public int cursorBulk() {
+		UnsafeCursor c = cursor;
+		c.position(0).put(bytes, 0, SIZE);
+		c.position(0).get(bytes, 0, SIZE);
+		return c.position();
+	}
+
+	@Benchmark
+	public int bufferBulk() {
+		ByteBuffer buffy = bigEndianBuffy;
+		buffy.clear();
+		buffy.put(bytes, 0, SIZE);
+		buffy.flip();
+		buffy.get(bytes, 0, SIZE);
+		return buffy.position();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		for (String checkBounds : new String[] { "false", "true" }) {
+			Options opt = new OptionsBuilder().include(UnsafeCursorBenchmark.class.getSimpleName())
+			        .jvmArgsAppend("-DUnsafeCursor.checkBounds=" + checkBounds).build();
+			new Runner(opt).run();
+		}
+	}
+}
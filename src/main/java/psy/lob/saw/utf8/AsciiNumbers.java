@@ -0,0 +1,707 @@
+package psy.lob.saw.utf8;
+
+import static psy.lob.saw.utf8.UnsafeDirectByteBuffer.getAddress;
+import static psy.lob.saw.utf8.UnsafeDirectByteBuffer.getArray;
+import static psy.lob.saw.utf8.UnsafeDirectByteBuffer.getArrayOffset;
+import static psy.lob.saw.util.UnsafeAccess.UNSAFE;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.CoderResult;
+
+/**
+ * Formats int, long and double values as ASCII text straight into a byte[], an address or a heap/direct buffer, and
+ * parses them back, without the garbage of Long.toString(x).getBytes(). The text is the same as Integer/Long.toString
+ * and the Double.toString layout, parsing accepts what parseInt/parseLong/parseDouble accept.
+ * <p>
+ * Integers are written backwards 2 digits at a time from a table of digit pairs. Doubles are written with the fewest
+ * digits that read back to the same value (the closest such, ties to even), found with Ulf Adams' Ryu algorithm: the
+ * bounds of the rounding interval are scaled by a 128 bit approximation of a power of 5 (tables built on class load)
+ * and digits are dropped while the bounds still differ, down to 2 digits (the closest 2 digit decimal wins over a
+ * further 1 digit one, as in the JDK19+ Double.toString spec). Double.toString before JDK19 sometimes gives more
+ * digits than needed, so the two differ in those cases only. Subnormals with a mantissa of a few bits are rounded to 2
+ * digits with a BigDecimal, which allocates.
+ * <p>
+ * Double parsing takes the exact fast path when the digits fit in 53 bits and the power of 10 is at most 22, otherwise
+ * it falls back to Double.parseDouble on a copy of the text, which allocates.
+ * <p>
+ * Writers return the number of bytes written. The byte[] variants throw if the text does not fit, the address variants
+ * expect room for the MAX_*_LENGTH of the type and the buffer variants follow the
+ * {@link CustomUtf8Encoder#encodeString(String, ByteBuffer)} contract of returning OVERFLOW and leaving the position
+ * be if the text does not fit. Parsers throw a NumberFormatException for malformed text and do not move buffer
+ * positions.
+ *
+ * @author nitsan
+ */
+public final class AsciiNumbers {
+    public static final int MAX_INT_LENGTH = 11;
+    public static final int MAX_LONG_LENGTH = 20;
+    public static final int MAX_DOUBLE_LENGTH = 24;
+
+    private static final long BYTE_ARRAY_BASE = UNSAFE.arrayBaseOffset(byte[].class);
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final byte[] LONG_MIN_VALUE = Long.toString(Long.MIN_VALUE).getBytes(ISO_8859_1);
+    private static final byte[] NAN = "NaN".getBytes(ISO_8859_1);
+    private static final byte[] INFINITY = "Infinity".getBytes(ISO_8859_1);
+    // "00" to "99", as shorts which put the 2 digits in order when written in native order
+    private static final short[] DIGIT_PAIRS = new short[100];
+    private static final long[] POWERS_OF_10 = new long[19];
+    // exactly representable powers of 10
+    private static final double[] DOUBLE_POWERS_OF_10 = new double[23];
+
+    // Ryu: 5^i and 2^k/5^q, shifted to a 125 bit precision, as low/high longs
+    private static final int POW5_BITCOUNT = 125;
+    private static final int POW5_INV_BITCOUNT = 125;
+    private static final long[] POW5_SPLIT = new long[2 * 326];
+    private static final long[] POW5_INV_SPLIT = new long[2 * 342];
+
+    static {
+        boolean littleEndian = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+        for (int i = 0; i < 100; i++) {
+            int tens = '0' + i / 10;
+            int ones = '0' + i % 10;
+            DIGIT_PAIRS[i] = (short) (littleEndian ? tens | ones << 8 : tens << 8 | ones);
+        }
+        long power = 1;
+        for (int i = 0; i < POWERS_OF_10.length; i++) {
+            POWERS_OF_10[i] = power;
+            power *= 10;
+        }
+        double doublePower = 1;
+        for (int i = 0; i < DOUBLE_POWERS_OF_10.length; i++) {
+            DOUBLE_POWERS_OF_10[i] = doublePower;
+            doublePower *= 10;
+        }
+        BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        BigInteger five = BigInteger.valueOf(5);
+        for (int i = 0; i < POW5_SPLIT.length / 2; i++) {
+            BigInteger pow = five.pow(i);
+            BigInteger split = pow.shiftRight(pow.bitLength() - POW5_BITCOUNT);
+            POW5_SPLIT[2 * i] = split.and(mask).longValue();
+            POW5_SPLIT[2 * i + 1] = split.shiftRight(64).longValue();
+        }
+        for (int i = 0; i < POW5_INV_SPLIT.length / 2; i++) {
+            BigInteger pow = five.pow(i);
+            BigInteger inv = BigInteger.ONE.shiftLeft(pow.bitLength() - 1 + POW5_INV_BITCOUNT).divide(pow)
+                    .add(BigInteger.ONE);
+            POW5_INV_SPLIT[2 * i] = inv.and(mask).longValue();
+            POW5_INV_SPLIT[2 * i + 1] = inv.shiftRight(64).longValue();
+        }
+    }
+
+    private AsciiNumbers() {
+    }
+
+    public static int putInt(int value, byte[] dst, int offset) {
+        return putLong(value, dst, offset);
+    }
+
+    public static int putInt(int value, long address) {
+        return putLong(value, address);
+    }
+
+    public static CoderResult encodeInt(int value, ByteBuffer dst) {
+        return encodeLong(value, dst);
+    }
+
+    /**
+     * @return the number of bytes written at offset
+     * @throws IndexOutOfBoundsException if they do not fit, nothing is written
+     */
+    public static int putLong(long value, byte[] dst, int offset) {
+        checkOffset(dst, offset);
+        return checkFit(putLong(value, dst, BYTE_ARRAY_BASE + offset, dst.length - offset), dst, offset);
+    }
+
+    /**
+     * @return the number of bytes written, at most {@link #MAX_LONG_LENGTH}
+     */
+    public static int putLong(long value, long address) {
+        return putLong(value, null, address, MAX_LONG_LENGTH);
+    }
+
+    public static CoderResult encodeLong(long value, ByteBuffer dst) {
+        int dp = dst.position();
+        int length;
+        // array() throws for a read only heap buffer
+        if (dst.isDirect())
+            length = putLong(value, null, getAddress(dst) + dp, dst.remaining());
+        else
+            length = putLong(value, dst.array(), BYTE_ARRAY_BASE + dst.arrayOffset() + dp, dst.remaining());
+        if (length < 0)
+            return CoderResult.OVERFLOW;
+        dst.position(dp + length);
+        return CoderResult.UNDERFLOW;
+    }
+
+    /**
+     * @return the number of bytes written, or -1 if room is not enough and nothing was written
+     */
+    private static int putLong(long value, Object base, long offset, int room) {
+        if (value == Long.MIN_VALUE) {
+            if (room < LONG_MIN_VALUE.length)
+                return -1;
+            UNSAFE.copyMemory(LONG_MIN_VALUE, BYTE_ARRAY_BASE, base, offset, LONG_MIN_VALUE.length);
+            return LONG_MIN_VALUE.length;
+        }
+        int length;
+        if (value < 0) {
+            value = -value;
+            length = digits(value) + 1;
+            if (room < length)
+                return -1;
+            UNSAFE.putByte(base, offset, (byte) '-');
+        } else {
+            length = digits(value);
+            if (room < length)
+                return -1;
+        }
+        putDigits(value, base, offset + length);
+        return length;
+    }
+
+    /**
+     * @return the number of decimal digits in a non negative value
+     */
+    private static int digits(long value) {
+        for (int i = 1; i < POWERS_OF_10.length; i++) {
+            if (value < POWERS_OF_10[i])
+                return i;
+        }
+        return POWERS_OF_10.length;
+    }
+
+    /**
+     * Writes the digits of a non negative value backwards from end, 2 at a time.
+     */
+    private static void putDigits(long value, Object base, long end) {
+        while (value > Integer.MAX_VALUE) {
+            long q = value / 100;
+            int r = (int) (value - q * 100);
+            value = q;
+            end -= 2;
+            UNSAFE.putShort(base, end, DIGIT_PAIRS[r]);
+        }
+        // int division is cheaper
+        int i = (int) value;
+        while (i >= 100) {
+            int q = i / 100;
+            int r = i - q * 100;
+            i = q;
+            end -= 2;
+            UNSAFE.putShort(base, end, DIGIT_PAIRS[r]);
+        }
+        if (i >= 10)
+            UNSAFE.putShort(base, end - 2, DIGIT_PAIRS[i]);
+        else
+            UNSAFE.putByte(base, end - 1, (byte) ('0' + i));
+    }
+
+    /**
+     * @return the number of bytes written at offset
+     * @throws IndexOutOfBoundsException if they do not fit, nothing is written
+     */
+    public static int putDouble(double value, byte[] dst, int offset) {
+        checkOffset(dst, offset);
+        return checkFit(putDouble(value, dst, BYTE_ARRAY_BASE + offset, dst.length - offset), dst, offset);
+    }
+
+    /**
+     * @return the number of bytes written, at most {@link #MAX_DOUBLE_LENGTH}
+     */
+    public static int putDouble(double value, long address) {
+        return putDouble(value, null, address, MAX_DOUBLE_LENGTH);
+    }
+
+    public static CoderResult encodeDouble(double value, ByteBuffer dst) {
+        int dp = dst.position();
+        int length;
+        if (dst.isDirect())
+            length = putDouble(value, null, getAddress(dst) + dp, dst.remaining());
+        else
+            length = putDouble(value, dst.array(), BYTE_ARRAY_BASE + dst.arrayOffset() + dp, dst.remaining());
+        if (length < 0)
+            return CoderResult.OVERFLOW;
+        dst.position(dp + length);
+        return CoderResult.UNDERFLOW;
+    }
+
+    private static int putDouble(double value, Object base, long offset, int room) {
+        long bits = Double.doubleToRawLongBits(value);
+        boolean negative = bits < 0;
+        long ieeeMantissa = bits & ((1L << 52) - 1);
+        int ieeeExponent = (int) (bits >>> 52) & 0x7FF;
+        if (ieeeExponent == 0x7FF) {
+            if (ieeeMantissa != 0)
+                return putBytes(NAN, false, base, offset, room);
+            return putBytes(INFINITY, negative, base, offset, room);
+        }
+        if (ieeeExponent == 0 && ieeeMantissa == 0) {
+            int length = negative ? 4 : 3;
+            if (room < length)
+                return -1;
+            if (negative)
+                UNSAFE.putByte(base, offset++, (byte) '-');
+            UNSAFE.putByte(base, offset, (byte) '0');
+            UNSAFE.putByte(base, offset + 1, (byte) '.');
+            UNSAFE.putByte(base, offset + 2, (byte) '0');
+            return length;
+        }
+
+        // Ryu, see https://github.com/ulfjack/ryu, we want the shortest decimal in the interval of values which round
+        // to this double, scaled by 4 so the interval bounds are integers
+        int e2;
+        long m2;
+        if (ieeeExponent == 0) {
+            e2 = 1 - 1023 - 52 - 2;
+            m2 = ieeeMantissa;
+        } else {
+            e2 = ieeeExponent - 1023 - 52 - 2;
+            m2 = (1L << 52) | ieeeMantissa;
+        }
+        // round half even when parsing, so the bounds are in the interval if the mantissa is even
+        boolean acceptBounds = (m2 & 1) == 0;
+        long mv = 4 * m2;
+        // the interval below a power of 2 is half as wide
+        int mmShift = ieeeMantissa != 0 || ieeeExponent <= 1 ? 1 : 0;
+
+        // the interval bounds and value times 10^-e10, and whether the digits dropped from them are all zeros
+        long vr, vp, vm;
+        int e10;
+        boolean vmIsTrailingZeros = false;
+        boolean vrIsTrailingZeros = false;
+        if (e2 >= 0) {
+            int q = log10Pow2(e2) - (e2 > 3 ? 1 : 0);
+            e10 = q;
+            int k = POW5_INV_BITCOUNT + pow5Bits(q) - 1;
+            int i = -e2 + q + k;
+            vr = mulShift(mv, POW5_INV_SPLIT, q, i);
+            vp = mulShift(mv + 2, POW5_INV_SPLIT, q, i);
+            vm = mulShift(mv - 1 - mmShift, POW5_INV_SPLIT, q, i);
+            if (q <= 21) {
+                // only one of mp, mv and mm can be a multiple of 5, if any
+                if (mv % 5 == 0)
+                    vrIsTrailingZeros = multipleOfPowerOf5(mv, q);
+                else if (acceptBounds)
+                    vmIsTrailingZeros = multipleOfPowerOf5(mv - 1 - mmShift, q);
+                else if (multipleOfPowerOf5(mv + 2, q))
+                    vp--;
+            }
+        } else {
+            int q = log10Pow5(-e2) - (-e2 > 1 ? 1 : 0);
+            e10 = q + e2;
+            int i = -e2 - q;
+            int k = pow5Bits(i) - POW5_BITCOUNT;
+            int j = q - k;
+            vr = mulShift(mv, POW5_SPLIT, i, j);
+            vp = mulShift(mv + 2, POW5_SPLIT, i, j);
+            vm = mulShift(mv - 1 - mmShift, POW5_SPLIT, i, j);
+            if (q <= 1) {
+                // mv has at least q trailing 0 bits, mp and mm one each (or none)
+                vrIsTrailingZeros = true;
+                if (acceptBounds)
+                    vmIsTrailingZeros = mmShift == 1;
+                else
+                    vp--;
+            } else if (q < 63) {
+                vrIsTrailingZeros = multipleOfPowerOf2(mv, q);
+            }
+        }
+
+        // like Double.toString (JDK19+) keep at least 2 digits, a 1 digit shortest can be further from the value than
+        // the closest 2 digit one, e.g. 5.0E-324 vs 4.9E-324 for Double.MIN_VALUE
+        int removed = 0;
+        long output;
+        if (vmIsTrailingZeros || vrIsTrailingZeros) {
+            // the rare case of having to track exactly what is dropped
+            int lastRemovedDigit = 0;
+            while (vp / 10 > vm / 10 && vr >= 100) {
+                vmIsTrailingZeros &= vm % 10 == 0;
+                vrIsTrailingZeros &= lastRemovedDigit == 0;
+                lastRemovedDigit = (int) (vr % 10);
+                vr /= 10;
+                vp /= 10;
+                vm /= 10;
+                removed++;
+            }
+            if (vmIsTrailingZeros) {
+                while (vm % 10 == 0 && vr >= 100) {
+                    vrIsTrailingZeros &= lastRemovedDigit == 0;
+                    lastRemovedDigit = (int) (vr % 10);
+                    vr /= 10;
+                    vp /= 10;
+                    vm /= 10;
+                    removed++;
+                }
+            }
+            // round half to even
+            if (vrIsTrailingZeros && lastRemovedDigit == 5 && vr % 2 == 0)
+                lastRemovedDigit = 4;
+            output = vr + ((vr == vm && (!acceptBounds || !vmIsTrailingZeros)) || lastRemovedDigit >= 5 ? 1 : 0);
+        } else {
+            boolean roundUp = false;
+            // 2 at a time while we can, short outputs like prices drop 10 or more digits
+            while (vp / 100 > vm / 100 && vr >= 1000) {
+                roundUp = vr % 100 >= 50;
+                vr /= 100;
+                vp /= 100;
+                vm /= 100;
+                removed += 2;
+            }
+            while (vp / 10 > vm / 10 && vr >= 100) {
+                roundUp = vr % 10 >= 5;
+                vr /= 10;
+                vp /= 10;
+                vm /= 10;
+                removed++;
+            }
+            output = vr + (vr == vm || roundUp ? 1 : 0);
+        }
+        if (removed == 0 && vr < 100 && vp / 10 > vm / 10) {
+            // a subnormal with a few bit mantissa is scaled to 2 digits or less, with no digit below to round by
+            BigDecimal closest = new BigDecimal(Math.abs(value)).round(new MathContext(2, RoundingMode.HALF_EVEN));
+            output = closest.unscaledValue().longValue();
+            e10 = -closest.scale();
+        }
+        // 2 digits with a trailing 0 (or 3 after rounding up 99) are the 1 digit shortest
+        while (output % 10 == 0) {
+            output /= 10;
+            removed++;
+        }
+        return putDecimal(output, e10 + removed, negative, base, offset, room);
+    }
+
+    /**
+     * Writes output * 10^exponent in the Double.toString layout: plain in [10^-3, 10^7) and computerized scientific
+     * notation otherwise, with at least one digit after the point.
+     */
+    private static int putDecimal(long output, int exponent, boolean negative, Object base, long offset, int room) {
+        int olength = digits(output);
+        // exponent of the first digit
+        int exp = exponent + olength - 1;
+        int length;
+        if (exp >= 0 && exp < 7)
+            length = olength > exp + 1 ? olength + 1 : exp + 3;
+        else if (exp < 0 && exp >= -3)
+            length = 1 - exp + olength;
+        else
+            length = (olength == 1 ? 3 : olength + 1) + 1 + (exp < 0 ? 1 : 0) + digits(Math.abs(exp));
+        if (negative)
+            length++;
+        if (room < length)
+            return -1;
+        if (negative)
+            UNSAFE.putByte(base, offset++, (byte) '-');
+        if (exp >= 0 && exp < 7) {
+            if (olength > exp + 1) {
+                // the digits one to the right, then the integer part back over the gap
+                putDigits(output, base, offset + olength + 1);
+                for (int i = 0; i <= exp; i++)
+                    UNSAFE.putByte(base, offset + i, UNSAFE.getByte(base, offset + i + 1));
+                UNSAFE.putByte(base, offset + exp + 1, (byte) '.');
+            } else {
+                putDigits(output, base, offset + olength);
+                for (int i = olength; i <= exp; i++)
+                    UNSAFE.putByte(base, offset + i, (byte) '0');
+                UNSAFE.putByte(base, offset + exp + 1, (byte) '.');
+                UNSAFE.putByte(base, offset + exp + 2, (byte) '0');
+            }
+        } else if (exp < 0 && exp >= -3) {
+            UNSAFE.putByte(base, offset, (byte) '0');
+            UNSAFE.putByte(base, offset + 1, (byte) '.');
+            for (int i = 2; i < 1 - exp; i++)
+                UNSAFE.putByte(base, offset + i, (byte) '0');
+            putDigits(output, base, offset + 1 - exp + olength);
+        } else {
+            putDigits(output, base, offset + olength + 1);
+            UNSAFE.putByte(base, offset, UNSAFE.getByte(base, offset + 1));
+            UNSAFE.putByte(base, offset + 1, (byte) '.');
+            long p = offset + olength + 1;
+            if (olength == 1)
+                UNSAFE.putByte(base, p++, (byte) '0');
+            UNSAFE.putByte(base, p++, (byte) 'E');
+            if (exp < 0) {
+                UNSAFE.putByte(base, p++, (byte) '-');
+                exp = -exp;
+            }
+            putDigits(exp, base, p + digits(exp));
+        }
+        return length;
+    }
+
+    private static int putBytes(byte[] bytes, boolean negative, Object base, long offset, int room) {
+        int length = negative ? bytes.length + 1 : bytes.length;
+        if (room < length)
+            return -1;
+        if (negative)
+            UNSAFE.putByte(base, offset++, (byte) '-');
+        UNSAFE.copyMemory(bytes, BYTE_ARRAY_BASE, base, offset, bytes.length);
+        return length;
+    }
+
+    /**
+     * @return the 64 bits of m * mul[index] (128 bits) >>> j, for 64 < j < 128
+     */
+    private static long mulShift(long m, long[] mul, int index, int j) {
+        long mulLow = mul[2 * index];
+        long mulHigh = mul[2 * index + 1];
+        long high1 = multiplyHigh(m, mulHigh);
+        long low1 = m * mulHigh;
+        long high0 = multiplyHigh(m, mulLow);
+        long sum = high0 + low1;
+        // unsigned sum < high0 means it carried
+        if (sum + Long.MIN_VALUE < high0 + Long.MIN_VALUE)
+            high1++;
+        int shift = j - 64;
+        return (high1 << (64 - shift)) | (sum >>> shift);
+    }
+
+    /**
+     * @return the high 64 bits of the unsigned 128 bit product
+     */
+    private static long multiplyHigh(long x, long y) {
+        long x0 = x & 0xFFFFFFFFL;
+        long x1 = x >>> 32;
+        long y0 = y & 0xFFFFFFFFL;
+        long y1 = y >>> 32;
+        long p11 = x1 * y1;
+        long p01 = x0 * y1;
+        long p10 = x1 * y0;
+        long p00 = x0 * y0;
+        long middle = p10 + (p00 >>> 32) + (p01 & 0xFFFFFFFFL);
+        return p11 + (middle >>> 32) + (p01 >>> 32);
+    }
+
+    /**
+     * @return ceil(log2(5^e)), the bit length of 5^e
+     */
+    private static int pow5Bits(int e) {
+        return (int) (((long) e * 1217359) >>> 19) + 1;
+    }
+
+    /**
+     * @return floor(log10(2^e))
+     */
+    private static int log10Pow2(int e) {
+        return (int) (((long) e * 78913) >>> 18);
+    }
+
+    /**
+     * @return floor(log10(5^e))
+     */
+    private static int log10Pow5(int e) {
+        return (int) (((long) e * 732923) >>> 20);
+    }
+
+    private static boolean multipleOfPowerOf5(long value, int q) {
+        int count = 0;
+        while (value > 0 && value % 5 == 0) {
+            value /= 5;
+            count++;
+        }
+        return count >= q;
+    }
+
+    private static boolean multipleOfPowerOf2(long value, int q) {
+        return (value & ((1L << q) - 1)) == 0;
+    }
+
+    public static int parseInt(byte[] src, int offset, int length) {
+        checkRange(src, offset, length);
+        return toInt(parseLong(src, BYTE_ARRAY_BASE + offset, length), src, BYTE_ARRAY_BASE + offset, length);
+    }
+
+    public static int parseInt(long address, int length) {
+        return toInt(parseLong(null, address, length), null, address, length);
+    }
+
+    /**
+     * Parses the bytes between the buffer position and limit, the position is not moved. Read only heap buffers are
+     * parsed in place, see {@link UnsafeDirectByteBuffer#getArray(ByteBuffer)}.
+     */
+    public static int parseInt(ByteBuffer src) {
+        if (src.isDirect())
+            return parseInt(getAddress(src) + src.position(), src.remaining());
+        return parseInt(getArray(src), getArrayOffset(src) + src.position(), src.remaining());
+    }
+
+    private static int toInt(long value, Object base, long offset, int length) {
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            throw malformed(base, offset, length);
+        return (int) value;
+    }
+
+    public static long parseLong(byte[] src, int offset, int length) {
+        checkRange(src, offset, length);
+        return parseLong(src, BYTE_ARRAY_BASE + offset, length);
+    }
+
+    public static long parseLong(long address, int length) {
+        return parseLong(null, address, length);
+    }
+
+    /**
+     * Parses the bytes between the buffer position and limit, the position is not moved.
+     */
+    public static long parseLong(ByteBuffer src) {
+        if (src.isDirect())
+            return parseLong(getAddress(src) + src.position(), src.remaining());
+        return parseLong(getArray(src), getArrayOffset(src) + src.position(), src.remaining());
+    }
+
+    /**
+     * Same as Long.parseLong, accumulating negatively so Long.MIN_VALUE does not overflow.
+     */
+    private static long parseLong(Object base, long offset, int length) {
+        int i = 0;
+        boolean negative = false;
+        long limit = -Long.MAX_VALUE;
+        if (length > 0) {
+            byte first = UNSAFE.getByte(base, offset);
+            if (first == '-') {
+                negative = true;
+                limit = Long.MIN_VALUE;
+                i++;
+            } else if (first == '+') {
+                i++;
+            }
+        }
+        if (i == length)
+            throw malformed(base, offset, length);
+        long multiplyLimit = limit / 10;
+        long result = 0;
+        for (; i < length; i++) {
+            int digit = UNSAFE.getByte(base, offset + i) - '0';
+            if (digit < 0 || digit > 9 || result < multiplyLimit)
+                throw malformed(base, offset, length);
+            result *= 10;
+            if (result < limit + digit)
+                throw malformed(base, offset, length);
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    public static double parseDouble(byte[] src, int offset, int length) {
+        checkRange(src, offset, length);
+        return parseDouble(src, BYTE_ARRAY_BASE + offset, length);
+    }
+
+    public static double parseDouble(long address, int length) {
+        return parseDouble(null, address, length);
+    }
+
+    /**
+     * Parses the bytes between the buffer position and limit, the position is not moved.
+     */
+    public static double parseDouble(ByteBuffer src) {
+        if (src.isDirect())
+            return parseDouble(getAddress(src) + src.position(), src.remaining());
+        return parseDouble(getArray(src), getArrayOffset(src) + src.position(), src.remaining());
+    }
+
+    /**
+     * [+-]digits[.digits][(e|E)[+-]digits] with up to 53 bits of digits and a power of 10 in [-22, 22] is one exact
+     * multiply or divide, anything else goes to Double.parseDouble.
+     */
+    private static double parseDouble(Object base, long offset, int length) {
+        int i = 0;
+        boolean negative = false;
+        if (length > 0) {
+            byte first = UNSAFE.getByte(base, offset);
+            if (first == '-' || first == '+') {
+                negative = first == '-';
+                i++;
+            }
+        }
+        long mantissa = 0;
+        int exponent = 0;
+        int digitCount = 0;
+        // digits past what fits in a long, the result is then not exact
+        boolean truncated = false;
+        byte b = 0;
+        for (; i < length && isDigit(b = UNSAFE.getByte(base, offset + i)); i++, digitCount++) {
+            if (mantissa < POWERS_OF_10[17])
+                mantissa = mantissa * 10 + (b - '0');
+            else
+                truncated = true;
+        }
+        if (i < length && b == '.') {
+            for (i++; i < length && isDigit(b = UNSAFE.getByte(base, offset + i)); i++, digitCount++) {
+                if (mantissa < POWERS_OF_10[17]) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    exponent--;
+                } else {
+                    truncated = true;
+                }
+            }
+        }
+        if (i < length && (b == 'e' || b == 'E') && digitCount > 0) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < length) {
+                b = UNSAFE.getByte(base, offset + i);
+                if (b == '-' || b == '+') {
+                    negativeExponent = b == '-';
+                    i++;
+                }
+            }
+            int start = i;
+            int explicit = 0;
+            for (; i < length && isDigit(b = UNSAFE.getByte(base, offset + i)); i++) {
+                if (explicit < 10000)
+                    explicit = explicit * 10 + (b - '0');
+            }
+            if (i == start)
+                return parseDoubleSlow(base, offset, length);
+            exponent += negativeExponent ? -explicit : explicit;
+        }
+        if (i != length || digitCount == 0 || truncated || mantissa > 1L << 53 || exponent < -22 || exponent > 22)
+            return parseDoubleSlow(base, offset, length);
+        double value = mantissa;
+        if (exponent < 0)
+            value /= DOUBLE_POWERS_OF_10[-exponent];
+        else
+            value *= DOUBLE_POWERS_OF_10[exponent];
+        return negative ? -value : value;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static double parseDoubleSlow(Object base, long offset, int length) {
+        return Double.parseDouble(toString(base, offset, length));
+    }
+
+    private static String toString(Object base, long offset, int length) {
+        byte[] bytes = new byte[length];
+        UNSAFE.copyMemory(base, offset, bytes, BYTE_ARRAY_BASE, length);
+        return new String(bytes, ISO_8859_1);
+    }
+
+    private static NumberFormatException malformed(Object base, long offset, int length) {
+        return new NumberFormatException("For input string: \"" + toString(base, offset, length) + "\"");
+    }
+
+    private static void checkOffset(byte[] dst, int offset) {
+        if (offset < 0 || offset > dst.length)
+            throw new IndexOutOfBoundsException("offset=" + offset + " array=" + dst.length);
+    }
+
+    private static int checkFit(int length, byte[] dst, int offset) {
+        if (length < 0)
+            throw new IndexOutOfBoundsException("no room at offset=" + offset + " array=" + dst.length);
+        return length;
+    }
+
+    private static void checkRange(byte[] src, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > src.length)
+            throw new IndexOutOfBoundsException("offset=" + offset + " length=" + length + " array=" + src.length);
+    }
+}
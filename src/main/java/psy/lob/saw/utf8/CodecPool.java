@@ -0,0 +1,56 @@
+package psy.lob.saw.utf8;
+
+import psy.lob.saw.util.StripedSlots;
+
+/**
+ * A lock free pool of encoder/decoder instances for sharing between threads. Instances sit in {@link StripedSlots},
+ * each on a cache line of its own, so threads mostly stay out of each others way. Acquiring and releasing are
+ * allocation free unless the pool runs dry, in which case a new instance is created and will be added to the pool on
+ * release if there is room.
+ *
+ * @author nitsan
+ */
+public abstract class CodecPool<T> {
+    private final StripedSlots<T> slots;
+
+    /**
+     * @param size rounded up to the next power of 2, at least the number of threads expected to use the pool
+     *            concurrently
+     */
+    protected CodecPool(int size) {
+        this.slots = new StripedSlots<T>(size);
+        for (int i = 0; i < slots.size(); i++) {
+            slots.init(i, newInstance());
+        }
+    }
+
+    protected abstract T newInstance();
+
+    public final T acquire() {
+        T instance = slots.take(StripedSlots.probe());
+        return instance != null ? instance : newInstance();
+    }
+
+    public final void release(T instance) {
+        // if the pool is full, let this one go
+        slots.put(StripedSlots.probe(), instance);
+    }
+
+    public static CodecPool<CustomUtf8Encoder> encoders(int size) {
+        return new CodecPool<CustomUtf8Encoder>(size) {
+            @Override
+            protected CustomUtf8Encoder newInstance() {
+                return new CustomUtf8Encoder();
+            }
+        };
+    }
+
+    public static CodecPool<CustomUtf8Decoder> decoders(int size) {
+        return new CodecPool<CustomUtf8Decoder>(size) {
+            @Override
+            protected CustomUtf8Decoder newInstance() {
+                return new CustomUtf8Decoder();
+            }
+        };
+    }
+}
@@ -0,0 +1,257 @@
+package psy.lob.saw.utf8;
+
+import static psy.lob.saw.utf8.UnsafeDirectByteBuffer.getAddress;
+import static psy.lob.saw.utf8.UnsafeDirectByteBuffer.getArray;
+import static psy.lob.saw.utf8.UnsafeDirectByteBuffer.getArrayOffset;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CoderResult;
+
+import psy.lob.saw.util.UnsafeAccess;
+
+/**
+ * Counterpart to {@link CustomUtf8Encoder}, decoding UTF-8 bytes from a byte buffer (heap or direct) or a byte array
+ * straight into a String. The String value is sized exactly by a counting pass over the input and then handed over to
+ * the String using {@link UnsafeString}, saving us the copy the String constructor would make.<br>
+ * Before JDK9 the value is a char[]. On JDK9+ it is a LATIN1 byte[] if all the chars fit (a plain copy of the input if
+ * it is all ascii), or a UTF16 byte[] otherwise. Heap and direct sources are both read with Unsafe, in the same way
+ * as {@link StatelessUtf8Encoder} writes them.
+ *
+ * @author nitsan
+ */
+public class CustomUtf8Decoder {
+    private static final long BYTE_ARRAY_BASE = UnsafeAccess.UNSAFE.arrayBaseOffset(byte[].class);
+    private static final long CHAR_ARRAY_BASE = UnsafeAccess.UNSAFE.arrayBaseOffset(char[].class);
+    // taking these off the stack, same as the encoder
+    private int lastSp;
+    private CoderResult lastError;
+    // set by the counting pass
+    private boolean lastAscii;
+    private boolean lastLatin1;
+
+    /**
+     * Decodes the remaining bytes of the buffer into a String using the UTF-8 encoding. Like the encoder this will not
+     * decode partially: on malformed input it returns null, does not move the buffer position and the error can be
+     * retrieved via {@link #getLastError()}.
+     *
+     * @param src
+     * @return the decoded String, or null if the input is malformed
+     */
+    public final String decodeString(ByteBuffer src) {
+        if (src.isDirect())
+            return decodeStringFromDirect(src);
+        else
+            return decodeStringFromHeap(src);
+    }
+
+    public final String decodeStringFromDirect(ByteBuffer src) {
+        int sp = src.position();
+        String result = decodeString(getAddress(src), sp, src.limit());
+        if (result != null)
+            src.position(lastSp);
+        return result;
+    }
+
+    /**
+     * Read only heap buffers are decoded in place too, see {@link UnsafeDirectByteBuffer#getArray(ByteBuffer)}.
+     */
+    public final String decodeStringFromHeap(ByteBuffer src) {
+        int arrayOffset = getArrayOffset(src);
+        String result = decodeString(getArray(src), arrayOffset + src.position(), src.remaining());
+        if (result != null)
+            src.position(lastSp - arrayOffset);
+        return result;
+    }
+
+    /**
+     * Decodes the bytes in the given range of the array.
+     *
+     * @param sa source byte array
+     * @param offset index of first byte to decode
+     * @param length number of bytes to decode
+     * @return the decoded String, or null if the input is malformed
+     */
+    public final String decodeString(byte[] sa, int offset, int length) {
+        int sl = offset + length;
+        if (offset < 0 || length < 0 || sl > sa.length)
+            throw new IndexOutOfBoundsException();
+        return decode(sa, BYTE_ARRAY_BASE, offset, sl);
+    }
+
+    /**
+     * Decodes the bytes in the given range starting at the address (plucked out of a direct buffer using Unsafe). No
+     * boundary checks are made.
+     *
+     * @param sAddress source address
+     * @param sp source position
+     * @param sl source limit
+     * @return the decoded String, or null if the input is malformed
+     */
+    public final String decodeString(long sAddress, int sp, int sl) {
+        return decode(null, sAddress, sp, sl);
+    }
+
+    /**
+     * @return the error result of the last decode call, or null if it was successful
+     */
+    public final CoderResult getLastError() {
+        return lastError;
+    }
+
+    /**
+     * @param sa source array, or null when saBase is an absolute address
+     * @param saBase source base offset
+     * @param sp source position
+     * @param sl source limit
+     */
+    private String decode(Object sa, long saBase, int sp, int sl) {
+        lastError = null;
+        int count = countChars(sa, saBase, sp, sl);
+        if (!UnsafeString.hasByteValue()) {
+            char[] da = new char[count];
+            if (!decode(sa, saBase, sp, sl, da, CHAR_ARRAY_BASE))
+                return null;
+            return UnsafeString.buildUnsafe(da);
+        }
+        if (UnsafeString.isCompactStrings() && lastLatin1) {
+            byte[] da = new byte[count];
+            if (lastAscii) {
+                // the LATIN1 value is the input as is
+                UnsafeAccess.UNSAFE.copyMemory(sa, saBase + sp, da, BYTE_ARRAY_BASE, count);
+                lastSp = sl;
+            } else if (!decodeLatin1(sa, saBase, sp, sl, da)) {
+                return null;
+            }
+            return UnsafeString.buildUnsafeLatin1(da);
+        }
+        byte[] da = new byte[count << 1];
+        if (!decode(sa, saBase, sp, sl, da, BYTE_ARRAY_BASE))
+            return null;
+        return UnsafeString.buildUnsafeUtf16(da);
+    }
+
+    /**
+     * Every char starts with a non-continuation byte, and 4 byte sequences make 2 chars (a surrogate pair). Malformed
+     * input may be miscounted, but never over the number of chars the decode loop will write before detecting it.<br>
+     * Also notes whether the input is all ascii, or could be all LATIN1 (only C2/C3 lead bytes beyond ascii).
+     */
+    private int countChars(Object sa, long saBase, int sp, int sl) {
+        int count = 0;
+        // sign bit is set if any byte is not ascii
+        int allBytes = 0;
+        boolean latin1 = true;
+        for (; sp < sl; sp++) {
+            int b = UnsafeAccess.UNSAFE.getByte(sa, saBase + sp);
+            allBytes |= b;
+            if ((b & 0xC0) != 0x80) {
+                count++;
+                if (b < 0 && (b & 0xFE) != 0xC2)
+                    latin1 = false;
+            }
+            if ((b & 0xF8) == 0xF0)
+                count++;
+        }
+        lastAscii = allBytes >= 0;
+        lastLatin1 = latin1;
+        return count;
+    }
+
+    /**
+     * Same naming convention as the encoder, s for source and d for destination. The chars are written with Unsafe to
+     * either a char[] or a UTF16 byte[], they share the layout.
+     *
+     * @return true if successful, false otherwise (lastError is set)
+     */
+    private boolean decode(Object sa, long saBase, int sp, int sl, Object da, long daBase) {
+        int dp = 0;
+        int b1;
+        // handle ascii encoded strings in an optimised loop
+        while (sp < sl && (b1 = UnsafeAccess.UNSAFE.getByte(sa, saBase + sp)) >= 0) {
+            putChar(da, daBase, dp++, (char) b1);
+            sp++;
+        }
+
+        while (sp < sl) {
+            b1 = UnsafeAccess.UNSAFE.getByte(sa, saBase + sp);
+            if (b1 >= 0) {
+                putChar(da, daBase, dp++, (char) b1);
+                sp++;
+            } else if ((b1 & 0xE0) == 0xC0) {
+                if (sl - sp < 2 || (b1 & 0x1E) == 0)
+                    return malformed(sp, 1);
+                int b2 = UnsafeAccess.UNSAFE.getByte(sa, saBase + sp + 1);
+                if ((b2 & 0xC0) != 0x80)
+                    return malformed(sp, 1);
+                putChar(da, daBase, dp++, (char) (((b1 & 0x1F) << 6) | (b2 & 0x3F)));
+                sp += 2;
+            } else if ((b1 & 0xF0) == 0xE0) {
+                if (sl - sp < 3)
+                    return malformed(sp, 1);
+                int b2 = UnsafeAccess.UNSAFE.getByte(sa, saBase + sp + 1);
+                int b3 = UnsafeAccess.UNSAFE.getByte(sa, saBase + sp + 2);
+                if ((b2 & 0xC0) != 0x80 || (b3 & 0xC0) != 0x80)
+                    return malformed(sp, 1);
+                char c = (char) (((b1 & 0x0F) << 12) | ((b2 & 0x3F) << 6) | (b3 & 0x3F));
+                // overlong or surrogate
+                if (c < 0x800 || Character.isSurrogate(c))
+                    return malformed(sp, 3);
+                putChar(da, daBase, dp++, c);
+                sp += 3;
+            } else if ((b1 & 0xF8) == 0xF0) {
+                if (sl - sp < 4)
+                    return malformed(sp, 1);
+                int b2 = UnsafeAccess.UNSAFE.getByte(sa, saBase + sp + 1);
+                int b3 = UnsafeAccess.UNSAFE.getByte(sa, saBase + sp + 2);
+                int b4 = UnsafeAccess.UNSAFE.getByte(sa, saBase + sp + 3);
+                if ((b2 & 0xC0) != 0x80 || (b3 & 0xC0) != 0x80 || (b4 & 0xC0) != 0x80)
+                    return malformed(sp, 1);
+                int uc = ((b1 & 0x07) << 18) | ((b2 & 0x3F) << 12) | ((b3 & 0x3F) << 6) | (b4 & 0x3F);
+                if (!Character.isSupplementaryCodePoint(uc))
+                    return malformed(sp, 4);
+                putChar(da, daBase, dp++, Character.highSurrogate(uc));
+                putChar(da, daBase, dp++, Character.lowSurrogate(uc));
+                sp += 4;
+            } else {
+                return malformed(sp, 1);
+            }
+        }
+        lastSp = sp;
+        return true;
+    }
+
+    /**
+     * The counting pass found only ascii and C2/C3 lead bytes, so each char fits in a byte.
+     */
+    private boolean decodeLatin1(Object sa, long saBase, int sp, int sl, byte[] da) {
+        int dp = 0;
+        while (sp < sl) {
+            int b1 = UnsafeAccess.UNSAFE.getByte(sa, saBase + sp);
+            if (b1 >= 0) {
+                da[dp++] = (byte) b1;
+                sp++;
+            } else if ((b1 & 0xFE) == 0xC2) {
+                if (sl - sp < 2)
+                    return malformed(sp, 1);
+                int b2 = UnsafeAccess.UNSAFE.getByte(sa, saBase + sp + 1);
+                if ((b2 & 0xC0) != 0x80)
+                    return malformed(sp, 1);
+                da[dp++] = (byte) (((b1 & 0x1F) << 6) | (b2 & 0x3F));
+                sp += 2;
+            } else {
+                return malformed(sp, 1);
+            }
+        }
+        lastSp = sp;
+        return true;
+    }
+
+    private static void putChar(Object da, long daBase, int dp, char c) {
+        UnsafeAccess.UNSAFE.putChar(da, daBase + ((long) dp << 1), c);
+    }
+
+    private boolean malformed(int sp, int length) {
+        lastSp = sp;
+        lastError = CoderResult.malformedForLength(length);
+        return false;
+    }
+}
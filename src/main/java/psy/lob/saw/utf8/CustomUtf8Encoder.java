@@ -1,26 +1,57 @@
 package psy.lob.saw.utf8;
 
+import static psy.lob.saw.utf8.StringChars.charAt;
+import static psy.lob.saw.utf8.StringChars.pack;
 import static psy.lob.saw.utf8.UnsafeDirectByteBuffer.getAddress;
 import static psy.lob.saw.utf8.UnsafeDirectByteBuffer.putByte;
-import static psy.lob.saw.utf8.UnsafeString.getChars;
+import static psy.lob.saw.utf8.UnsafeString.getValue;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.CoderResult;
+import java.util.List;
 
-import sun.nio.cs.Surrogate;
+import psy.lob.saw.util.UnsafeAccess;
 
 /**
  * Customized version of the JDK7 UTF8 encoder targeting the use-case of encoding strings that should fit into a byte
- * buffer.
+ * buffer.<br>
+ * On JDK9+ the String value is a byte[]: LATIN1 Strings are encoded straight from the bytes (a bulk copy if they are
+ * all ascii), UTF16 Strings go through the same loop as the pre-JDK9 char[] as the chars are laid out the same way in
+ * memory.
  * 
  * @author nitsan
  */
 public class CustomUtf8Encoder {
+    private static final long CHAR_ARRAY_BASE = UnsafeAccess.UNSAFE.arrayBaseOffset(char[].class);
+    private static final long BYTE_ARRAY_BASE = UnsafeAccess.UNSAFE.arrayBaseOffset(byte[].class);
+    // base offset of the String value chars, be it a char[] or a UTF16 byte[]
+    private static final long VALUE_BASE = UnsafeString.hasByteValue() ? BYTE_ARRAY_BASE : CHAR_ARRAY_BASE;
+    // packing the chars read as a long relies on the char order within the long
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+    // high bits of 4 chars, if any are set the chars are not all ascii
+    private static final long NON_ASCII_MASK = 0xFF80FF80FF80FF80L;
+    // high bits of 8 LATIN1 bytes
+    private static final long NON_ASCII_LATIN1_MASK = 0x8080808080808080L;
     // as opposed to the JDK version where this is allocated lazily if required
-    private final Surrogate.Parser sgp = new Surrogate.Parser();
+    private final SurrogateParser sgp = new SurrogateParser();
     // taking these off the stack seems to make it go faster
     private int lastSp;
     private int lastDp;
+    private final boolean asciiWords;
+
+    public CustomUtf8Encoder() {
+        this(false);
+    }
+
+    /**
+     * @param asciiWords when true ascii runs are encoded 8/4 chars at a time into direct buffers, reading the chars
+     *            array as longs and writing the packed bytes with a single putLong/putInt. Only used on little endian
+     *            platforms.
+     */
+    public CustomUtf8Encoder(boolean asciiWords) {
+        this.asciiWords = asciiWords && LITTLE_ENDIAN;
+    }
 
     /**
      * Encodes a string into the byte buffer using the UTF-8 encoding. Like the JDK encoder this will return UNDERFLOW
@@ -43,6 +74,275 @@ public class CustomUtf8Encoder {
         int dp = dst.position();
         int dl = dst.limit();
 
+        CoderResult result = encodeValue(src, getAddress(dst), dp, dl);
+        // only move the position if we fit the whole thing in.
+        if (lastDp != 0)
+            dst.position(lastDp);
+        return result;
+
+    }
+
+    /**
+     * Encodes the string into a new buffer of exactly the encoded length, sized by a {@link #utf8Length(String)} pass.
+     * Direct buffers are cache line aligned (and in native order) as allocated by
+     * {@link UnsafeDirectByteBuffer#allocateAlignedByteBuffer(int, long)}.
+     * 
+     * @return the buffer ready for reading (position 0, limit at the end of the encoded bytes), or null if the string
+     *         has lone surrogates
+     */
+    public final ByteBuffer encodeExact(String src, boolean direct) {
+        int length = utf8Length(src);
+        if (length < 0)
+            return null;
+        ByteBuffer dst = direct ? UnsafeDirectByteBuffer.allocateAlignedByteBuffer(length,
+                UnsafeDirectByteBuffer.CACHE_LINE_SIZE) : ByteBuffer.allocate(length);
+        encodeString(src, dst);
+        dst.flip();
+        return dst;
+    }
+
+    /**
+     * Encodes the string into a slice of exactly the encoded length taken from the slab position, which is moved past
+     * it.
+     * 
+     * @return the slice ready for reading, or null if the string has lone surrogates or does not fit in the slab
+     */
+    public final ByteBuffer encodeExact(String src, ByteBuffer slab) {
+        int length = utf8Length(src);
+        if (length < 0 || length > slab.remaining())
+            return null;
+        int limit = slab.limit();
+        slab.limit(slab.position() + length);
+        ByteBuffer dst = slab.slice();
+        slab.position(slab.limit());
+        slab.limit(limit);
+        encodeString(src, dst);
+        dst.flip();
+        return dst;
+    }
+
+    /**
+     * @return the number of bytes the string encodes to, or -1 if it has lone surrogates (which encodeString would
+     *         fail on or drop)
+     */
+    public static int utf8Length(String src) {
+        int sl = src.length();
+        if (UnsafeString.isLatin1(src))
+            return sl + countNonAscii((byte[]) getValue(src), sl);
+        int sp = UnsafeString.getOffset(src);
+        return utf8Length(getValue(src), VALUE_BASE, sp, sp + sl);
+    }
+
+    /**
+     * @return the number of bytes the chars encode to, or -1 if they have lone surrogates
+     */
+    public static int utf8Length(char[] src, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > src.length)
+            throw new IndexOutOfBoundsException();
+        return utf8Length(src, CHAR_ARRAY_BASE, offset, offset + length);
+    }
+
+    /**
+     * Ascii runs are skipped 4 chars at a time.
+     */
+    private static int utf8Length(Object sa, long saBase, int sp, int sl) {
+        int length = sl - sp;
+        while (sp < sl) {
+            while (sl - sp >= 4 && (UnsafeAccess.UNSAFE.getLong(sa, saBase + ((long) sp << 1)) & NON_ASCII_MASK) == 0)
+                sp += 4;
+            if (sp == sl)
+                break;
+            char c = UnsafeAccess.UNSAFE.getChar(sa, saBase + ((long) sp << 1));
+            if (c < 128) {
+                // length already accounts for 1 byte per char
+            } else if (c < 2048) {
+                length += 1;
+            } else if (Character.isSurrogate(c)) {
+                if (!Character.isHighSurrogate(c) || sl - sp < 2
+                        || !Character.isLowSurrogate(UnsafeAccess.UNSAFE.getChar(sa, saBase + ((long) (sp + 1) << 1))))
+                    return -1;
+                // 4 bytes for the pair
+                length += 2;
+                sp++;
+            } else {
+                length += 2;
+            }
+            sp++;
+        }
+        return length;
+    }
+
+    /**
+     * Encodes the strings src[fromIndex, toIndex) into the byte buffer, each preceded by its encoded length as a fixed
+     * size int (in the buffer's byte order) or as an unsigned LEB128 varint. Encoding stops at the first string which
+     * does not fit (or fails to encode), leaving the buffer position after the last whole frame so the caller can flush
+     * and resume from fromIndex + the returned count. A string that does not fit an empty buffer, or has malformed
+     * surrogates, will stop every batch at its index.
+     * 
+     * @return the number of strings encoded
+     */
+    public final int encodeStrings(String[] src, int fromIndex, int toIndex, ByteBuffer dst, boolean varint) {
+        int index = fromIndex;
+        int dp = dst.position();
+        boolean swap = dst.order() != ByteOrder.nativeOrder();
+        if (dst.hasArray()) {
+            int arrayOffset = dst.arrayOffset();
+            byte[] da = dst.array();
+            dp += arrayOffset;
+            int dl = arrayOffset + dst.limit();
+            for (; index < toIndex; index++) {
+                int next = encodeFrame(src[index], da, dp, dl, varint, swap);
+                if (next < 0)
+                    break;
+                dp = next;
+            }
+            dst.position(dp - arrayOffset);
+        } else {
+            long dAddress = getAddress(dst);
+            int dl = dst.limit();
+            for (; index < toIndex; index++) {
+                int next = encodeFrame(src[index], dAddress, dp, dl, varint, swap);
+                if (next < 0)
+                    break;
+                dp = next;
+            }
+            dst.position(dp);
+        }
+        return index - fromIndex;
+    }
+
+    /**
+     * Same as {@link #encodeStrings(String[], int, int, ByteBuffer, boolean)} up to the end of the list, which is
+     * expected to be random access.
+     */
+    public final int encodeStrings(List<String> src, int fromIndex, ByteBuffer dst, boolean varint) {
+        int index = fromIndex;
+        int toIndex = src.size();
+        int dp = dst.position();
+        boolean swap = dst.order() != ByteOrder.nativeOrder();
+        if (dst.hasArray()) {
+            int arrayOffset = dst.arrayOffset();
+            byte[] da = dst.array();
+            dp += arrayOffset;
+            int dl = arrayOffset + dst.limit();
+            for (; index < toIndex; index++) {
+                int next = encodeFrame(src.get(index), da, dp, dl, varint, swap);
+                if (next < 0)
+                    break;
+                dp = next;
+            }
+            dst.position(dp - arrayOffset);
+        } else {
+            long dAddress = getAddress(dst);
+            int dl = dst.limit();
+            for (; index < toIndex; index++) {
+                int next = encodeFrame(src.get(index), dAddress, dp, dl, varint, swap);
+                if (next < 0)
+                    break;
+                dp = next;
+            }
+            dst.position(dp);
+        }
+        return index - fromIndex;
+    }
+
+    /**
+     * The encoded length is not known up front, so room is left for the prefix based on the worst case length and the
+     * encoded bytes are shifted back if the varint turns out shorter. If that does not fit, the frame is tried again
+     * with the varint for the exact length, which may leave just enough room.
+     * 
+     * @return the position after the frame, or -1 if it did not fit/failed to encode
+     */
+    private int encodeFrame(String src, long dAddress, int dp, int dl, boolean varint, boolean swap) {
+        int prefix = varint ? varintSize(maxEncodedLength(src)) : 4;
+        int start = dp + prefix;
+        if (start > dl || encodeValue(src, dAddress, start, dl) != CoderResult.UNDERFLOW) {
+            prefix = varint ? exactVarintSize(src, dl - dp, prefix) : -1;
+            if (prefix < 0)
+                return -1;
+            start = dp + prefix;
+            if (encodeValue(src, dAddress, start, dl) != CoderResult.UNDERFLOW)
+                return -1;
+        }
+        int length = lastDp - start;
+        if (!varint) {
+            UnsafeAccess.UNSAFE.putInt(dAddress + dp, swap ? Integer.reverseBytes(length) : length);
+            return lastDp;
+        }
+        int actual = varintSize(length);
+        if (actual != prefix)
+            // Unsafe.copyMemory copes with overlapping ranges
+            UnsafeAccess.UNSAFE.copyMemory(dAddress + start, dAddress + dp + actual, length);
+        while ((length & ~0x7F) != 0) {
+            putByte(dAddress, dp++, (byte) ((length & 0x7F) | 0x80));
+            length >>>= 7;
+        }
+        putByte(dAddress, dp++, (byte) length);
+        return lastDp - prefix + actual;
+    }
+
+    private int encodeFrame(String src, byte[] da, int dp, int dl, boolean varint, boolean swap) {
+        int prefix = varint ? varintSize(maxEncodedLength(src)) : 4;
+        int start = dp + prefix;
+        if (start > dl || encodeValue(src, da, start, dl) != CoderResult.UNDERFLOW) {
+            prefix = varint ? exactVarintSize(src, dl - dp, prefix) : -1;
+            if (prefix < 0)
+                return -1;
+            start = dp + prefix;
+            if (encodeValue(src, da, start, dl) != CoderResult.UNDERFLOW)
+                return -1;
+        }
+        int length = lastDp - start;
+        if (!varint) {
+            if (swap)
+                length = Integer.reverseBytes(length);
+            UnsafeAccess.UNSAFE.putInt(da, BYTE_ARRAY_BASE + dp, length);
+            return lastDp;
+        }
+        int actual = varintSize(length);
+        if (actual != prefix)
+            System.arraycopy(da, start, da, dp + actual, length);
+        while ((length & ~0x7F) != 0) {
+            da[dp++] = (byte) ((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        da[dp] = (byte) length;
+        return lastDp - prefix + actual;
+    }
+
+    private static int maxEncodedLength(String src) {
+        // LATIN1 chars take up to 2 bytes, UTF16 chars up to 3 (a surrogate pair is 4 bytes for 2 chars)
+        return src.length() * (UnsafeString.isLatin1(src) ? 2 : 3);
+    }
+
+    /**
+     * @return the varint size for the exact encoded length if it is shorter than the worst case one and the frame fits
+     *         the room with it, -1 otherwise
+     */
+    private static int exactVarintSize(String src, int room, int worstCase) {
+        int length = utf8Length(src);
+        if (length < 0)
+            return -1;
+        int size = varintSize(length);
+        return size < worstCase && length <= room - size ? size : -1;
+    }
+
+    private static int varintSize(int value) {
+        if ((value & (~0 << 7)) == 0)
+            return 1;
+        if ((value & (~0 << 14)) == 0)
+            return 2;
+        if ((value & (~0 << 21)) == 0)
+            return 3;
+        if ((value & (~0 << 28)) == 0)
+            return 4;
+        return 5;
+    }
+
+    /**
+     * Encode the String value (char[] or LATIN1/UTF16 byte[]) without touching the buffer, lastDp is set on success.
+     */
+    private CoderResult encodeValue(String src, long dAddress, int dp, int dl) {
         /*
          * in JDK7 offset is always 0, but earlier versions accomodated substrings pointing back to original array and
          * having a separate offset and length.
@@ -50,20 +350,27 @@ public class CustomUtf8Encoder {
         int spCurr = UnsafeString.getOffset(src);
         int sl = src.length();
 
-        // pluck the chars array out of the String, saving us an array copy
-        CoderResult result = encode(getChars(src), spCurr, sl, getAddress(dst), dp, dl);
-        // only move the position if we fit the whole thing in.
-        if (lastDp != 0)
-            dst.position(lastDp);
-        return result;
+        // pluck the value array out of the String, saving us an array copy
+        if (UnsafeString.isLatin1(src))
+            return encodeLatin1((byte[]) getValue(src), sl, dAddress, dp, dl);
+        else
+            return encode(getValue(src), spCurr, sl, dAddress, dp, dl);
+    }
 
+    private CoderResult encodeValue(String src, byte[] da, int dp, int dl) {
+        int spCurr = UnsafeString.getOffset(src);
+        int sl = src.length();
+        if (UnsafeString.isLatin1(src))
+            return encodeLatin1((byte[]) getValue(src), sl, da, dp, dl);
+        else
+            return encode(getValue(src), spCurr, sl, da, dp, dl);
     }
 
     /**
      * The parameter naming is from the JDK source and I kept it to make diffing easier. The s stands for source, the d
      * for destination. It actually grew on me as I played with the code, but I agree longer names are more readable.
      * 
-     * @param sa source char array
+     * @param sa source char array, or UTF16 byte array on JDK9+
      * @param spCurr the source position starting point
      * @param sl source array length/limit
      * @param dAddress destination address(plucked out of Buffer using Unsafe)
@@ -71,27 +378,38 @@ public class CustomUtf8Encoder {
      * @param dl destination limit
      * @return UNDERFLOW is successful, OVERFLOW/ERROR otherwise
      */
-    private final CoderResult encode(char[] sa, int spCurr, int sl, long dAddress, int dp, int dl) {
+    private final CoderResult encode(Object sa, int spCurr, int sl, long dAddress, int dp, int dl) {
         lastSp = spCurr;
-        int dlASCII = Math.min(sl - lastSp, dl - dp);
+        if (asciiWords)
+            dp = encodeAsciiWords(sa, sl, dAddress, dp, dl);
+        int dlASCII = dp + Math.min(sl - lastSp, dl - dp);
         // handle ascii encoded strings in an optimised loop
-        while (dp < dlASCII && sa[lastSp] < 128)
+        char ch;
+        while (dp < dlASCII && (ch = charAt(sa, lastSp)) < 128) {
             // TODO: could arguably skip this utility and compute the target address directly...
-            putByte(dAddress, dp++, (byte) sa[lastSp++]);
+            putByte(dAddress, dp++, (byte) ch);
+            lastSp++;
+        }
 
         while (lastSp < sl) {
-            int c = sa[lastSp];
+            int c = charAt(sa, lastSp);
             if (c < 128) {
                 if (dp >= dl)
                     return CoderResult.OVERFLOW;
                 putByte(dAddress, dp++, (byte) c);
+                // back to the wide loop for the ascii run following a non-ascii char
+                if (asciiWords) {
+                    ++lastSp;
+                    dp = encodeAsciiWords(sa, sl, dAddress, dp, dl);
+                    continue;
+                }
             } else if (c < 2048) {
                 if (dl - dp < 2)
                     return CoderResult.OVERFLOW;
                 putByte(dAddress, dp++, (byte) (0xC0 | (c >> 6)));
                 putByte(dAddress, dp++, (byte) (0x80 | (c & 0x3F)));
-            } else if (Surrogate.is(c)) {
-                int uc = sgp.parse((char) c, sa, lastSp, sl);
+            } else if (Character.isSurrogate((char) c)) {
+                int uc = sgp.parse((char) c, sa, VALUE_BASE, lastSp, sl);
                 if (uc < 0) {
                     lastDp = dp;
                     return sgp.error();
@@ -116,55 +434,149 @@ public class CustomUtf8Encoder {
         return CoderResult.UNDERFLOW;
     }
 
+    /**
+     * Encode ascii chars 8 and then 4 at a time, stopping short of the first word containing a non-ascii char (or when
+     * there is not enough source/destination left for a whole word). The remainder is left to the per char loops.
+     *
+     * @return the new destination position, lastSp is updated
+     */
+    private int encodeAsciiWords(Object sa, int sl, long dAddress, int dp, int dl) {
+        int sp = lastSp;
+        while (sl - sp >= 8 && dl - dp >= 8) {
+            long offset = VALUE_BASE + ((long) sp << 1);
+            long w1 = UnsafeAccess.UNSAFE.getLong(sa, offset);
+            long w2 = UnsafeAccess.UNSAFE.getLong(sa, offset + 8);
+            if (((w1 | w2) & NON_ASCII_MASK) != 0)
+                break;
+            UnsafeAccess.UNSAFE.putLong(dAddress + dp, (pack(w1) & 0xFFFFFFFFL) | ((long) pack(w2) << 32));
+            sp += 8;
+            dp += 8;
+        }
+        if (sl - sp >= 4 && dl - dp >= 4) {
+            long w = UnsafeAccess.UNSAFE.getLong(sa, VALUE_BASE + ((long) sp << 1));
+            if ((w & NON_ASCII_MASK) == 0) {
+                UnsafeAccess.UNSAFE.putInt(dAddress + dp, pack(w));
+                sp += 4;
+                dp += 4;
+            }
+        }
+        lastSp = sp;
+        return dp;
+    }
+
+    /**
+     * LATIN1 chars are either ascii or encoded as 2 bytes, so the encoded length is known up front and we can copy the
+     * whole lot in one go if there are no high bytes.
+     */
+    private CoderResult encodeLatin1(byte[] sa, int sl, long dAddress, int dp, int dl) {
+        int nonAscii = countNonAscii(sa, sl);
+        if (dl - dp < sl + nonAscii)
+            return CoderResult.OVERFLOW;
+        if (nonAscii == 0) {
+            UnsafeAccess.UNSAFE.copyMemory(sa, BYTE_ARRAY_BASE, null, dAddress + dp, sl);
+            dp += sl;
+        } else {
+            for (int sp = 0; sp < sl; sp++) {
+                int c = sa[sp] & 0xFF;
+                if (c < 128) {
+                    putByte(dAddress, dp++, (byte) c);
+                } else {
+                    putByte(dAddress, dp++, (byte) (0xC0 | (c >> 6)));
+                    putByte(dAddress, dp++, (byte) (0x80 | (c & 0x3F)));
+                }
+            }
+        }
+        lastDp = dp;
+        return CoderResult.UNDERFLOW;
+    }
+
+    private CoderResult encodeLatin1(byte[] sa, int sl, byte[] da, int dp, int dl) {
+        int nonAscii = countNonAscii(sa, sl);
+        if (dl - dp < sl + nonAscii)
+            return CoderResult.OVERFLOW;
+        if (nonAscii == 0) {
+            System.arraycopy(sa, 0, da, dp, sl);
+            dp += sl;
+        } else {
+            for (int sp = 0; sp < sl; sp++) {
+                int c = sa[sp] & 0xFF;
+                if (c < 128) {
+                    da[dp++] = (byte) c;
+                } else {
+                    da[dp++] = (byte) (0xC0 | (c >> 6));
+                    da[dp++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+        lastDp = dp;
+        return CoderResult.UNDERFLOW;
+    }
+
+    /**
+     * Counts the high bytes 8 at a time, each is one extra byte when encoded.
+     */
+    private static int countNonAscii(byte[] sa, int sl) {
+        int count = 0;
+        int sp = 0;
+        for (; sl - sp >= 8; sp += 8)
+            count += Long.bitCount(UnsafeAccess.UNSAFE.getLong(sa, BYTE_ARRAY_BASE + sp) & NON_ASCII_LATIN1_MASK);
+        for (; sp < sl; sp++)
+            count += (sa[sp] >>> 31);
+        return count;
+    }
+
+
     public CoderResult encodeStringToHeap(String src, ByteBuffer dst) {
         lastDp = 0;
         int arrayOffset = dst.arrayOffset();
         int dp = arrayOffset + dst.position();
         int dl = arrayOffset + dst.limit();
 
-        int spCurr = UnsafeString.getOffset(src);
-        int sl = src.length();
-
-        try {
-            CoderResult result = encode(UnsafeString.getChars(src), spCurr, sl, dst.array(), dp, dl);
-            dst.position(lastDp - arrayOffset);
+        CoderResult result = encodeValue(src, dst.array(), dp, dl);
+        if (result.isOverflow())
             return result;
-        } catch (ArrayIndexOutOfBoundsException e) {
-            return CoderResult.OVERFLOW;
-        }
-
+        dst.position(lastDp - arrayOffset);
+        return result;
     }
 
-    private CoderResult encode(char[] sa, int spCurr, int sl, byte[] da, int dp, int dl) {
+    private CoderResult encode(Object sa, int spCurr, int sl, byte[] da, int dp, int dl) {
         lastSp = spCurr;
         int dlASCII = dp + Math.min(sl - lastSp, dl - dp);
         // handle ascii encoded strings in an optimised loop
-        while (dp < dlASCII && sa[lastSp] < 128)
-            da[dp++] = (byte) sa[lastSp++];
+        char ch;
+        while (dp < dlASCII && (ch = charAt(sa, lastSp)) < 128) {
+            da[dp++] = (byte) ch;
+            lastSp++;
+        }
 
-        /*
-         * we are counting on the JVM array boundary checks to throw an exception rather then checking boundaries
-         * ourselves... no nice, and potentially not that much of a performance enhancement.
-         */
+        // bounded by dl rather than the array length, the array may extend beyond the buffer limit
         while (lastSp < sl) {
-            int c = sa[lastSp];
+            int c = charAt(sa, lastSp);
             if (c < 128) {
+                if (dp >= dl)
+                    return CoderResult.OVERFLOW;
                 da[dp++] = (byte) c;
             } else if (c < 2048) {
+                if (dl - dp < 2)
+                    return CoderResult.OVERFLOW;
                 da[dp++] = (byte) (0xC0 | (c >> 6));
                 da[dp++] = (byte) (0x80 | (c & 0x3F));
-            } else if (Surrogate.is(c)) {
-                int uc = sgp.parse((char) c, sa, lastSp, sl);
+            } else if (Character.isSurrogate((char) c)) {
+                int uc = sgp.parse((char) c, sa, VALUE_BASE, lastSp, sl);
                 if (uc < 0) {
                     lastDp = dp;
                     return sgp.error();
                 }
+                if (dl - dp < 4)
+                    return CoderResult.OVERFLOW;
                 da[dp++] = (byte) (0xF0 | uc >> 18);
                 da[dp++] = (byte) (0x80 | uc >> 12 & 0x3F);
                 da[dp++] = (byte) (0x80 | uc >> 6 & 0x3F);
                 da[dp++] = (byte) (0x80 | uc & 0x3F);
                 ++lastSp;
             } else {
+                if (dl - dp < 3)
+                    return CoderResult.OVERFLOW;
                 da[dp++] = (byte) (0xE0 | c >> 12);
                 da[dp++] = (byte) (0x80 | c >> 6 & 0x3F);
                 da[dp++] = (byte) (0x80 | c & 0x3F);
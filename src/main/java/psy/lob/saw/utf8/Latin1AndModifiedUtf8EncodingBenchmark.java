@@ -0,0 +1,153 @@
+package psy.lob.saw.utf8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import psy.lob.saw.AllocationProfiler;
+
+/**
+ * Encoding each string of a {@link Utf8Corpus} into a heap or direct buffer as Modified UTF-8 (writeUTF framing),
+ * ISO-8859-1 or US-ASCII: the {@link ModifiedUtf8Encoder}/{@link Latin1Encoder} against the JDK way of doing each
+ * (DataOutputStream.writeUTF and String.getBytes(Charset), copied into the buffer) and a CharsetEncoder. There is no
+ * Modified UTF-8 Charset, so the CharsetEncoder case for it is the UTF-8 one plus the length prefix, which only
+ * differs in the encoding of U+0000 and supplementary chars. The corpus is either ascii for all, or the widest one
+ * each charset can encode (mixed, latin1 and ascii respectively). Run main to get gc.alloc.rate.norm alongside.
+ */
+@State(Scope.Thread)
+public class Latin1AndModifiedUtf8EncodingBenchmark {
+	@Param({ "modified-utf8", "iso-8859-1", "us-ascii" })
+	String charset;
+
+	@Param({ "ascii", "widest" })
+	String corpus;
+
+	@Param({ "short", "long" })
+	String lengths;
+
+	@Param({ "false", "true" })
+	boolean directBuffer;
+
+	private List<String> strings;
+	private boolean modified;
+	private Latin1Encoder latin1Encoder;
+	private Charset jdkCharset;
+	private CharsetEncoder charsetEncoder;
+	private char[] chars;
+	private CharBuffer charBuffer;
+	private ExposedByteArrayOutputStream bytesOut;
+	private DataOutputStream dataOut;
+	private ByteBuffer buffy;
+
+	/**
+	 * Lets the writeUTF output be copied to the buffer without the extra copy toByteArray makes.
+	 */
+	static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+		ExposedByteArrayOutputStream(int size) {
+			super(size);
+		}
+
+		void copyTo(ByteBuffer dst) {
+			dst.put(buf, 0, count);
+		}
+	}
+
+	@Setup
+	public void init() {
+		modified = "modified-utf8".equals(charset);
+		if (modified) {
+			jdkCharset = Charset.forName("UTF-8");
+		} else {
+			jdkCharset = Charset.forName(charset);
+			latin1Encoder = "us-ascii".equals(charset) ? Latin1Encoder.US_ASCII : Latin1Encoder.ISO_8859_1;
+		}
+		String widest = modified ? "mixed" : "iso-8859-1".equals(charset) ? "latin1" : "ascii";
+		strings = Utf8Corpus.load("ascii".equals(corpus) ? "ascii" : widest, lengths);
+		charsetEncoder = jdkCharset.newEncoder();
+		chars = new char[4096];
+		charBuffer = CharBuffer.wrap(chars);
+		bytesOut = new ExposedByteArrayOutputStream(4096);
+		dataOut = new DataOutputStream(bytesOut);
+		buffy = directBuffer ? ByteBuffer.allocateDirect(4096) : ByteBuffer.allocate(4096);
+	}
+
+	@Benchmark
+	public int customEncoder() {
+		int countBytes = 0;
+		for (int stringIndex = 0; stringIndex < strings.size(); stringIndex++) {
+			if (modified) {
+				ModifiedUtf8Encoder.encodeString(strings.get(stringIndex), buffy);
+			} else {
+				latin1Encoder.encodeString(strings.get(stringIndex), buffy);
+			}
+			countBytes += buffy.position();
+			buffy.clear();
+		}
+		return countBytes;
+	}
+
+	/**
+	 * DataOutputStream.writeUTF for Modified UTF-8, String.getBytes(Charset) otherwise.
+	 */
+	@Benchmark
+	public int jdk() throws IOException {
+		int countBytes = 0;
+		for (int stringIndex = 0; stringIndex < strings.size(); stringIndex++) {
+			if (modified) {
+				bytesOut.reset();
+				dataOut.writeUTF(strings.get(stringIndex));
+				bytesOut.copyTo(buffy);
+			} else {
+				buffy.put(strings.get(stringIndex).getBytes(jdkCharset));
+			}
+			countBytes += buffy.position();
+			buffy.clear();
+		}
+		return countBytes;
+	}
+
+	@Benchmark
+	public int charsetEncoder() {
+		int countBytes = 0;
+		for (int stringIndex = 0; stringIndex < strings.size(); stringIndex++) {
+			String source = strings.get(stringIndex);
+			int length = source.length();
+			source.getChars(0, length, chars, 0);
+			charBuffer.position(0);
+			charBuffer.limit(length);
+			charsetEncoder.reset();
+			if (modified) {
+				// leave room for the length and fill it in after
+				buffy.position(2);
+				charsetEncoder.encode(charBuffer, buffy, true);
+				buffy.putShort(0, (short) (buffy.position() - 2));
+			} else {
+				charsetEncoder.encode(charBuffer, buffy, true);
+			}
+			countBytes += buffy.position();
+			buffy.clear();
+		}
+		return countBytes;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options opt = new OptionsBuilder().include(Latin1AndModifiedUtf8EncodingBenchmark.class.getSimpleName())
+		        .addProfiler(AllocationProfiler.class).build();
+		new Runner(opt).run();
+	}
+}
@@ -0,0 +1,130 @@
+package psy.lob.saw.utf8;
+
+import static psy.lob.saw.utf8.StringChars.charAt;
+import static psy.lob.saw.utf8.StringChars.pack;
+import static psy.lob.saw.utf8.UnsafeDirectByteBuffer.getAddress;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.CoderResult;
+
+import psy.lob.saw.util.UnsafeAccess;
+
+/**
+ * Encodes strings as ISO-8859-1 or strict US-ASCII, one byte per char. On JDK9+ a LATIN1 String value is already the
+ * ISO-8859-1 bytes and is copied as is (a word at a time with a check for high bytes in the ASCII case), chars are
+ * narrowed 4 at a time. Heap and direct buffers are both written with Unsafe, as in {@link StatelessUtf8Encoder}. The
+ * two instances have no mutable state and can be shared between threads.
+ *
+ * @author nitsan
+ */
+public final class Latin1Encoder {
+    public static final Latin1Encoder ISO_8859_1 = new Latin1Encoder(0xFF);
+    public static final Latin1Encoder US_ASCII = new Latin1Encoder(0x7F);
+
+    private static final long BYTE_ARRAY_BASE = UnsafeAccess.UNSAFE.arrayBaseOffset(byte[].class);
+    private static final long CHAR_ARRAY_BASE = UnsafeAccess.UNSAFE.arrayBaseOffset(char[].class);
+    private static final long VALUE_BASE = UnsafeString.hasByteValue() ? BYTE_ARRAY_BASE : CHAR_ARRAY_BASE;
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+    // same results as a CharsetEncoder set to REPORT
+    private static final CoderResult UNMAPPABLE = CoderResult.unmappableForLength(1);
+    private static final CoderResult UNMAPPABLE_PAIR = CoderResult.unmappableForLength(2);
+    private static final CoderResult MALFORMED = CoderResult.malformedForLength(1);
+
+    private final int maxChar;
+    // bits above maxChar in each of 8 byte lanes/4 char lanes
+    private final long bytesMask;
+    private final long charsMask;
+
+    private Latin1Encoder(int maxChar) {
+        this.maxChar = maxChar;
+        this.bytesMask = maxChar == 0xFF ? 0 : 0x8080808080808080L;
+        this.charsMask = maxChar == 0xFF ? 0xFF00FF00FF00FF00L : 0xFF80FF80FF80FF80L;
+    }
+
+    /**
+     * Same contract as {@link CustomUtf8Encoder#encodeString(String, ByteBuffer)}: UNDERFLOW on success and the
+     * position moved past the string, OVERFLOW if it does not fit or unmappable/malformed (as a CharsetEncoder would
+     * report) for the first char outside the charset, in which case the position is not moved.
+     */
+    public CoderResult encodeString(String src, ByteBuffer dst) {
+        int sl = src.length();
+        int dp = dst.position();
+        if (dst.limit() - dp < sl)
+            return CoderResult.OVERFLOW;
+        Object da;
+        long daBase;
+        if (dst.hasArray()) {
+            da = dst.array();
+            daBase = BYTE_ARRAY_BASE + dst.arrayOffset() + dp;
+        } else {
+            da = null;
+            daBase = getAddress(dst) + dp;
+        }
+        CoderResult result;
+        if (UnsafeString.isLatin1(src)) {
+            result = encodeLatin1((byte[]) UnsafeString.getValue(src), sl, da, daBase);
+        } else {
+            int sp = UnsafeString.getOffset(src);
+            result = encodeChars(UnsafeString.getValue(src), sp, sp + sl, da, daBase);
+        }
+        if (result == CoderResult.UNDERFLOW)
+            dst.position(dp + sl);
+        return result;
+    }
+
+    /**
+     * @param daBase the destination address/array offset for the first char
+     */
+    private CoderResult encodeLatin1(byte[] sa, int sl, Object da, long daBase) {
+        if (bytesMask == 0) {
+            UnsafeAccess.UNSAFE.copyMemory(sa, BYTE_ARRAY_BASE, da, daBase, sl);
+            return CoderResult.UNDERFLOW;
+        }
+        int sp = 0;
+        for (; sl - sp >= 8; sp += 8) {
+            long w = UnsafeAccess.UNSAFE.getLong(sa, BYTE_ARRAY_BASE + sp);
+            if ((w & bytesMask) != 0)
+                return UNMAPPABLE;
+            UnsafeAccess.UNSAFE.putLong(da, daBase + sp, w);
+        }
+        for (; sp < sl; sp++) {
+            byte b = sa[sp];
+            if ((b & 0xFF) > maxChar)
+                return UNMAPPABLE;
+            UnsafeAccess.UNSAFE.putByte(da, daBase + sp, b);
+        }
+        return CoderResult.UNDERFLOW;
+    }
+
+    /**
+     * @param daBase the destination address/array offset for the char at sp
+     */
+    private CoderResult encodeChars(Object sa, int sp, int sl, Object da, long daBase) {
+        daBase -= sp;
+        if (LITTLE_ENDIAN) {
+            for (; sl - sp >= 4; sp += 4) {
+                long w = UnsafeAccess.UNSAFE.getLong(sa, VALUE_BASE + ((long) sp << 1));
+                if ((w & charsMask) != 0)
+                    break;
+                UnsafeAccess.UNSAFE.putInt(da, daBase + sp, pack(w));
+            }
+        }
+        for (; sp < sl; sp++) {
+            char c = charAt(sa, sp);
+            if (c > maxChar)
+                return unmappable(c, sa, sp, sl);
+            UnsafeAccess.UNSAFE.putByte(da, daBase + sp, (byte) c);
+        }
+        return CoderResult.UNDERFLOW;
+    }
+
+    private static CoderResult unmappable(char c, Object sa, int sp, int sl) {
+        if (!Character.isSurrogate(c))
+            return UNMAPPABLE;
+        if (Character.isHighSurrogate(c) && sl - sp >= 2 && Character.isLowSurrogate(charAt(sa, sp + 1)))
+            return UNMAPPABLE_PAIR;
+        return MALFORMED;
+    }
+
+}
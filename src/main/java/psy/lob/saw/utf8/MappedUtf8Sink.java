@@ -0,0 +1,156 @@
+package psy.lob.saw.utf8;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.CoderResult;
+
+/**
+ * Appends UTF-8 encoded strings to a file by encoding them straight into a mapped region of it, through the
+ * {@link CustomUtf8Encoder} direct buffer path. There is no intermediate buffer to copy from and no write call, the
+ * OS picks up the dirty pages. When a string does not fit in what is left of the region the region is unmapped (see
+ * {@link UnsafeDirectByteBuffer#free(java.nio.ByteBuffer)}) and the next one is mapped from where it stopped, so
+ * strings are never split between regions unless they are longer than a region to begin with.<br>
+ * Mapping extends the file to the end of the region, the file is truncated to the written length on close. A process
+ * which dies before closing leaves zeros at the end of the file.<br>
+ * Not thread safe.
+ *
+ * @author nitsan
+ */
+public class MappedUtf8Sink implements Closeable {
+    public enum ForcePolicy {
+        /** never force, the pages are written when the OS gets round to it (they still survive a process crash) */
+        NEVER,
+        /** force on {@link MappedUtf8Sink#flush()} and close */
+        ON_FLUSH,
+        /** force each region before it is unmapped, as well as on flush and close */
+        ON_ROLL
+    }
+
+    private static final byte NEW_LINE = '\n';
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int regionSize;
+    private final ForcePolicy forcePolicy;
+    private final CustomUtf8Encoder encoder = new CustomUtf8Encoder();
+    // for strings longer than a region, created on first use
+    private StreamingUtf8Encoder streamingEncoder;
+    private MappedByteBuffer region;
+    private long regionStart;
+
+    /**
+     * Opens the file for appending, creating it if needed.
+     */
+    public MappedUtf8Sink(File file, int regionSize, ForcePolicy forcePolicy) throws IOException {
+        // a region must fit any encoded char, or a string longer than one would never make progress
+        if (regionSize < 4)
+            throw new IllegalArgumentException("regionSize < 4: " + regionSize);
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        this.regionSize = regionSize;
+        this.forcePolicy = forcePolicy;
+        map(this.file.length());
+    }
+
+    /**
+     * @throws java.nio.charset.CharacterCodingException if the string has lone surrogates, in which case nothing is
+     *             written unless the string is longer than a region
+     */
+    public void write(String src) throws IOException {
+        int start = region.position();
+        CoderResult result = encoder.encodeString(src, region);
+        if (result.isUnderflow())
+            return;
+        if (result.isOverflow()) {
+            writeOverflow(src);
+        } else {
+            // the encoder leaves the position at the error
+            region.position(start);
+            result.throwException();
+        }
+    }
+
+    public void writeLine(String src) throws IOException {
+        write(src);
+        if (!region.hasRemaining())
+            roll();
+        region.put(NEW_LINE);
+    }
+
+    private void writeOverflow(String src) throws IOException {
+        CoderResult result;
+        if (region.position() != 0) {
+            roll();
+            result = encoder.encodeString(src, region);
+            if (result.isUnderflow())
+                return;
+            if (result.isError()) {
+                region.position(0);
+                result.throwException();
+            }
+        }
+        // longer than a region, spread it over as many as it takes
+        if (streamingEncoder == null)
+            streamingEncoder = new StreamingUtf8Encoder();
+        streamingEncoder.reset(src);
+        while ((result = streamingEncoder.encode(region)).isOverflow()) {
+            // the region was empty and nothing fit, rolling again would map the same offset forever
+            if (region.position() == 0)
+                throw new IllegalStateException("no progress encoding into an empty region at " + regionStart);
+            roll();
+        }
+        if (result.isError())
+            result.throwException();
+    }
+
+    /**
+     * @return the file length once closed
+     */
+    public long position() {
+        return regionStart + region.position();
+    }
+
+    /**
+     * Forces the current region to storage, unless the policy is NEVER.
+     */
+    public void flush() {
+        if (forcePolicy != ForcePolicy.NEVER)
+            region.force();
+    }
+
+    /**
+     * Forces the current region to storage whatever the policy.
+     */
+    public void force() {
+        region.force();
+    }
+
+    public void close() throws IOException {
+        long length = position();
+        flush();
+        UnsafeDirectByteBuffer.free(region);
+        region = null;
+        channel.truncate(length);
+        file.close();
+    }
+
+    private void roll() throws IOException {
+        long next = position();
+        if (forcePolicy == ForcePolicy.ON_ROLL)
+            region.force();
+        UnsafeDirectByteBuffer.free(region);
+        // don't leave an unmapped region behind if the next map fails
+        region = null;
+        map(next);
+    }
+
+    private void map(long start) throws IOException {
+        region = channel.map(MapMode.READ_WRITE, start, regionSize);
+        regionStart = start;
+    }
+}
@@ -0,0 +1,230 @@
+package psy.lob.saw.utf8;
+
+import static psy.lob.saw.utf8.StringChars.charAt;
+import static psy.lob.saw.utf8.StringChars.pack;
+import static psy.lob.saw.utf8.UnsafeDirectByteBuffer.getAddress;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.CoderResult;
+
+import psy.lob.saw.util.UnsafeAccess;
+
+/**
+ * Encodes strings in the Modified UTF-8 framing of DataOutput.writeUTF: a 2 byte big endian length followed by the
+ * chars, where U+0000 is encoded as 2 bytes and surrogates are encoded one char at a time as 3 bytes each. The bytes
+ * are the same as writeUTF writes, and can be read back with DataInput.readUTF, but the String value is read in place
+ * and nothing is allocated.
+ * <p>
+ * When the buffer has room for the worst case (3 bytes a char) the chars are encoded straight in, 8 or 4 at a time
+ * over runs of U+0001-U+007F, and the length is filled in after. Otherwise the encoded length is counted first, so a
+ * frame which does not fit is never written. Heap and direct buffers are both written with Unsafe, as in
+ * {@link StatelessUtf8Encoder}. There is no instance state.
+ *
+ * @author nitsan
+ */
+public final class ModifiedUtf8Encoder {
+    /**
+     * The most encoded bytes the 2 byte length prefix can describe.
+     */
+    public static final int MAX_LENGTH = 65535;
+
+    private static final long BYTE_ARRAY_BASE = UnsafeAccess.UNSAFE.arrayBaseOffset(byte[].class);
+    private static final long CHAR_ARRAY_BASE = UnsafeAccess.UNSAFE.arrayBaseOffset(char[].class);
+    private static final long VALUE_BASE = UnsafeString.hasByteValue() ? BYTE_ARRAY_BASE : CHAR_ARRAY_BASE;
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+    // per byte/char lane masks for telling 1 byte chars (U+0001-U+007F) apart
+    private static final long BYTE_HIGH_BITS = 0x8080808080808080L;
+    private static final long BYTE_LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long CHAR_LOW_BITS = 0x7FFF7FFF7FFF7FFFL;
+    private static final long CHAR_NON_ASCII_BITS = 0xFF80FF80FF80FF80L;
+    // what writeUTF reports as a UTFDataFormatException
+    private static final CoderResult TOO_LONG = CoderResult.malformedForLength(1);
+
+    private ModifiedUtf8Encoder() {
+    }
+
+    /**
+     * Writes the string as DataOutput.writeUTF would. Same contract as
+     * {@link CustomUtf8Encoder#encodeString(String, ByteBuffer)}: UNDERFLOW on success and the position moved past the
+     * frame, OVERFLOW if the frame does not fit and the position is not moved. An error result is returned, and the
+     * position not moved, if the string encodes to more than {@link #MAX_LENGTH} bytes, where writeUTF would throw a
+     * UTFDataFormatException.
+     */
+    public static CoderResult encodeString(String src, ByteBuffer dst) {
+        int sl = src.length();
+        // every char is at least 1 byte
+        if (sl > MAX_LENGTH)
+            return TOO_LONG;
+        int dp = dst.position();
+        int room = dst.limit() - dp - 2;
+        Object da;
+        long daBase;
+        if (dst.hasArray()) {
+            da = dst.array();
+            daBase = BYTE_ARRAY_BASE + dst.arrayOffset();
+        } else {
+            da = null;
+            daBase = getAddress(dst);
+        }
+        int length;
+        if (room >= maxEncodedLength(src)) {
+            length = encode(src, da, daBase, dp + 2) - (dp + 2);
+            if (length > MAX_LENGTH)
+                return TOO_LONG;
+        } else {
+            length = encodedLength(src);
+            if (length < 0)
+                return TOO_LONG;
+            if (room < length)
+                return CoderResult.OVERFLOW;
+            encode(src, da, daBase, dp + 2);
+        }
+        putByte(da, daBase, dp, (byte) (length >>> 8));
+        putByte(da, daBase, dp + 1, (byte) length);
+        dst.position(dp + 2 + length);
+        return CoderResult.UNDERFLOW;
+    }
+
+    private static int maxEncodedLength(String src) {
+        // LATIN1 chars take up to 2 bytes, any other char up to 3
+        return src.length() * (UnsafeString.isLatin1(src) ? 2 : 3);
+    }
+
+    /**
+     * @return the number of bytes the string encodes to, not counting the 2 byte prefix, or -1 if that is more than
+     *         {@link #MAX_LENGTH}
+     */
+    public static int encodedLength(String src) {
+        int sl = src.length();
+        // every char is at least 1 byte
+        if (sl > MAX_LENGTH)
+            return -1;
+        int length;
+        if (UnsafeString.isLatin1(src)) {
+            length = latin1Length((byte[]) UnsafeString.getValue(src), sl);
+        } else {
+            int sp = UnsafeString.getOffset(src);
+            length = charsLength(UnsafeString.getValue(src), sp, sp + sl);
+        }
+        return length > MAX_LENGTH ? -1 : length;
+    }
+
+    private static int latin1Length(byte[] sa, int sl) {
+        int length = sl;
+        int sp = 0;
+        for (; sl - sp >= 8; sp += 8)
+            length += Long.bitCount(notOneByte(UnsafeAccess.UNSAFE.getLong(sa, BYTE_ARRAY_BASE + sp)));
+        for (; sp < sl; sp++) {
+            if (sa[sp] <= 0)
+                length++;
+        }
+        return length;
+    }
+
+    private static int charsLength(Object sa, int sp, int sl) {
+        int length = sl - sp;
+        while (sp < sl) {
+            while (sl - sp >= 4 && allOneByte(UnsafeAccess.UNSAFE.getLong(sa, VALUE_BASE + ((long) sp << 1))))
+                sp += 4;
+            if (sp == sl)
+                break;
+            char c = charAt(sa, sp++);
+            if (c >= 0x800)
+                length += 2;
+            else if (c >= 0x80 || c == 0)
+                length += 1;
+        }
+        return length;
+    }
+
+    /**
+     * @return the high bit of every byte lane which is U+0000 or above U+007F
+     */
+    private static long notOneByte(long w) {
+        // a lane's high bit is set in the sum if it has any of the low 7 bits set, so the complement flags zero lanes
+        return (w | ~(((w & BYTE_LOW_BITS) + BYTE_LOW_BITS) | BYTE_LOW_BITS)) & BYTE_HIGH_BITS;
+    }
+
+    /**
+     * @return true if all 4 char lanes are in U+0001-U+007F
+     */
+    private static boolean allOneByte(long w) {
+        long zeroChars = ~(((w & CHAR_LOW_BITS) + CHAR_LOW_BITS) | w | CHAR_LOW_BITS);
+        return ((w & CHAR_NON_ASCII_BITS) | zeroChars) == 0;
+    }
+
+    /**
+     * @return the destination position after the encoded chars
+     */
+    private static int encode(String src, Object da, long daBase, int dp) {
+        int sl = src.length();
+        if (UnsafeString.isLatin1(src))
+            return encodeLatin1((byte[]) UnsafeString.getValue(src), sl, da, daBase, dp);
+        int sp = UnsafeString.getOffset(src);
+        return encodeChars(UnsafeString.getValue(src), sp, sp + sl, da, daBase, dp);
+    }
+
+    private static int encodeLatin1(byte[] sa, int sl, Object da, long daBase, int dp) {
+        int sp = 0;
+        while (sp < sl) {
+            long w;
+            while (sl - sp >= 8 && notOneByte(w = UnsafeAccess.UNSAFE.getLong(sa, BYTE_ARRAY_BASE + sp)) == 0) {
+                UnsafeAccess.UNSAFE.putLong(da, daBase + dp, w);
+                sp += 8;
+                dp += 8;
+            }
+            if (sp == sl)
+                break;
+            int c = sa[sp++] & 0xFF;
+            if (c != 0 && c < 0x80) {
+                putByte(da, daBase, dp++, (byte) c);
+            } else {
+                putByte(da, daBase, dp++, (byte) (0xC0 | (c >> 6)));
+                putByte(da, daBase, dp++, (byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        return dp;
+    }
+
+    private static int encodeChars(Object sa, int sp, int sl, Object da, long daBase, int dp) {
+        while (sp < sl) {
+            if (LITTLE_ENDIAN) {
+                for (; sl - sp >= 8; sp += 8, dp += 8) {
+                    long offset = VALUE_BASE + ((long) sp << 1);
+                    long w1 = UnsafeAccess.UNSAFE.getLong(sa, offset);
+                    long w2 = UnsafeAccess.UNSAFE.getLong(sa, offset + 8);
+                    if (!allOneByte(w1) || !allOneByte(w2))
+                        break;
+                    UnsafeAccess.UNSAFE.putLong(da, daBase + dp, (pack(w1) & 0xFFFFFFFFL) | ((long) pack(w2) << 32));
+                }
+                long w;
+                if (sl - sp >= 4 && allOneByte(w = UnsafeAccess.UNSAFE.getLong(sa, VALUE_BASE + ((long) sp << 1)))) {
+                    UnsafeAccess.UNSAFE.putInt(da, daBase + dp, pack(w));
+                    sp += 4;
+                    dp += 4;
+                }
+                if (sp == sl)
+                    break;
+            }
+            char c = charAt(sa, sp++);
+            if (c != 0 && c < 0x80) {
+                putByte(da, daBase, dp++, (byte) c);
+            } else if (c < 0x800) {
+                putByte(da, daBase, dp++, (byte) (0xC0 | (c >> 6)));
+                putByte(da, daBase, dp++, (byte) (0x80 | (c & 0x3F)));
+            } else {
+                // surrogates included, each is encoded on its own
+                putByte(da, daBase, dp++, (byte) (0xE0 | c >> 12));
+                putByte(da, daBase, dp++, (byte) (0x80 | c >> 6 & 0x3F));
+                putByte(da, daBase, dp++, (byte) (0x80 | c & 0x3F));
+            }
+        }
+        return dp;
+    }
+
+
+    private static void putByte(Object da, long daBase, int dp, byte b) {
+        UnsafeAccess.UNSAFE.putByte(da, daBase + dp, b);
+    }
+}
@@ -0,0 +1,199 @@
+package psy.lob.saw.utf8;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import psy.lob.saw.AllocationProfiler;
+
+/**
+ * Formatting a batch of longs and doubles into a heap or direct buffer with {@link AsciiNumbers} against
+ * Long.toString/Double.toString encoded by the {@link CustomUtf8Encoder}, and parsing them back against
+ * Long.parseLong/Double.parseDouble of a String made from the bytes. Small values are counters and prices (2 decimal
+ * places), wide ones are longs of any magnitude and doubles with full precision, which AsciiNumbers only parses on
+ * the slow path. Run main to get gc.alloc.rate.norm alongside.
+ */
+@State(Scope.Thread)
+public class NumberFormattingBenchmark {
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final int COUNT = 1024;
+
+	@Param({ "small", "wide" })
+	String values;
+
+	@Param({ "false", "true" })
+	boolean directBuffer;
+
+	private long[] longs;
+	private double[] doubles;
+	private CustomUtf8Encoder encoder;
+	private ByteBuffer buffy;
+
+	// the values as text, back to back, for the parsers
+	private ByteBuffer longText;
+	private int[] longOffsets;
+	private int[] longLengths;
+	private ByteBuffer doubleText;
+	private int[] doubleOffsets;
+	private int[] doubleLengths;
+	private byte[] scratch;
+
+	@Setup
+	public void init() {
+		Random random = new Random(Utf8Corpus.DEFAULT_SEED);
+		boolean small = "small".equals(values);
+		longs = new long[COUNT];
+		doubles = new double[COUNT];
+		for (int i = 0; i < COUNT; i++) {
+			if (small) {
+				longs[i] = random.nextInt(100000);
+				doubles[i] = random.nextInt(10000000) / 100.0;
+			} else {
+				longs[i] = random.nextLong() >> random.nextInt(64);
+				doubles[i] = random.nextDouble() * Math.pow(10, random.nextInt(16) - 5);
+			}
+		}
+		encoder = new CustomUtf8Encoder();
+		buffy = allocate(4096);
+		longText = allocate(COUNT * AsciiNumbers.MAX_LONG_LENGTH);
+		longOffsets = new int[COUNT];
+		longLengths = new int[COUNT];
+		doubleText = allocate(COUNT * AsciiNumbers.MAX_DOUBLE_LENGTH);
+		doubleOffsets = new int[COUNT];
+		doubleLengths = new int[COUNT];
+		for (int i = 0; i < COUNT; i++) {
+			byte[] text = Long.toString(longs[i]).getBytes(ISO_8859_1);
+			longOffsets[i] = longText.position();
+			longLengths[i] = text.length;
+			longText.put(text);
+			text = Double.toString(doubles[i]).getBytes(ISO_8859_1);
+			doubleOffsets[i] = doubleText.position();
+			doubleLengths[i] = text.length;
+			doubleText.put(text);
+		}
+		scratch = new byte[64];
+	}
+
+	private ByteBuffer allocate(int capacity) {
+		return directBuffer ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	@Benchmark
+	public int formatLong() {
+		int countBytes = 0;
+		for (int i = 0; i < COUNT; i++) {
+			AsciiNumbers.encodeLong(longs[i], buffy);
+			countBytes += buffy.position();
+			buffy.clear();
+		}
+		return countBytes;
+	}
+
+	@Benchmark
+	public int longToString() {
+		int countBytes = 0;
+		for (int i = 0; i < COUNT; i++) {
+			encoder.encodeString(Long.toString(longs[i]), buffy);
+			countBytes += buffy.position();
+			buffy.clear();
+		}
+		return countBytes;
+	}
+
+	@Benchmark
+	public int formatDouble() {
+		int countBytes = 0;
+		for (int i = 0; i < COUNT; i++) {
+			AsciiNumbers.encodeDouble(doubles[i], buffy);
+			countBytes += buffy.position();
+			buffy.clear();
+		}
+		return countBytes;
+	}
+
+	@Benchmark
+	public int doubleToString() {
+		int countBytes = 0;
+		for (int i = 0; i < COUNT; i++) {
+			encoder.encodeString(Double.toString(doubles[i]), buffy);
+			countBytes += buffy.position();
+			buffy.clear();
+		}
+		return countBytes;
+	}
+
+	@Benchmark
+	public long parseLong() {
+		long sum = 0;
+		for (int i = 0; i < COUNT; i++) {
+			if (directBuffer) {
+				sum += AsciiNumbers.parseLong(UnsafeDirectByteBuffer.getAddress(longText) + longOffsets[i],
+				        longLengths[i]);
+			} else {
+				sum += AsciiNumbers.parseLong(longText.array(), longOffsets[i], longLengths[i]);
+			}
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long longParseLong() {
+		long sum = 0;
+		for (int i = 0; i < COUNT; i++) {
+			sum += Long.parseLong(toString(longText, longOffsets[i], longLengths[i]));
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double parseDouble() {
+		double sum = 0;
+		for (int i = 0; i < COUNT; i++) {
+			if (directBuffer) {
+				sum += AsciiNumbers.parseDouble(UnsafeDirectByteBuffer.getAddress(doubleText) + doubleOffsets[i],
+				        doubleLengths[i]);
+			} else {
+				sum += AsciiNumbers.parseDouble(doubleText.array(), doubleOffsets[i], doubleLengths[i]);
+			}
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double doubleParseDouble() {
+		double sum = 0;
+		for (int i = 0; i < COUNT; i++) {
+			sum += Double.parseDouble(toString(doubleText, doubleOffsets[i], doubleLengths[i]));
+		}
+		return sum;
+	}
+
+	/**
+	 * Direct buffer text is copied out to a byte[] first, as a String can't be made from it directly.
+	 */
+	private String toString(ByteBuffer text, int offset, int length) {
+		if (text.hasArray()) {
+			return new String(text.array(), offset, length, ISO_8859_1);
+		}
+		for (int i = 0; i < length; i++) {
+			scratch[i] = text.get(offset + i);
+		}
+		return new String(scratch, 0, length, ISO_8859_1);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options opt = new OptionsBuilder().include(NumberFormattingBenchmark.class.getSimpleName())
+		        .addProfiler(AllocationProfiler.class).build();
+		new Runner(opt).run();
+	}
+}
@@ -0,0 +1,153 @@
+package psy.lob.saw.utf8;
+
+import static psy.lob.saw.utf8.StringChars.charAt;
+import static psy.lob.saw.utf8.UnsafeDirectByteBuffer.getAddress;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CoderResult;
+
+import psy.lob.saw.util.UnsafeAccess;
+
+/**
+ * A variant of {@link CustomUtf8Encoder} with no instance state, so it can be shared freely between threads. Instead
+ * of keeping lastSp/lastDp in fields the encode loop returns the result status and the destination position packed in
+ * a long. Heap and direct destinations are both written with Unsafe, the heap array as the base object and the direct
+ * buffer address as an absolute offset from null.
+ *
+ * @author nitsan
+ */
+public final class StatelessUtf8Encoder {
+    public static final int UNDERFLOW = 0;
+    public static final int OVERFLOW = 1;
+    public static final int MALFORMED = 2;
+
+    private static final long BYTE_ARRAY_BASE = UnsafeAccess.UNSAFE.arrayBaseOffset(byte[].class);
+    private static final CoderResult MALFORMED_RESULT = CoderResult.malformedForLength(1);
+
+    private StatelessUtf8Encoder() {
+    }
+
+    /**
+     * Same contract as {@link CustomUtf8Encoder#encodeString(String, ByteBuffer)}: the position is only moved if the
+     * whole string fits.
+     */
+    public static CoderResult encodeString(String src, ByteBuffer dst) {
+        long result;
+        if (dst.hasArray())
+            result = encode(src, dst.array(), BYTE_ARRAY_BASE + dst.arrayOffset(), dst.position(), dst.limit());
+        else
+            result = encode(src, null, getAddress(dst), dst.position(), dst.limit());
+        switch (status(result)) {
+        case UNDERFLOW:
+            dst.position(position(result));
+            return CoderResult.UNDERFLOW;
+        case OVERFLOW:
+            return CoderResult.OVERFLOW;
+        default:
+            return MALFORMED_RESULT;
+        }
+    }
+
+    /**
+     * @param src
+     * @param da destination array, or null if daBase is an address
+     * @param daBase destination base offset
+     * @param dp destination position
+     * @param dl destination limit
+     * @return the status and destination position, see {@link #status(long)} and {@link #position(long)}
+     */
+    public static long encode(String src, Object da, long daBase, int dp, int dl) {
+        int sl = src.length();
+        if (UnsafeString.isLatin1(src))
+            return encodeLatin1((byte[]) UnsafeString.getValue(src), sl, da, daBase, dp, dl);
+        int sp = UnsafeString.getOffset(src);
+        return encodeChars(UnsafeString.getValue(src), sp, sp + sl, da, daBase, dp, dl);
+    }
+
+    public static int status(long result) {
+        return (int) (result >>> 32);
+    }
+
+    /**
+     * @return the destination position after the encoded string, only meaningful for UNDERFLOW
+     */
+    public static int position(long result) {
+        return (int) result;
+    }
+
+    private static long result(int status, int dp) {
+        return ((long) status << 32) | (dp & 0xFFFFFFFFL);
+    }
+
+    private static long encodeLatin1(byte[] sa, int sl, Object da, long daBase, int dp, int dl) {
+        if (dl - dp < sl)
+            return result(OVERFLOW, dp);
+        int sp = 0;
+        // handle ascii encoded strings in an optimised loop
+        byte b;
+        while (sp < sl && (b = sa[sp]) >= 0) {
+            putByte(da, daBase, dp++, b);
+            sp++;
+        }
+        for (; sp < sl; sp++) {
+            int c = sa[sp] & 0xFF;
+            if (c < 128) {
+                if (dp >= dl)
+                    return result(OVERFLOW, dp);
+                putByte(da, daBase, dp++, (byte) c);
+            } else {
+                if (dl - dp < 2)
+                    return result(OVERFLOW, dp);
+                putByte(da, daBase, dp++, (byte) (0xC0 | (c >> 6)));
+                putByte(da, daBase, dp++, (byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        return result(UNDERFLOW, dp);
+    }
+
+    private static long encodeChars(Object sa, int sp, int sl, Object da, long daBase, int dp, int dl) {
+        int dlASCII = dp + Math.min(sl - sp, dl - dp);
+        // handle ascii encoded strings in an optimised loop
+        char c;
+        while (dp < dlASCII && (c = charAt(sa, sp)) < 128) {
+            putByte(da, daBase, dp++, (byte) c);
+            sp++;
+        }
+        for (; sp < sl; sp++) {
+            c = charAt(sa, sp);
+            if (c < 128) {
+                if (dp >= dl)
+                    return result(OVERFLOW, dp);
+                putByte(da, daBase, dp++, (byte) c);
+            } else if (c < 2048) {
+                if (dl - dp < 2)
+                    return result(OVERFLOW, dp);
+                putByte(da, daBase, dp++, (byte) (0xC0 | (c >> 6)));
+                putByte(da, daBase, dp++, (byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                char d;
+                if (!Character.isHighSurrogate(c) || sl - sp < 2 || !Character.isLowSurrogate(d = charAt(sa, sp + 1)))
+                    return result(MALFORMED, dp);
+                if (dl - dp < 4)
+                    return result(OVERFLOW, dp);
+                int uc = Character.toCodePoint(c, d);
+                putByte(da, daBase, dp++, (byte) (0xF0 | uc >> 18));
+                putByte(da, daBase, dp++, (byte) (0x80 | uc >> 12 & 0x3F));
+                putByte(da, daBase, dp++, (byte) (0x80 | uc >> 6 & 0x3F));
+                putByte(da, daBase, dp++, (byte) (0x80 | uc & 0x3F));
+                sp++;
+            } else {
+                if (dl - dp < 3)
+                    return result(OVERFLOW, dp);
+                putByte(da, daBase, dp++, (byte) (0xE0 | c >> 12));
+                putByte(da, daBase, dp++, (byte) (0x80 | c >> 6 & 0x3F));
+                putByte(da, daBase, dp++, (byte) (0x80 | c & 0x3F));
+            }
+        }
+        return result(UNDERFLOW, dp);
+    }
+
+    private static void putByte(Object da, long daBase, int dp, byte b) {
+        UnsafeAccess.UNSAFE.putByte(da, daBase + dp, b);
+    }
+}
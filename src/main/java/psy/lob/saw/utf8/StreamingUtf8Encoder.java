@@ -0,0 +1,269 @@
+package psy.lob.saw.utf8;
+
+import static psy.lob.saw.utf8.StringChars.charAt;
+import static psy.lob.saw.utf8.UnsafeDirectByteBuffer.getAddress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CoderResult;
+
+import psy.lob.saw.util.UnsafeAccess;
+
+/**
+ * Encodes a String or CharSequence into a sequence of byte buffers, for documents which are larger than the buffer we
+ * are willing to allocate. Unlike {@link CustomUtf8Encoder#encodeString(String, java.nio.ByteBuffer)} the buffer is
+ * filled with as much as fits and the source position is remembered for the next call, like the JDK encoder does.
+ * Encoded chars are never split between buffers, so a surrogate pair which does not fit is left whole for the next
+ * buffer.<br>
+ * String sources are read straight out of the String value (see {@link UnsafeString}), LATIN1 values copying ascii
+ * runs in bulk. Heap and direct destinations are both written with Unsafe, as in {@link StatelessUtf8Encoder}.
+ *
+ * @author nitsan
+ */
+public class StreamingUtf8Encoder {
+    private static final long BYTE_ARRAY_BASE = UnsafeAccess.UNSAFE.arrayBaseOffset(byte[].class);
+    private static final long NON_ASCII_LATIN1_MASK = 0x8080808080808080L;
+
+    // source state, kept between calls
+    private CharSequence src;
+    private Object value;
+    private boolean latin1;
+    private int sp;
+    private int sl;
+    // taking this off the stack, same as the other encoders
+    private int lastDp;
+
+    /**
+     * Start encoding a new source from the beginning.
+     */
+    public final void reset(CharSequence src) {
+        this.src = src;
+        this.sp = 0;
+        this.sl = src.length();
+        if (src instanceof String) {
+            String s = (String) src;
+            this.value = UnsafeString.getValue(s);
+            this.latin1 = UnsafeString.isLatin1(s);
+            // pre JDK7 substrings share the value
+            this.sp = UnsafeString.getOffset(s);
+            this.sl = sp + sl;
+        } else {
+            this.value = null;
+            this.latin1 = false;
+        }
+    }
+
+    /**
+     * @return true if the whole source has been encoded
+     */
+    public final boolean isDone() {
+        return sp == sl;
+    }
+
+    /**
+     * Encodes as much of the remaining source as fits into the buffer, moving its position.
+     *
+     * @return UNDERFLOW if the source is done, OVERFLOW if the buffer is full and the encoding should be resumed with
+     *         another (or the drained) buffer, or a malformed result for a lone surrogate at which the encoding is stuck
+     */
+    public final CoderResult encode(ByteBuffer dst) {
+        Object da;
+        long daBase;
+        int dp;
+        int dl;
+        if (dst.hasArray()) {
+            da = dst.array();
+            daBase = BYTE_ARRAY_BASE + dst.arrayOffset();
+        } else {
+            da = null;
+            daBase = getAddress(dst);
+        }
+        dp = dst.position();
+        dl = dst.limit();
+        CoderResult result;
+        if (value == null)
+            result = encodeCharSequence(da, daBase, dp, dl);
+        else if (latin1)
+            result = encodeLatin1((byte[]) value, da, daBase, dp, dl);
+        else
+            result = encodeChars(value, da, daBase, dp, dl);
+        dst.position(lastDp);
+        return result;
+    }
+
+    /**
+     * Encodes the rest of the source through the chunk buffer into the channel, writing each chunk out fully.
+     *
+     * @param chunk at least 4 bytes, so any char fits an empty one
+     * @return the number of bytes written
+     * @throws IOException
+     */
+    public final long writeTo(WritableByteChannel channel, ByteBuffer chunk) throws IOException {
+        if (chunk.capacity() < 4)
+            throw new IllegalArgumentException("chunk capacity < 4: " + chunk.capacity());
+        long written = 0;
+        CoderResult result;
+        do {
+            chunk.clear();
+            int start = sp;
+            result = encode(chunk);
+            if (result.isError())
+                result.throwException();
+            // can't happen with 4 bytes of room, but retrying would spin forever
+            if (result.isOverflow() && sp == start && lastDp == 0)
+                throw new IllegalStateException("no progress encoding into an empty chunk at " + sp);
+            chunk.flip();
+            while (chunk.hasRemaining())
+                written += channel.write(chunk);
+        } while (result.isOverflow());
+        return written;
+    }
+
+    private CoderResult encodeLatin1(byte[] sa, Object da, long daBase, int dp, int dl) {
+        // keep the source position on the stack, the Unsafe puts could otherwise alias it
+        int sp = this.sp;
+        int sl = this.sl;
+        while (sp < sl) {
+            // copy the ascii run (or as much of it as fits) in one go
+            int run = Math.min(asciiRun(sa, sp, sl), dl - dp);
+            if (run > 0) {
+                UnsafeAccess.UNSAFE.copyMemory(sa, BYTE_ARRAY_BASE + sp, da, daBase + dp, run);
+                sp += run;
+                dp += run;
+                if (sp == sl)
+                    break;
+            }
+            int c = sa[sp] & 0xFF;
+            if (c < 128) {
+                // the run was cut short by the destination limit
+                return overflow(sp, dp);
+            }
+            if (dl - dp < 2)
+                return overflow(sp, dp);
+            putByte(da, daBase, dp++, (byte) (0xC0 | (c >> 6)));
+            putByte(da, daBase, dp++, (byte) (0x80 | (c & 0x3F)));
+            sp++;
+        }
+        return underflow(sp, dp);
+    }
+
+    /**
+     * @return the number of ascii bytes starting at sp, checked 8 at a time
+     */
+    private static int asciiRun(byte[] sa, int sp, int sl) {
+        int i = sp;
+        while (sl - i >= 8 && (UnsafeAccess.UNSAFE.getLong(sa, BYTE_ARRAY_BASE + i) & NON_ASCII_LATIN1_MASK) == 0)
+            i += 8;
+        while (i < sl && sa[i] >= 0)
+            i++;
+        return i - sp;
+    }
+
+    private CoderResult encodeChars(Object sa, Object da, long daBase, int dp, int dl) {
+        // keep the source position on the stack, the Unsafe puts could otherwise alias it
+        int sp = this.sp;
+        int sl = this.sl;
+        while (sp < sl) {
+            char c = charAt(sa, sp);
+            if (c < 128) {
+                if (dp >= dl)
+                    return overflow(sp, dp);
+                putByte(da, daBase, dp++, (byte) c);
+            } else if (c < 2048) {
+                if (dl - dp < 2)
+                    return overflow(sp, dp);
+                putByte(da, daBase, dp++, (byte) (0xC0 | (c >> 6)));
+                putByte(da, daBase, dp++, (byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                if (!Character.isHighSurrogate(c) || sl - sp < 2)
+                    return malformed(sp, dp);
+                char d = charAt(sa, sp + 1);
+                if (!Character.isLowSurrogate(d))
+                    return malformed(sp, dp);
+                if (dl - dp < 4)
+                    return overflow(sp, dp);
+                dp = putSupplementary(da, daBase, dp, Character.toCodePoint(c, d));
+                sp++;
+            } else {
+                if (dl - dp < 3)
+                    return overflow(sp, dp);
+                putByte(da, daBase, dp++, (byte) (0xE0 | c >> 12));
+                putByte(da, daBase, dp++, (byte) (0x80 | c >> 6 & 0x3F));
+                putByte(da, daBase, dp++, (byte) (0x80 | c & 0x3F));
+            }
+            sp++;
+        }
+        return underflow(sp, dp);
+    }
+
+    /**
+     * Same as encodeChars, but going through the CharSequence interface.
+     */
+    private CoderResult encodeCharSequence(Object da, long daBase, int dp, int dl) {
+        CharSequence s = src;
+        int sp = this.sp;
+        int sl = this.sl;
+        while (sp < sl) {
+            char c = s.charAt(sp);
+            if (c < 128) {
+                if (dp >= dl)
+                    return overflow(sp, dp);
+                putByte(da, daBase, dp++, (byte) c);
+            } else if (c < 2048) {
+                if (dl - dp < 2)
+                    return overflow(sp, dp);
+                putByte(da, daBase, dp++, (byte) (0xC0 | (c >> 6)));
+                putByte(da, daBase, dp++, (byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                if (!Character.isHighSurrogate(c) || sl - sp < 2)
+                    return malformed(sp, dp);
+                char d = s.charAt(sp + 1);
+                if (!Character.isLowSurrogate(d))
+                    return malformed(sp, dp);
+                if (dl - dp < 4)
+                    return overflow(sp, dp);
+                dp = putSupplementary(da, daBase, dp, Character.toCodePoint(c, d));
+                sp++;
+            } else {
+                if (dl - dp < 3)
+                    return overflow(sp, dp);
+                putByte(da, daBase, dp++, (byte) (0xE0 | c >> 12));
+                putByte(da, daBase, dp++, (byte) (0x80 | c >> 6 & 0x3F));
+                putByte(da, daBase, dp++, (byte) (0x80 | c & 0x3F));
+            }
+            sp++;
+        }
+        return underflow(sp, dp);
+    }
+
+    private static int putSupplementary(Object da, long daBase, int dp, int uc) {
+        putByte(da, daBase, dp++, (byte) (0xF0 | uc >> 18));
+        putByte(da, daBase, dp++, (byte) (0x80 | uc >> 12 & 0x3F));
+        putByte(da, daBase, dp++, (byte) (0x80 | uc >> 6 & 0x3F));
+        putByte(da, daBase, dp++, (byte) (0x80 | uc & 0x3F));
+        return dp;
+    }
+
+    private static void putByte(Object da, long daBase, int dp, byte b) {
+        UnsafeAccess.UNSAFE.putByte(da, daBase + dp, b);
+    }
+
+    private CoderResult underflow(int sp, int dp) {
+        this.sp = sp;
+        lastDp = dp;
+        return CoderResult.UNDERFLOW;
+    }
+
+    private CoderResult overflow(int sp, int dp) {
+        this.sp = sp;
+        lastDp = dp;
+        return CoderResult.OVERFLOW;
+    }
+
+    private CoderResult malformed(int sp, int dp) {
+        this.sp = sp;
+        lastDp = dp;
+        return CoderResult.malformedForLength(1);
+    }
+}
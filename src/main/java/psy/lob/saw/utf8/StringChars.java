@@ -0,0 +1,34 @@
+package psy.lob.saw.utf8;
+
+import psy.lob.saw.util.UnsafeAccess;
+
+/**
+ * Unsafe helpers the encoders share for reading the chars of a String value (see {@link UnsafeString}) and packing
+ * them into bytes a word at a time.
+ *
+ * @author nitsan
+ */
+final class StringChars {
+    private static final long BYTE_ARRAY_BASE = UnsafeAccess.UNSAFE.arrayBaseOffset(byte[].class);
+    private static final long CHAR_ARRAY_BASE = UnsafeAccess.UNSAFE.arrayBaseOffset(char[].class);
+    // base offset of the String value chars, be it a char[] or a UTF16 byte[]
+    private static final long VALUE_BASE = UnsafeString.hasByteValue() ? BYTE_ARRAY_BASE : CHAR_ARRAY_BASE;
+
+    private StringChars() {
+    }
+
+    /**
+     * @param sa a char[] value, or a UTF16 byte[] value on JDK9+
+     */
+    static char charAt(Object sa, int sp) {
+        return UnsafeAccess.UNSAFE.getChar(sa, VALUE_BASE + ((long) sp << 1));
+    }
+
+    /**
+     * Pack 4 chars below 0x100 (little endian, 16 bits each) into 4 bytes.
+     */
+    static int pack(long w) {
+        long x = w | (w >>> 8);
+        return (int) ((x & 0xFFFFL) | ((x >>> 16) & 0xFFFF0000L));
+    }
+}
@@ -0,0 +1,50 @@
+package psy.lob.saw.utf8;
+
+import java.nio.charset.CoderResult;
+
+import psy.lob.saw.util.UnsafeAccess;
+
+/**
+ * Stand in for sun.nio.cs.Surrogate.Parser, which is not exported from java.base on JDK9+. The source is read with
+ * Unsafe so that it works for both the char[] value of pre-JDK9 Strings and the UTF16 byte[] value of compact Strings
+ * (the chars are laid out in native order in both).
+ *
+ * @author nitsan
+ */
+final class SurrogateParser {
+    private CoderResult error = CoderResult.UNDERFLOW;
+
+    /**
+     * @param c the surrogate char at sp
+     * @param sa source array
+     * @param saBase array base offset for sa
+     * @param sp source position of c
+     * @param sl source limit
+     * @return the code point, or -1 in which case the result is available from {@link #error()}
+     */
+    int parse(char c, Object sa, long saBase, int sp, int sl) {
+        if (Character.isHighSurrogate(c)) {
+            if (sl - sp < 2) {
+                error = CoderResult.UNDERFLOW;
+                return -1;
+            }
+            char d = UnsafeAccess.UNSAFE.getChar(sa, saBase + ((long) (sp + 1) << 1));
+            if (Character.isLowSurrogate(d)) {
+                error = null;
+                return Character.toCodePoint(c, d);
+            }
+            error = CoderResult.malformedForLength(1);
+            return -1;
+        }
+        if (Character.isLowSurrogate(c)) {
+            error = CoderResult.malformedForLength(1);
+            return -1;
+        }
+        error = null;
+        return c;
+    }
+
+    CoderResult error() {
+        return error;
+    }
+}
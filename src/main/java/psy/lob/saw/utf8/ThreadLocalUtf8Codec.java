@@ -0,0 +1,44 @@
+package psy.lob.saw.utf8;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CoderResult;
+
+/**
+ * Static facade over a per thread {@link CustomUtf8Encoder} and {@link CustomUtf8Decoder}, so the instance state is
+ * never shared.
+ *
+ * @author nitsan
+ */
+public final class ThreadLocalUtf8Codec {
+    private static final ThreadLocal<CustomUtf8Encoder> ENCODER = new ThreadLocal<CustomUtf8Encoder>() {
+        @Override
+        protected CustomUtf8Encoder initialValue() {
+            return new CustomUtf8Encoder();
+        }
+    };
+    private static final ThreadLocal<CustomUtf8Decoder> DECODER = new ThreadLocal<CustomUtf8Decoder>() {
+        @Override
+        protected CustomUtf8Decoder initialValue() {
+            return new CustomUtf8Decoder();
+        }
+    };
+
+    private ThreadLocalUtf8Codec() {
+    }
+
+    public static CustomUtf8Encoder encoder() {
+        return ENCODER.get();
+    }
+
+    public static CustomUtf8Decoder decoder() {
+        return DECODER.get();
+    }
+
+    public static CoderResult encodeString(String src, ByteBuffer dst) {
+        return ENCODER.get().encodeString(src, dst);
+    }
+
+    public static String decodeString(ByteBuffer src) {
+        return DECODER.get().decodeString(src);
+    }
+}
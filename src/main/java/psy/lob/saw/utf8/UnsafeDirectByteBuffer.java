@@ -1,5 +1,6 @@
 package psy.lob.saw.utf8;
 
+import java.lang.reflect.Method;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -8,12 +9,49 @@ import psy.lob.saw.util.UnsafeAccess;
 
 public class UnsafeDirectByteBuffer {
 	private static final long addressOffset;
+	private static final long attachmentOffset;
+	// the backing array of heap buffers, set for read only ones too
+	private static final long arrayOffset;
+	private static final long arrayOffsetOffset;
+	// JDK9+ Unsafe.invokeCleaner, or JDK8 DirectByteBuffer.cleaner
+	private static final Method invokeCleaner;
+	private static final Method cleaner;
+	private static final Method clean;
 	public static final int CACHE_LINE_SIZE = 64;
 	public static final int PAGE_SIZE = UnsafeAccess.UNSAFE.pageSize();
 	static {
 		try {
 			addressOffset = UnsafeAccess.UNSAFE.objectFieldOffset(Buffer.class
 			        .getDeclaredField("address"));
+			arrayOffset = UnsafeAccess.UNSAFE.objectFieldOffset(ByteBuffer.class
+			        .getDeclaredField("hb"));
+			arrayOffsetOffset = UnsafeAccess.UNSAFE
+			        .objectFieldOffset(ByteBuffer.class.getDeclaredField("offset"));
+			Class<?> directBufferClass = Class
+			        .forName("java.nio.DirectByteBuffer");
+			// slices and duplicates keep a reference to the buffer they came
+			// from
+			attachmentOffset = UnsafeAccess.UNSAFE
+			        .objectFieldOffset(directBufferClass
+			                .getDeclaredField("att"));
+			Method method;
+			try {
+				method = UnsafeAccess.UNSAFE.getClass().getMethod(
+				        "invokeCleaner", ByteBuffer.class);
+			}
+			// this will happen before jdk9
+			catch (NoSuchMethodException e) {
+				method = null;
+			}
+			invokeCleaner = method;
+			if (invokeCleaner == null) {
+				cleaner = directBufferClass.getMethod("cleaner");
+				cleaner.setAccessible(true);
+				clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			} else {
+				cleaner = null;
+				clean = null;
+			}
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -23,6 +61,22 @@ public class UnsafeDirectByteBuffer {
 		return UnsafeAccess.UNSAFE.getLong(buffy, addressOffset);
 	}
 
+	/**
+	 * The backing array of a heap buffer, like {@link ByteBuffer#array()} but
+	 * for read only buffers as well, which have one but won't hand it out.
+	 * Only for reading, and not for direct buffers (null).
+	 */
+	public static byte[] getArray(ByteBuffer buffy) {
+		return (byte[]) UnsafeAccess.UNSAFE.getObject(buffy, arrayOffset);
+	}
+
+	/**
+	 * @see #getArray(ByteBuffer)
+	 */
+	public static int getArrayOffset(ByteBuffer buffy) {
+		return UnsafeAccess.UNSAFE.getInt(buffy, arrayOffsetOffset);
+	}
+
 	/**
 	 * put byte and skip position update and boundary checks
 	 * 
@@ -65,6 +119,37 @@ public class UnsafeDirectByteBuffer {
 		}
 	}
 
+	/**
+	 * Free the direct memory backing the buffer now, rather than when the
+	 * buffer is collected. For slices/duplicates (like the buffers allocated by
+	 * {@link #allocateAlignedByteBuffer(int, long)}) the memory is freed for the
+	 * buffer they were taken from and all the others taken from it. The buffers
+	 * must not be used after this.
+	 */
+	public static void free(ByteBuffer buffy) {
+		if (!buffy.isDirect()) {
+			throw new IllegalArgumentException("Not a direct buffer");
+		}
+		ByteBuffer root = buffy;
+		Object attachment;
+		while ((attachment = UnsafeAccess.UNSAFE.getObject(root,
+		        attachmentOffset)) instanceof ByteBuffer) {
+			root = (ByteBuffer) attachment;
+		}
+		try {
+			if (invokeCleaner != null) {
+				invokeCleaner.invoke(UnsafeAccess.UNSAFE, root);
+			} else {
+				Object rootCleaner = cleaner.invoke(root);
+				if (rootCleaner != null) {
+					clean.invoke(rootCleaner);
+				}
+			}
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	public static boolean isPageAligned(ByteBuffer buffy) {
 		return isPageAligned(getAddress(buffy));
 	}
@@ -2,14 +2,25 @@ package psy.lob.saw.utf8;
 
 import java.lang.reflect.Field;
 import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 
 import sun.misc.Unsafe;
 
 public class UnsafeString {
+	/**
+	 * JDK9+ compact strings: the value field is a byte[] holding either one byte per char (LATIN1) or the chars in
+	 * native order (UTF16), as indicated by the coder field.
+	 */
+	public static final byte LATIN1 = 0;
+	public static final byte UTF16 = 1;
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
 	private static final Unsafe unsafe;
 	private static final long valueOffset;
 	private static final long offsetOffset;
 	private static final long countOffset;
+	private static final long coderOffset;
+	private static final boolean compactStrings;
 
 	static {
 		try {
@@ -49,12 +60,51 @@ public class UnsafeString {
 			} else {
 				offsetOffset = -1L;
 			}
+			declaredField = null;
+			try {
+				declaredField = String.class.getDeclaredField("coder");
+			}
+			// this will happen before jdk9 as the value is a char[]
+			catch (NoSuchFieldException e) {
+				declaredField = null;
+			}
+			if (declaredField != null) {
+				coderOffset = unsafe.objectFieldOffset(declaredField);
+				// -XX:-CompactStrings leaves the coder field in place, but
+				// all strings must then be UTF16
+				Field compactField = String.class
+				        .getDeclaredField("COMPACT_STRINGS");
+				compactStrings = unsafe.getBoolean(
+				        unsafe.staticFieldBase(compactField),
+				        unsafe.staticFieldOffset(compactField));
+			} else {
+				coderOffset = -1L;
+				compactStrings = false;
+			}
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	/**
+	 * @return true if the String value is a byte[] (JDK9+), false if it is a
+	 *         char[]
+	 */
+	public final static boolean hasByteValue() {
+		return coderOffset != -1L;
+	}
+
+	/**
+	 * @return true if new Strings may use the LATIN1 coder
+	 */
+	public final static boolean isCompactStrings() {
+		return compactStrings;
+	}
+
 	public final static String buildUnsafe(char[] chars) {
+		if (coderOffset != -1L) {
+			return buildFromChars(chars, 0, chars.length);
+		}
 		String mutable = new String();// an empty string to hack
 		unsafe.putObject(mutable, valueOffset, chars);
 		if (countOffset != -1L) {
@@ -64,6 +114,9 @@ public class UnsafeString {
 	}
 
 	public final static String buildUnsafe(char[] chars, int offset, int length) {
+		if (coderOffset != -1L) {
+			return buildFromChars(chars, offset, length);
+		}
 		String mutable = new String();// an empty string to hack
 		unsafe.putObject(mutable, valueOffset, chars);
 		if (countOffset != -1L) {
@@ -73,10 +126,73 @@ public class UnsafeString {
 		return mutable;
 	}
 
+	/**
+	 * The chars cannot be used as the value of a compact String, so we are
+	 * stuck with the copy. Callers who care should build the value themselves
+	 * and use {@link #buildUnsafeLatin1(byte[])} or
+	 * {@link #buildUnsafeUtf16(byte[])}.
+	 */
+	private static String buildFromChars(char[] chars, int offset, int length) {
+		return new String(chars, offset, length);
+	}
+
+	/**
+	 * JDK9+ only: the bytes are used as the String value, one char per byte.
+	 * Falls back to a copy if compact strings are disabled.
+	 */
+	public final static String buildUnsafeLatin1(byte[] latin1) {
+		if (!compactStrings) {
+			return new String(latin1, ISO_8859_1);
+		}
+		String mutable = new String();// an empty string to hack
+		unsafe.putObject(mutable, valueOffset, latin1);
+		unsafe.putByte(mutable, coderOffset, LATIN1);
+		return mutable;
+	}
+
+	/**
+	 * JDK9+ only: the bytes, holding the chars in native order, are used as the
+	 * String value. The chars must not all be LATIN1 if compact strings are
+	 * enabled as String.equals relies on the canonical coder.
+	 */
+	public final static String buildUnsafeUtf16(byte[] utf16) {
+		String mutable = new String();// an empty string to hack
+		unsafe.putObject(mutable, valueOffset, utf16);
+		unsafe.putByte(mutable, coderOffset, UTF16);
+		return mutable;
+	}
+
+	/**
+	 * @return the String chars, which on JDK9+ requires a copy
+	 */
 	public final static char[] getChars(String s) {
+		if (coderOffset != -1L) {
+			return s.toCharArray();
+		}
 		return (char[]) unsafe.getObject(s, valueOffset);
 	}
 
+	/**
+	 * @return the String value field, a char[] before JDK9 or a byte[] to be
+	 *         interpreted according to {@link #getCoder(String)}
+	 */
+	public final static Object getValue(String s) {
+		return unsafe.getObject(s, valueOffset);
+	}
+
+	/**
+	 * @return the String coder, UTF16 before JDK9 as the value is a char[]
+	 */
+	public final static byte getCoder(String s) {
+		if (coderOffset == -1L)
+			return UTF16;
+		return unsafe.getByte(s, coderOffset);
+	}
+
+	public final static boolean isLatin1(String s) {
+		return coderOffset != -1L && unsafe.getByte(s, coderOffset) == LATIN1;
+	}
+
 	public final static int getOffset(String s) {
 		if (offsetOffset == -1L)
 			return 0;
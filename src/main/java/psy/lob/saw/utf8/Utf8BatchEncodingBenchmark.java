@@ -0,0 +1,89 @@
+package psy.lob.saw.utf8;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Encoding all the sample lines as length prefixed frames into a buffer, flushing (clearing) it whenever it is full.
+ * Compares looping over encodeString and filling in the length after each line with the batch encodeStrings.
+ */
+@State(Scope.Thread)
+public class Utf8BatchEncodingBenchmark {
+	@Param({ "false", "true" })
+	boolean directBuffer;
+
+	@Param({ "4096", "65536" })
+	int bufferSize;
+
+	// experiment test input
+	private String[] strings;
+
+	// My own encoder
+	private CustomUtf8Encoder customEncoder;
+
+	// Destination buffer, the slayer
+	private ByteBuffer buffySummers;
+
+	@Setup
+	public void init() {
+		List<String> samples = Utf8Samples.load();
+		strings = samples.toArray(new String[samples.size()]);
+		if (directBuffer) {
+			buffySummers = ByteBuffer.allocateDirect(bufferSize);
+		} else {
+			buffySummers = ByteBuffer.allocate(bufferSize);
+		}
+		customEncoder = new CustomUtf8Encoder();
+	}
+
+	@Benchmark
+	public int encodeStringLoop() {
+		int countBytes = 0;
+		for (int stringIndex = 0; stringIndex < strings.length; stringIndex++) {
+			int framePosition = buffySummers.position();
+			if (buffySummers.remaining() >= 4) {
+				buffySummers.position(framePosition + 4);
+				if (customEncoder.encodeString(strings[stringIndex], buffySummers).isUnderflow()) {
+					buffySummers.putInt(framePosition, buffySummers.position() - framePosition - 4);
+					continue;
+				}
+				buffySummers.position(framePosition);
+			}
+			// flush and retry
+			countBytes += buffySummers.position();
+			buffySummers.clear();
+			stringIndex--;
+		}
+		countBytes += buffySummers.position();
+		buffySummers.clear();
+		return countBytes;
+	}
+
+	@Benchmark
+	public int encodeStringsFixedInt() {
+		return encodeStrings(false);
+	}
+
+	@Benchmark
+	public int encodeStringsVarint() {
+		return encodeStrings(true);
+	}
+
+	private int encodeStrings(boolean varint) {
+		int countBytes = 0;
+		int stringIndex = 0;
+		while (true) {
+			stringIndex += customEncoder.encodeStrings(strings, stringIndex, strings.length, buffySummers, varint);
+			countBytes += buffySummers.position();
+			buffySummers.clear();
+			if (stringIndex == strings.length)
+				return countBytes;
+		}
+	}
+}
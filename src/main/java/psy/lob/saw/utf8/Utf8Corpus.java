@@ -0,0 +1,139 @@
+package psy.lob.saw.utf8;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Seeded generator of benchmark input, picked by a character mix (the corpus) and a string length distribution (the
+ * lengths), so the same names always give the same strings. Generated corpora are sized to roughly the same number of
+ * chars as the Utf8Samples.txt lines, so scores compare across the matrix.
+ * <p>
+ * Corpora:
+ * <ul>
+ * <li>samples: the Utf8Samples.txt text</li>
+ * <li>ascii: printable ascii</li>
+ * <li>latin1: half ascii letters, half U+00A0-U+00FF (2 byte encoded, and still a LATIN1 String on JDK9+)</li>
+ * <li>cjk: mostly U+4E00-U+9FFF (3 byte encoded) with some ascii punctuation</li>
+ * <li>emoji: mostly U+1F300-U+1F64F surrogate pairs (4 byte encoded) with some ascii</li>
+ * <li>mixed: traffic like, mostly ascii strings with the odd cjk or emoji heavy one</li>
+ * <li>a number in [0,1]: same as {@link Utf8Samples#load(String)}, lengths are ignored</li>
+ * </ul>
+ * Lengths:
+ * <ul>
+ * <li>samples: the Utf8Samples.txt line lengths</li>
+ * <li>short: JSON key like, log-normal around 8 chars, at most 64</li>
+ * <li>long: log-normal around 256 chars, at most 1024</li>
+ * </ul>
+ * The samples corpus with other lengths is the samples text cut up at those lengths. Surrogate pairs are never split.
+ */
+public class Utf8Corpus {
+	public static final long DEFAULT_SEED = 666;
+
+	private static final String ASCII_LETTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+	private static final String ASCII_PUNCTUATION = " ,.:;\"'!?()-";
+	private static final int MAX_SHORT = 64;
+	private static final int MAX_LONG = 1024;
+
+	public static List<String> load(String corpus, String lengths) {
+		return load(corpus, lengths, DEFAULT_SEED);
+	}
+
+	public static List<String> load(String corpus, String lengths, long seed) {
+		List<String> samples = Utf8Samples.load();
+		if (Character.isDigit(corpus.charAt(0))) {
+			return Utf8Samples.synthesize(samples, Double.parseDouble(corpus));
+		}
+		if ("samples".equals(corpus)) {
+			return "samples".equals(lengths) ? samples : cut(samples, lengths, new Random(seed));
+		}
+		Random random = new Random(seed);
+		List<String> strings = new ArrayList<String>();
+		int totalLength = 0;
+		int targetLength = totalLength(samples);
+		for (int i = 0; totalLength < targetLength; i++) {
+			int length = "samples".equals(lengths) ? samples.get(i % samples.size()).length() : nextLength(lengths,
+			        random);
+			String string = generate(corpus, length, random);
+			strings.add(string);
+			totalLength += string.length();
+		}
+		return strings;
+	}
+
+	private static List<String> cut(List<String> samples, String lengths, Random random) {
+		StringBuilder text = new StringBuilder();
+		for (String sample : samples) {
+			text.append(sample).append(' ');
+		}
+		List<String> strings = new ArrayList<String>();
+		int start = 0;
+		while (start < text.length()) {
+			int end = Math.min(start + nextLength(lengths, random), text.length());
+			if (end < text.length() && Character.isLowSurrogate(text.charAt(end))) {
+				end++;
+			}
+			strings.add(text.substring(start, end));
+			start = end;
+		}
+		return strings;
+	}
+
+	private static int nextLength(String lengths, Random random) {
+		if ("short".equals(lengths)) {
+			return logNormal(random, 8, MAX_SHORT);
+		} else if ("long".equals(lengths)) {
+			return logNormal(random, 256, MAX_LONG);
+		}
+		throw new IllegalArgumentException("Unknown lengths: " + lengths);
+	}
+
+	private static int logNormal(Random random, int median, int max) {
+		int length = (int) Math.round(median * Math.exp(0.7 * random.nextGaussian()));
+		return Math.max(1, Math.min(length, max));
+	}
+
+	private static String generate(String corpus, int length, Random random) {
+		if ("mixed".equals(corpus)) {
+			int pick = random.nextInt(100);
+			corpus = pick < 85 ? "ascii" : pick < 95 ? "cjk" : "emoji";
+		}
+		StringBuilder sb = new StringBuilder(length + 1);
+		while (sb.length() < length) {
+			appendCodePoint(corpus, sb, length - sb.length(), random);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Append a code point from the corpus, or an ascii char if a surrogate pair doesn't fit in the remaining length.
+	 */
+	private static void appendCodePoint(String corpus, StringBuilder sb, int remaining, Random random) {
+		int pick = random.nextInt(100);
+		if ("ascii".equals(corpus)) {
+			sb.append((char) (' ' + random.nextInt(95)));
+		} else if ("latin1".equals(corpus)) {
+			sb.append(pick < 50 ? ASCII_LETTERS.charAt(random.nextInt(ASCII_LETTERS.length()))
+			        : (char) (0xA0 + random.nextInt(0x60)));
+		} else if ("cjk".equals(corpus)) {
+			sb.append(pick < 90 ? (char) (0x4E00 + random.nextInt(0x5200))
+			        : ASCII_PUNCTUATION.charAt(random.nextInt(ASCII_PUNCTUATION.length())));
+		} else if ("emoji".equals(corpus)) {
+			if (pick < 60 && remaining >= 2) {
+				sb.appendCodePoint(0x1F300 + random.nextInt(0x150));
+			} else {
+				sb.append(ASCII_LETTERS.charAt(random.nextInt(ASCII_LETTERS.length())));
+			}
+		} else {
+			throw new IllegalArgumentException("Unknown corpus: " + corpus);
+		}
+	}
+
+	private static int totalLength(List<String> strings) {
+		int total = 0;
+		for (String string : strings) {
+			total += string.length();
+		}
+		return total;
+	}
+}
@@ -0,0 +1,121 @@
+package psy.lob.saw.utf8;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+public class Utf8DecodingBenchmark {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// experiment test input, the encoded lines laid out back to back
+	private int[] offsets;
+	private int[] lengths;
+
+	// String constructor helper array
+	private byte[] bytes;
+
+	// CharsetDecoder helper buffers
+	private char[] chars;
+	private CharBuffer charBuffer;
+	private CharsetDecoder decoder;
+
+	// My own decoder
+	private CustomUtf8Decoder customDecoder;
+
+	// Source buffer, the slayer
+	private ByteBuffer buffySummers;
+
+	@Setup
+	public void init() {
+		boolean useDirectBuffer = Boolean
+		        .getBoolean("Utf8DecodingBenchmark.directBuffer");
+		List<String> strings = Utf8Samples.load();
+
+		offsets = new int[strings.size()];
+		lengths = new int[strings.size()];
+		List<byte[]> encoded = new ArrayList<byte[]>();
+		int totalLength = 0;
+		int maxLength = 0;
+		for (int stringIndex = 0; stringIndex < strings.size(); stringIndex++) {
+			byte[] line = strings.get(stringIndex).getBytes(UTF8);
+			encoded.add(line);
+			offsets[stringIndex] = totalLength;
+			lengths[stringIndex] = line.length;
+			totalLength += line.length;
+			maxLength = Math.max(maxLength, line.length);
+		}
+		if (useDirectBuffer) {
+			buffySummers = ByteBuffer.allocateDirect(totalLength);
+		} else {
+			buffySummers = ByteBuffer.allocate(totalLength);
+		}
+		for (byte[] line : encoded) {
+			buffySummers.put(line);
+		}
+		buffySummers.clear();
+		bytes = new byte[maxLength];
+		chars = new char[maxLength];
+		charBuffer = CharBuffer.wrap(chars);
+		decoder = UTF8.newDecoder();
+		customDecoder = new CustomUtf8Decoder();
+	}
+
+	private void select(int stringIndex) {
+		int offset = offsets[stringIndex];
+		buffySummers.limit(offset + lengths[stringIndex]);
+		buffySummers.position(offset);
+	}
+
+	@Benchmark
+	public int customDecoder() {
+		int countChars = 0;
+		for (int stringIndex = 0; stringIndex < offsets.length; stringIndex++) {
+			select(stringIndex);
+			countChars += customDecoder.decodeString(buffySummers).length();
+		}
+		buffySummers.clear();
+		return countChars;
+	}
+
+	@Benchmark
+	public int stringConstructor() {
+		int countChars = 0;
+		for (int stringIndex = 0; stringIndex < offsets.length; stringIndex++) {
+			select(stringIndex);
+			int length = lengths[stringIndex];
+			// heap buffers can hand over the array, direct ones must be copied out
+			if (buffySummers.hasArray()) {
+				countChars += new String(buffySummers.array(),
+				        buffySummers.arrayOffset() + offsets[stringIndex],
+				        length, UTF8).length();
+			} else {
+				buffySummers.get(bytes, 0, length);
+				countChars += new String(bytes, 0, length, UTF8).length();
+			}
+		}
+		buffySummers.clear();
+		return countChars;
+	}
+
+	@Benchmark
+	public int charsetDecoder() {
+		int countChars = 0;
+		for (int stringIndex = 0; stringIndex < offsets.length; stringIndex++) {
+			select(stringIndex);
+			charBuffer.clear();
+			decoder.reset();
+			decoder.decode(buffySummers, charBuffer, true);
+			countChars += new String(chars, 0, charBuffer.position()).length();
+		}
+		buffySummers.clear();
+		return countChars;
+	}
+}
@@ -0,0 +1,221 @@
+package psy.lob.saw.utf8;
+
+import static psy.lob.saw.util.UnsafeAccess.UNSAFE;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CoderResult;
+
+/**
+ * A bounded cache of the UTF-8 encoding of frequently encoded strings (field names, header names, enum names and the
+ * like). The encoded bytes live in an off-heap slab of fixed size slots, one entry per slot, so a hit is a lookup
+ * and a single Unsafe.copyMemory into the destination. A miss encodes with a {@link CustomUtf8Encoder} and copies
+ * the result into a slot, evicting with the clock (second chance) algorithm when the cache is full. Strings which
+ * encode to more than the slot size are encoded every time.
+ * <p>
+ * The index is an open addressing table keyed on the String, comparing identity before equals and using the String's
+ * cached hash, so a repeated String instance costs no more than a few loads to find. Like the encoder, an instance is
+ * for one thread at a time, and nothing is allocated on either the hit or the miss path.
+ *
+ * @author nitsan
+ */
+public final class Utf8EncodedCache {
+    private static final long BYTE_ARRAY_BASE = UNSAFE.arrayBaseOffset(byte[].class);
+
+    private final CustomUtf8Encoder encoder = new CustomUtf8Encoder();
+    private final int entries;
+    private final int slotSize;
+    private final ByteBuffer slab;
+    private final long slabAddress;
+
+    // index: key -> slot, at most half full
+    private final String[] keys;
+    private final int[] keySlots;
+    private final int mask;
+
+    // per slot
+    private final String[] slotKeys;
+    private final int[] slotLengths;
+    private final boolean[] referenced;
+    private int hand;
+    private int size;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * @param entries the number of strings to cache
+     * @param slotSize the most encoded bytes to cache for a string
+     */
+    public Utf8EncodedCache(int entries, int slotSize) {
+        if (entries < 1 || slotSize < 1 || (long) entries * slotSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("entries=" + entries + " slotSize=" + slotSize);
+        this.entries = entries;
+        this.slotSize = slotSize;
+        this.slab = UnsafeDirectByteBuffer.allocateAlignedByteBuffer(entries * slotSize,
+                UnsafeDirectByteBuffer.CACHE_LINE_SIZE);
+        this.slabAddress = UnsafeDirectByteBuffer.getAddress(slab);
+        int tableSize = Integer.highestOneBit(entries * 2 - 1) << 1;
+        this.keys = new String[tableSize];
+        this.keySlots = new int[tableSize];
+        this.mask = tableSize - 1;
+        this.slotKeys = new String[entries];
+        this.slotLengths = new int[entries];
+        this.referenced = new boolean[entries];
+    }
+
+    /**
+     * Same contract as {@link CustomUtf8Encoder#encodeString(String, ByteBuffer)}: the position is only moved if the
+     * whole string fits.
+     */
+    public CoderResult encodeString(String src, ByteBuffer dst) {
+        int index = find(src);
+        if (index != -1) {
+            int slot = keySlots[index];
+            int length = slotLengths[slot];
+            if (dst.remaining() < length)
+                return CoderResult.OVERFLOW;
+            int position = dst.position();
+            if (dst.hasArray())
+                UNSAFE.copyMemory(null, slotAddress(slot), dst.array(), BYTE_ARRAY_BASE + dst.arrayOffset()
+                        + position, length);
+            else
+                UNSAFE.copyMemory(slotAddress(slot), UnsafeDirectByteBuffer.getAddress(dst) + position, length);
+            dst.position(position + length);
+            referenced[slot] = true;
+            hits++;
+            return CoderResult.UNDERFLOW;
+        }
+        misses++;
+        int start = dst.position();
+        CoderResult result = encoder.encodeString(src, dst);
+        int length = dst.position() - start;
+        if (result.isUnderflow() && length <= slotSize)
+            admit(src, dst, start, length);
+        return result;
+    }
+
+    private void admit(String src, ByteBuffer dst, int start, int length) {
+        int slot = evict();
+        if (dst.hasArray())
+            UNSAFE.copyMemory(dst.array(), BYTE_ARRAY_BASE + dst.arrayOffset() + start, null, slotAddress(slot),
+                    length);
+        else
+            UNSAFE.copyMemory(UnsafeDirectByteBuffer.getAddress(dst) + start, slotAddress(slot), length);
+        slotKeys[slot] = src;
+        slotLengths[slot] = length;
+        // a new entry gets no second chance until it is hit
+        referenced[slot] = false;
+        insert(src, slot);
+        size++;
+    }
+
+    /**
+     * @return a free slot, evicting the first unreferenced entry from the clock hand if the cache is full
+     */
+    private int evict() {
+        while (true) {
+            int slot = hand;
+            if (++hand == entries)
+                hand = 0;
+            if (slotKeys[slot] == null)
+                return slot;
+            if (referenced[slot]) {
+                referenced[slot] = false;
+            } else {
+                remove(slotKeys[slot]);
+                slotKeys[slot] = null;
+                size--;
+                return slot;
+            }
+        }
+    }
+
+    private long slotAddress(int slot) {
+        return slabAddress + (long) slot * slotSize;
+    }
+
+    private static int spread(int hash) {
+        return (hash ^ (hash >>> 16)) * 0x9E3779B9;
+    }
+
+    private int find(String key) {
+        int hash = key.hashCode();
+        int i = spread(hash) & mask;
+        String k;
+        while ((k = keys[i]) != null) {
+            if (k == key || (k.hashCode() == hash && k.equals(key)))
+                return i;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insert(String key, int slot) {
+        int i = spread(key.hashCode()) & mask;
+        while (keys[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        keySlots[i] = slot;
+    }
+
+    /**
+     * Linear probing delete, shifting back later entries in the probe chain to close the gap.
+     */
+    private void remove(String key) {
+        int gap = find(key);
+        int i = gap;
+        while (true) {
+            i = (i + 1) & mask;
+            String k = keys[i];
+            if (k == null)
+                break;
+            int home = spread(k.hashCode()) & mask;
+            // move k into the gap unless its home is cyclically in (gap, i]
+            boolean stays = gap <= i ? (gap < home && home <= i) : (gap < home || home <= i);
+            if (!stays) {
+                keys[gap] = k;
+                keySlots[gap] = keySlots[i];
+                gap = i;
+            }
+        }
+        keys[gap] = null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    /**
+     * @return bytes used by the slab and the index for each cache entry, not counting the cached Strings themselves
+     */
+    public double footprintPerEntry() {
+        long referenceSize = UNSAFE.arrayIndexScale(String[].class);
+        long index = keys.length * (referenceSize + 4);
+        long perSlot = (long) entries * (referenceSize + 4 + 1);
+        return (slab.capacity() + index + perSlot) / (double) entries;
+    }
+
+    /**
+     * Releases the slab, the cache can't be used after this.
+     */
+    public void free() {
+        UnsafeDirectByteBuffer.free(slab);
+    }
+
+    @Override
+    public String toString() {
+        long lookups = hits + misses;
+        return String.format("Utf8EncodedCache entries=%d slotSize=%d size=%d hits=%d misses=%d hitRatio=%.3f "
+                + "footprintPerEntry=%.1fB", entries, slotSize, size, hits, misses,
+                lookups == 0 ? 0.0 : hits / (double) lookups, footprintPerEntry());
+    }
+}
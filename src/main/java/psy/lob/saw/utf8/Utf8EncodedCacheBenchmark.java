@@ -0,0 +1,125 @@
+package psy.lob.saw.utf8;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Encoding one key per op, drawn from a Zipfian distribution over a fixed set of distinct keys (short
+ * {@link Utf8Corpus} strings, made unique), through a {@link Utf8EncodedCache} against plain {@link CustomUtf8Encoder}
+ * encoding. The hit ratio follows from the cache size against the key count and the skew, and is printed with the
+ * footprint per cached entry at the end of each trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class Utf8EncodedCacheBenchmark {
+	private static final int KEYS = 10000;
+	// a power of 2 sequence of pre-drawn key indexes, so drawing is not measured
+	private static final int SEQUENCE_LENGTH = 1 << 16;
+	private static final int SLOT_SIZE = 128;
+
+	@Param({ "256", "1024", "4096" })
+	int cacheEntries;
+
+	/**
+	 * Zipf exponent, the higher the more the most popular keys dominate.
+	 */
+	@Param({ "0.8", "1.2" })
+	double skew;
+
+	/**
+	 * The {@link Utf8Corpus} the keys are drawn from, at short lengths.
+	 */
+	@Param({ "mixed", "cjk" })
+	String corpus;
+
+	@Param({ "false", "true" })
+	boolean directBuffer;
+
+	private String[] keys;
+	private int[] sequence;
+	private int next;
+	private Utf8EncodedCache cache;
+	private CustomUtf8Encoder encoder;
+	private ByteBuffer buffy;
+
+	@Setup
+	public void init() {
+		List<String> strings = Utf8Corpus.load(corpus, "short");
+		keys = new String[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			keys[i] = strings.get(i % strings.size()) + i;
+		}
+		sequence = zipf(KEYS, skew, SEQUENCE_LENGTH, new Random(Utf8Corpus.DEFAULT_SEED));
+		cache = new Utf8EncodedCache(cacheEntries, SLOT_SIZE);
+		encoder = new CustomUtf8Encoder();
+		buffy = directBuffer ? ByteBuffer.allocateDirect(4096) : ByteBuffer.allocate(4096);
+	}
+
+	/**
+	 * @return count draws of [0, n) where k has probability proportional to 1/(k+1)^skew
+	 */
+	static int[] zipf(int n, double skew, int count, Random random) {
+		double[] cdf = new double[n];
+		double sum = 0;
+		for (int k = 0; k < n; k++) {
+			sum += 1 / Math.pow(k + 1, skew);
+			cdf[k] = sum;
+		}
+		int[] draws = new int[count];
+		for (int i = 0; i < count; i++) {
+			double u = random.nextDouble() * sum;
+			int low = 0;
+			int high = n - 1;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (cdf[mid] < u) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			draws[i] = low;
+		}
+		return draws;
+	}
+
+	@TearDown
+	public void report() {
+		// only the cached benchmark uses it
+		if (cache.hits() + cache.misses() != 0) {
+			System.out.println(cache);
+		}
+		cache.free();
+	}
+
+	private String nextKey() {
+		return keys[sequence[next++ & (SEQUENCE_LENGTH - 1)]];
+	}
+
+	@Benchmark
+	public int cached() {
+		buffy.clear();
+		cache.encodeString(nextKey(), buffy);
+		return buffy.position();
+	}
+
+	@Benchmark
+	public int customEncoder() {
+		buffy.clear();
+		encoder.encodeString(nextKey(), buffy);
+		return buffy.position();
+	}
+}
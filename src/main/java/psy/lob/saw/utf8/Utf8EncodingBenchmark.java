@@ -1,10 +1,5 @@
 package psy.lob.saw.utf8;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
@@ -14,12 +9,29 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 
+/**
+ * Encoding each string of a {@link Utf8Corpus} into a heap or direct buffer. The default matrix is every corpus at
+ * every length distribution, narrow it down with -p. The old ascii ratio inputs are still there, e.g.
+ * -p corpus=0,0.5,0.9,0.99,1 -p lengths=samples.
+ */
 @State(Scope.Thread)
 public class Utf8EncodingBenchmark {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Param({ "samples", "ascii", "latin1", "cjk", "emoji", "mixed" })
+	String corpus;
+
+	@Param({ "samples", "short", "long" })
+	String lengths;
+
+	@Param({ "false", "true" })
+	boolean directBuffer;
+
 	// experiment test input
 	private List<String> strings = new ArrayList<String>();
 
@@ -30,80 +42,69 @@ public class Utf8EncodingBenchmark {
 
 	// My own encoder
 	private CustomUtf8Encoder customEncoder;
+	private CustomUtf8Encoder customEncoderAsciiWords;
 
 	// Destination buffer, the slayer
 	private ByteBuffer buffySummers;
 
 	@Setup
 	public void init() {
-		boolean useDirectBuffer = Boolean
-		        .getBoolean("Utf8EncodingBenchmark.directBuffer");
-		InputStream testTextStream = null;
-		InputStreamReader inStreamReader = null;
-		BufferedReader buffReader = null;
-		try {
-			testTextStream = getClass().getResourceAsStream("/Utf8Samples.txt");
-			inStreamReader = new InputStreamReader(testTextStream, "UTF-8");
-			buffReader = new BufferedReader(inStreamReader);
-			String line;
-			while ((line = buffReader.readLine()) != null) {
-				strings.add(line);
-			}
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		} finally {
-			closeStream(testTextStream);
-			closeReader(inStreamReader);
-			closeReader(buffReader);
-		}
+		strings = Utf8Corpus.load(corpus, lengths);
 
-		if (useDirectBuffer) {
+		if (directBuffer) {
 			buffySummers = ByteBuffer.allocateDirect(4096);
 		} else {
 			buffySummers = ByteBuffer.allocate(4096);
 		}
 		chars = new char[4096];
 		charBuffer = CharBuffer.wrap(chars);
-		encoder = Charset.forName("UTF-8").newEncoder();
+		encoder = UTF8.newEncoder();
 		customEncoder = new CustomUtf8Encoder();
+		customEncoderAsciiWords = new CustomUtf8Encoder(true);
 	}
 
-	private void closeStream(InputStream inStream) {
-		if (inStream != null) {
-			try {
-				inStream.close();
-			} catch (IOException e) {
-				throw new RuntimeException(e);
-			}
+	@Benchmark
+	public int customEncoder() {
+		int countBytes = 0;
+		for (int stringIndex = 0; stringIndex < strings.size(); stringIndex++) {
+			customEncoder.encodeString(strings.get(stringIndex), buffySummers);
+			countBytes += buffySummers.position();
+			buffySummers.clear();
 		}
+		return countBytes;
 	}
 
-	private void closeReader(Reader buffReader) {
-		if (buffReader != null) {
-			try {
-				buffReader.close();
-			} catch (IOException e) {
-				throw new RuntimeException(e);
-			}
+	@Benchmark
+	public int customEncoderAsciiWords() {
+		int countBytes = 0;
+		for (int stringIndex = 0; stringIndex < strings.size(); stringIndex++) {
+			customEncoderAsciiWords.encodeString(strings.get(stringIndex), buffySummers);
+			countBytes += buffySummers.position();
+			buffySummers.clear();
 		}
+		return countBytes;
 	}
 
 	@Benchmark
-	public int customEncoder() {
+	public int stringGetBytes() throws UnsupportedEncodingException {
 		int countBytes = 0;
 		for (int stringIndex = 0; stringIndex < strings.size(); stringIndex++) {
-			customEncoder.encodeString(strings.get(stringIndex), buffySummers);
+			buffySummers.put(strings.get(stringIndex).getBytes("UTF-8"));
 			countBytes += buffySummers.position();
 			buffySummers.clear();
 		}
 		return countBytes;
 	}
 
+	/**
+	 * String.getBytes with a Charset skips the lookup by name, and on JDK9+ is
+	 * intrinsified for LATIN1 Strings.
+	 */
 	@Benchmark
-	public int stringGetBytes() throws UnsupportedEncodingException {
+	public int stringGetBytesCharset() {
 		int countBytes = 0;
 		for (int stringIndex = 0; stringIndex < strings.size(); stringIndex++) {
-			buffySummers.put(strings.get(stringIndex).getBytes("UTF-8"));
+			buffySummers.put(strings.get(stringIndex).getBytes(UTF8));
 			countBytes += buffySummers.position();
 			buffySummers.clear();
 		}
@@ -0,0 +1,121 @@
+package psy.lob.saw.utf8;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Encoding each line into a buffer of its own: sizing it exactly with a length pass, against guessing the size and
+ * retrying on OVERFLOW, or over allocating for the worst case.
+ */
+@State(Scope.Thread)
+public class Utf8ExactEncodingBenchmark {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * "samples" uses the Utf8Samples.txt lines as is, a number in [0,1] generates lines of the same lengths where each
+	 * char is ascii with that probability.
+	 */
+	@Param({ "samples", "0", "0.5", "0.9", "1" })
+	String asciiRatio;
+
+	@Param({ "false", "true" })
+	boolean directBuffer;
+
+	// experiment test input
+	private List<String> strings;
+
+	// My own encoder
+	private CustomUtf8Encoder customEncoder;
+
+	// Slab to slice exact buffers from, reset per op
+	private ByteBuffer slab;
+
+	@Setup
+	public void init() {
+		strings = Utf8Samples.load(asciiRatio);
+		int totalLength = 0;
+		for (String string : strings) {
+			totalLength += string.getBytes(UTF8).length;
+		}
+		slab = allocate(totalLength);
+		customEncoder = new CustomUtf8Encoder();
+	}
+
+	private ByteBuffer allocate(int capacity) {
+		return directBuffer ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	@Benchmark
+	public int utf8Length() {
+		int countBytes = 0;
+		for (int stringIndex = 0; stringIndex < strings.size(); stringIndex++) {
+			countBytes += CustomUtf8Encoder.utf8Length(strings.get(stringIndex));
+		}
+		return countBytes;
+	}
+
+	@Benchmark
+	public int stringGetBytesLength() {
+		int countBytes = 0;
+		for (int stringIndex = 0; stringIndex < strings.size(); stringIndex++) {
+			countBytes += strings.get(stringIndex).getBytes(UTF8).length;
+		}
+		return countBytes;
+	}
+
+	@Benchmark
+	public int twoPassExact() {
+		int countBytes = 0;
+		for (int stringIndex = 0; stringIndex < strings.size(); stringIndex++) {
+			countBytes += customEncoder.encodeExact(strings.get(stringIndex), directBuffer).limit();
+		}
+		return countBytes;
+	}
+
+	@Benchmark
+	public int twoPassExactSlab() {
+		int countBytes = 0;
+		slab.clear();
+		for (int stringIndex = 0; stringIndex < strings.size(); stringIndex++) {
+			countBytes += customEncoder.encodeExact(strings.get(stringIndex), slab).limit();
+		}
+		return countBytes;
+	}
+
+	/**
+	 * Guess one byte per char, and allocate for the worst case if that turns out wrong.
+	 */
+	@Benchmark
+	public int singlePassRetry() {
+		int countBytes = 0;
+		for (int stringIndex = 0; stringIndex < strings.size(); stringIndex++) {
+			String string = strings.get(stringIndex);
+			ByteBuffer buffy = allocate(string.length());
+			if (customEncoder.encodeString(string, buffy).isOverflow()) {
+				buffy = allocate(string.length() * 3);
+				customEncoder.encodeString(string, buffy);
+			}
+			countBytes += buffy.position();
+		}
+		return countBytes;
+	}
+
+	@Benchmark
+	public int singlePassOverAllocate() {
+		int countBytes = 0;
+		for (int stringIndex = 0; stringIndex < strings.size(); stringIndex++) {
+			String string = strings.get(stringIndex);
+			ByteBuffer buffy = allocate(string.length() * 3);
+			customEncoder.encodeString(string, buffy);
+			countBytes += buffy.position();
+		}
+		return countBytes;
+	}
+}
@@ -0,0 +1,166 @@
+package psy.lob.saw.utf8;
+
+import static psy.lob.saw.util.UnsafeAccess.UNSAFE;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A table of canonical Strings keyed by their UTF-8 bytes, for turning the same field names and symbols in inbound
+ * messages into the same String instance every time. The bytes are hashed and compared a word at a time straight
+ * from the byte[] range or the address, so a hit allocates nothing. A miss decodes the bytes once with the thread's
+ * {@link CustomUtf8Decoder}, which hands the decoded value to the String via {@link UnsafeString}, and adds it.
+ * <p>
+ * Entries are immutable and never removed, and are added by CAS into an open addressing table, so any number of
+ * threads can look up and add concurrently without locking. The table is bounded: once it holds its capacity of
+ * entries misses are decoded into a new String every time, which keeps a burst of unique junk from growing it for
+ * good.
+ *
+ * @author nitsan
+ */
+public final class Utf8InternTable {
+    private static final long BYTE_ARRAY_BASE = UNSAFE.arrayBaseOffset(byte[].class);
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+
+    static final class Entry {
+        final byte[] bytes;
+        final int hash;
+        final String value;
+
+        Entry(byte[] bytes, int hash, String value) {
+            this.bytes = bytes;
+            this.hash = hash;
+            this.value = value;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> table;
+    private final int mask;
+    private final int capacity;
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * @param capacity the most entries to hold, the table is sized to stay at most half full
+     */
+    public Utf8InternTable(int capacity) {
+        if (capacity < 1 || capacity > 1 << 29)
+            throw new IllegalArgumentException("capacity=" + capacity);
+        this.capacity = capacity;
+        int length = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        this.table = new AtomicReferenceArray<Entry>(length);
+        this.mask = length - 1;
+    }
+
+    /**
+     * @return the canonical String for the bytes in [offset, offset + length), or null if they are malformed
+     */
+    public String get(byte[] src, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > src.length)
+            throw new IndexOutOfBoundsException("offset=" + offset + " length=" + length + " array=" + src.length);
+        return get(src, BYTE_ARRAY_BASE + offset, length);
+    }
+
+    /**
+     * @return the canonical String for the length bytes at address, or null if they are malformed
+     */
+    public String get(long address, int length) {
+        return get(null, address, length);
+    }
+
+    /**
+     * @return the canonical String for the bytes between the buffer position and limit, or null if they are
+     *         malformed. The position is not moved.
+     */
+    public String get(ByteBuffer src) {
+        if (src.isDirect())
+            return get(null, UnsafeDirectByteBuffer.getAddress(src) + src.position(), src.remaining());
+        else
+            // read only views included, see UnsafeDirectByteBuffer.getArray
+            return get(UnsafeDirectByteBuffer.getArray(src),
+                    BYTE_ARRAY_BASE + UnsafeDirectByteBuffer.getArrayOffset(src) + src.position(), src.remaining());
+    }
+
+    private String get(Object base, long offset, int length) {
+        int hash = hash(base, offset, length);
+        int i = spread(hash) & mask;
+        while (true) {
+            Entry e = table.get(i);
+            if (e == null) {
+                String value = decode(base, offset, length);
+                if (value == null || !reserve())
+                    return value;
+                Entry added = new Entry(copy(base, offset, length), hash, value);
+                if (table.compareAndSet(i, null, added))
+                    return value;
+                // lost the slot, give back the reservation and look at what the winner put there
+                size.decrementAndGet();
+                continue;
+            }
+            if (e.hash == hash && e.bytes.length == length && equal(e.bytes, base, offset, length))
+                return e.value;
+            i = (i + 1) & mask;
+        }
+    }
+
+    private boolean reserve() {
+        while (true) {
+            int current = size.get();
+            if (current >= capacity)
+                return false;
+            if (size.compareAndSet(current, current + 1))
+                return true;
+        }
+    }
+
+    private static String decode(Object base, long offset, int length) {
+        CustomUtf8Decoder decoder = ThreadLocalUtf8Codec.decoder();
+        if (base == null)
+            return decoder.decodeString(offset, 0, length);
+        // offset is BYTE_ARRAY_BASE + index
+        return decoder.decodeString((byte[]) base, (int) (offset - BYTE_ARRAY_BASE), length);
+    }
+
+    private static byte[] copy(Object base, long offset, int length) {
+        byte[] bytes = new byte[length];
+        UNSAFE.copyMemory(base, offset, bytes, BYTE_ARRAY_BASE, length);
+        return bytes;
+    }
+
+    private static int hash(Object base, long offset, int length) {
+        long h = SEED ^ length;
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            h = Long.rotateLeft((h ^ UNSAFE.getLong(base, offset + i)) * SEED, 29);
+        }
+        for (; i < length; i++) {
+            h = (h ^ UNSAFE.getByte(base, offset + i)) * SEED;
+        }
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equal(byte[] bytes, Object base, long offset, int length) {
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            if (UNSAFE.getLong(bytes, BYTE_ARRAY_BASE + i) != UNSAFE.getLong(base, offset + i))
+                return false;
+        }
+        for (; i < length; i++) {
+            if (bytes[i] != UNSAFE.getByte(base, offset + i))
+                return false;
+        }
+        return true;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,136 @@
+package psy.lob.saw.utf8;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import psy.lob.saw.AllocationProfiler;
+
+/**
+ * Turning the UTF-8 bytes of an inbound field name into a String, one per op, drawn from a Zipfian distribution over
+ * a given number of distinct names (short {@link Utf8Corpus} strings, made unique) sitting in a heap or direct
+ * buffer: the {@link Utf8InternTable}, new String(bytes, UTF8) (direct input is copied out to a byte[] first), the
+ * same plus String.intern(), and the {@link CustomUtf8Decoder}. The table is shared, so run with -t to check it holds
+ * up under concurrent readers. Run main to get gc.alloc.rate.norm alongside.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Utf8InternTableBenchmark {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int SEQUENCE_LENGTH = 1 << 16;
+
+	@State(Scope.Benchmark)
+	public static class Names {
+		@Param({ "100", "10000" })
+		int cardinality;
+
+		@Param({ "false", "true" })
+		boolean directBuffer;
+
+		ByteBuffer buffy;
+		int[] offsets;
+		int[] lengths;
+		int[] sequence;
+		Utf8InternTable table;
+
+		@Setup
+		public void init() {
+			List<String> strings = Utf8Corpus.load("mixed", "short");
+			byte[][] names = new byte[cardinality][];
+			int total = 0;
+			for (int i = 0; i < cardinality; i++) {
+				names[i] = (strings.get(i % strings.size()) + i).getBytes(UTF8);
+				total += names[i].length;
+			}
+			buffy = directBuffer ? ByteBuffer.allocateDirect(total) : ByteBuffer.allocate(total);
+			offsets = new int[cardinality];
+			lengths = new int[cardinality];
+			for (int i = 0; i < cardinality; i++) {
+				offsets[i] = buffy.position();
+				lengths[i] = names[i].length;
+				buffy.put(names[i]);
+			}
+			sequence = Utf8EncodedCacheBenchmark.zipf(cardinality, 1.0, SEQUENCE_LENGTH, new Random(
+			        Utf8Corpus.DEFAULT_SEED));
+			table = new Utf8InternTable(cardinality);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		ByteBuffer view;
+		byte[] scratch = new byte[4096];
+		// spread the threads over the sequence
+		int next = (int) Thread.currentThread().getId() * 4099;
+
+		int nextName(Names names) {
+			// JMH 1.8 can't hand one state to another's setup, so this is done on first use
+			if (view == null) {
+				view = names.buffy.duplicate();
+			}
+			int name = names.sequence[next++ & (SEQUENCE_LENGTH - 1)];
+			view.limit(names.offsets[name] + names.lengths[name]).position(names.offsets[name]);
+			return name;
+		}
+
+		/**
+		 * @return the name bytes in a byte[], as new String needs them
+		 */
+		byte[] bytes(int name) {
+			if (view.hasArray()) {
+				return view.array();
+			}
+			view.get(scratch, 0, view.remaining());
+			return scratch;
+		}
+
+		int bytesOffset(Names names, int name) {
+			return view.hasArray() ? view.arrayOffset() + names.offsets[name] : 0;
+		}
+	}
+
+	@Benchmark
+	public String internTable(Names names, Cursor cursor) {
+		cursor.nextName(names);
+		return names.table.get(cursor.view);
+	}
+
+	@Benchmark
+	public String newString(Names names, Cursor cursor) {
+		int name = cursor.nextName(names);
+		return new String(cursor.bytes(name), cursor.bytesOffset(names, name), names.lengths[name], UTF8);
+	}
+
+	@Benchmark
+	public String newStringIntern(Names names, Cursor cursor) {
+		int name = cursor.nextName(names);
+		return new String(cursor.bytes(name), cursor.bytesOffset(names, name), names.lengths[name], UTF8).intern();
+	}
+
+	@Benchmark
+	public String customDecoder(Names names, Cursor cursor) {
+		cursor.nextName(names);
+		return ThreadLocalUtf8Codec.decoder().decodeString(cursor.view);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options opt = new OptionsBuilder().include(Utf8InternTableBenchmark.class.getSimpleName())
+		        .addProfiler(AllocationProfiler.class).build();
+		new Runner(opt).run();
+	}
+}
@@ -0,0 +1,153 @@
+package psy.lob.saw.utf8;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CoderResult;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Appending the sample lines to a log file, one line per op (so the score is lines per second and the bytes counter
+ * is bytes per second): the mapped sink, against a BufferedWriter over an OutputStreamWriter, and the encoder into a
+ * reused direct buffer written out with FileChannel.write when full. A fresh file is used per iteration, and the
+ * writers are flushed/closed in the iteration tear down which is not measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class Utf8MappedSinkBenchmark {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Param({ "1048576", "67108864" })
+	int regionSize;
+
+	@AuxCounters
+	@State(Scope.Thread)
+	public static class Written {
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			bytes = 0;
+		}
+	}
+
+	// experiment test input
+	String[] lines;
+	int[] lineBytes;
+	int lineIndex;
+
+	File file;
+	MappedUtf8Sink mappedSink;
+	MappedUtf8Sink mappedSinkForceOnRoll;
+	Writer writer;
+	RandomAccessFile channelFile;
+	FileChannel channel;
+	ByteBuffer channelBuffy;
+	CustomUtf8Encoder customEncoder;
+
+	@Setup
+	public void init() {
+		List<String> samples = Utf8Samples.load();
+		lines = samples.toArray(new String[samples.size()]);
+		lineBytes = new int[lines.length];
+		for (int i = 0; i < lines.length; i++) {
+			// with the new line
+			lineBytes[i] = CustomUtf8Encoder.utf8Length(lines[i]) + 1;
+		}
+		customEncoder = new CustomUtf8Encoder();
+		channelBuffy = ByteBuffer.allocateDirect(65536);
+	}
+
+	@Setup(Level.Iteration)
+	public void open() throws IOException {
+		file = File.createTempFile("Utf8MappedSinkBenchmark", ".log");
+		mappedSink = new MappedUtf8Sink(file, regionSize, MappedUtf8Sink.ForcePolicy.NEVER);
+		mappedSinkForceOnRoll = new MappedUtf8Sink(new File(file.getPath() + ".forced"), regionSize,
+		        MappedUtf8Sink.ForcePolicy.ON_ROLL);
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file.getPath() + ".writer"), UTF8),
+		        65536);
+		channelFile = new RandomAccessFile(file.getPath() + ".channel", "rw");
+		channel = channelFile.getChannel();
+		channelBuffy.clear();
+	}
+
+	@TearDown(Level.Iteration)
+	public void close() throws IOException {
+		mappedSink.close();
+		mappedSinkForceOnRoll.close();
+		writer.close();
+		drain();
+		channelFile.close();
+		for (String suffix : new String[] { "", ".forced", ".writer", ".channel" }) {
+			new File(file.getPath() + suffix).delete();
+		}
+	}
+
+	private String next(Written written) {
+		if (++lineIndex == lines.length) {
+			lineIndex = 0;
+		}
+		written.bytes += lineBytes[lineIndex];
+		return lines[lineIndex];
+	}
+
+	@Benchmark
+	public void mappedSink(Written written) throws IOException {
+		mappedSink.writeLine(next(written));
+	}
+
+	@Benchmark
+	public void mappedSinkForceOnRoll(Written written) throws IOException {
+		mappedSinkForceOnRoll.writeLine(next(written));
+	}
+
+	@Benchmark
+	public void bufferedWriter(Written written) throws IOException {
+		writer.write(next(written));
+		writer.write('\n');
+	}
+
+	@Benchmark
+	public void channelWrite(Written written) throws IOException {
+		String line = next(written);
+		ByteBuffer buffy = channelBuffy;
+		// lines are much shorter than the buffer, so one drain will do
+		if (customEncoder.encodeString(line, buffy) == CoderResult.OVERFLOW) {
+			drain();
+			customEncoder.encodeString(line, buffy);
+		}
+		if (!buffy.hasRemaining()) {
+			drain();
+		}
+		buffy.put((byte) '\n');
+	}
+
+	private void drain() throws IOException {
+		channelBuffy.flip();
+		while (channelBuffy.hasRemaining()) {
+			channel.write(channelBuffy);
+		}
+		channelBuffy.clear();
+	}
+}
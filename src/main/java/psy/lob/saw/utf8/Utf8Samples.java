@@ -0,0 +1,96 @@
+package psy.lob.saw.utf8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Loads the Utf8Samples.txt lines shared by the utf8 benchmarks, or synthetic lines of the same lengths.
+ */
+public class Utf8Samples {
+	// non-ascii chars used for the synthetic input, mixing 2 and 3 byte encodings
+	private static final String NON_ASCII = "\u00e9\u00fc\u00f1\u00df\u0436\u05d0\u4e2d\u6587\u3042\uac00";
+
+	/**
+	 * @param asciiRatio "samples" for the Utf8Samples.txt lines as is, or a
+	 *            number in [0,1] for synthetic lines
+	 */
+	public static List<String> load(String asciiRatio) {
+		List<String> samples = load();
+		if ("samples".equals(asciiRatio)) {
+			return samples;
+		}
+		return synthesize(samples, Double.parseDouble(asciiRatio));
+	}
+
+	public static List<String> load() {
+		List<String> strings = new ArrayList<String>();
+		InputStream testTextStream = null;
+		InputStreamReader inStreamReader = null;
+		BufferedReader buffReader = null;
+		try {
+			testTextStream = Utf8Samples.class
+			        .getResourceAsStream("/Utf8Samples.txt");
+			inStreamReader = new InputStreamReader(testTextStream, "UTF-8");
+			buffReader = new BufferedReader(inStreamReader);
+			String line;
+			while ((line = buffReader.readLine()) != null) {
+				strings.add(line);
+			}
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			closeStream(testTextStream);
+			closeReader(inStreamReader);
+			closeReader(buffReader);
+		}
+		return strings;
+	}
+
+	/**
+	 * @return lines of the same lengths as the samples where each char is ascii
+	 *         with the given probability
+	 */
+	public static List<String> synthesize(List<String> samples, double ratio) {
+		// fixed seed so all forks measure the same input
+		Random random = new Random(666);
+		List<String> synthetic = new ArrayList<String>(samples.size());
+		for (String sample : samples) {
+			char[] line = new char[sample.length()];
+			for (int i = 0; i < line.length; i++) {
+				if (random.nextDouble() < ratio) {
+					line[i] = (char) (' ' + random.nextInt(95));
+				} else {
+					line[i] = NON_ASCII.charAt(random.nextInt(NON_ASCII.length()));
+				}
+			}
+			synthetic.add(new String(line));
+		}
+		return synthetic;
+	}
+
+	private static void closeStream(InputStream inStream) {
+		if (inStream != null) {
+			try {
+				inStream.close();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private static void closeReader(Reader buffReader) {
+		if (buffReader != null) {
+			try {
+				buffReader.close();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package psy.lob.saw.utf8;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Encoding a line per op from many threads, comparing ways of getting hold of an encoder: a new one per call, a
+ * ThreadLocal, a shared pool and the stateless encoder. Run main to sweep the thread count from 1 to the number of
+ * cores, or use -t.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Utf8SharedEncoderBenchmark {
+	@State(Scope.Benchmark)
+	public static class Shared {
+		// experiment test input
+		final String[] strings;
+		final CodecPool<CustomUtf8Encoder> pool = CodecPool.encoders(Runtime.getRuntime().availableProcessors() * 2);
+
+		public Shared() {
+			List<String> samples = Utf8Samples.load();
+			strings = samples.toArray(new String[samples.size()]);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class PerThread {
+		// Destination buffer, the slayer
+		ByteBuffer buffySummers;
+		int stringIndex;
+
+		@Setup
+		public void init() {
+			buffySummers = ByteBuffer.allocateDirect(4096);
+		}
+
+		String next(Shared shared) {
+			if (++stringIndex == shared.strings.length) {
+				stringIndex = 0;
+			}
+			return shared.strings[stringIndex];
+		}
+	}
+
+	@Benchmark
+	public int newEncoder(Shared shared, PerThread local) {
+		ByteBuffer buffy = local.buffySummers;
+		buffy.clear();
+		new CustomUtf8Encoder().encodeString(local.next(shared), buffy);
+		return buffy.position();
+	}
+
+	@Benchmark
+	public int threadLocal(Shared shared, PerThread local) {
+		ByteBuffer buffy = local.buffySummers;
+		buffy.clear();
+		ThreadLocalUtf8Codec.encodeString(local.next(shared), buffy);
+		return buffy.position();
+	}
+
+	@Benchmark
+	public int pooled(Shared shared, PerThread local) {
+		ByteBuffer buffy = local.buffySummers;
+		buffy.clear();
+		CustomUtf8Encoder encoder = shared.pool.acquire();
+		try {
+			encoder.encodeString(local.next(shared), buffy);
+		} finally {
+			shared.pool.release(encoder);
+		}
+		return buffy.position();
+	}
+
+	@Benchmark
+	public int stateless(Shared shared, PerThread local) {
+		ByteBuffer buffy = local.buffySummers;
+		buffy.clear();
+		StatelessUtf8Encoder.encodeString(local.next(shared), buffy);
+		return buffy.position();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		int cores = Runtime.getRuntime().availableProcessors();
+		// powers of 2 up to the core count, and the core count itself
+		for (int threads = 1; threads < cores; threads *= 2) {
+			run(threads);
+		}
+		run(cores);
+	}
+
+	private static void run(int threads) throws RunnerException {
+		Options opt = new OptionsBuilder()
+		        .include(Utf8SharedEncoderBenchmark.class.getSimpleName())
+		        .threads(threads).build();
+		new Runner(opt).run();
+	}
+}
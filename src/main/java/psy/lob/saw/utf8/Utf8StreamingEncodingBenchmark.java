@@ -0,0 +1,110 @@
+package psy.lob.saw.utf8;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Encoding a multi-MB document (the sample lines repeated) through a fixed size direct buffer, which is cleared
+ * whenever it is full, standing in for a channel write loop.
+ */
+@State(Scope.Thread)
+public class Utf8StreamingEncodingBenchmark {
+	@Param({ "1048576", "8388608" })
+	int documentSize;
+
+	@Param({ "4096", "16384", "65536" })
+	int chunkSize;
+
+	// experiment test input
+	private String document;
+	private StringBuilder documentBuilder;
+	private char[] documentChars;
+
+	// CharsetEncoder helpers
+	private CharsetEncoder encoder;
+
+	// My own encoder
+	private StreamingUtf8Encoder streamingEncoder;
+
+	// Destination buffer, the slayer
+	private ByteBuffer buffySummers;
+
+	@Setup
+	public void init() {
+		List<String> samples = Utf8Samples.load();
+		documentBuilder = new StringBuilder(documentSize);
+		for (int i = 0; documentBuilder.length() < documentSize; i++) {
+			documentBuilder.append(samples.get(i % samples.size())).append('\n');
+		}
+		documentBuilder.setLength(documentSize);
+		// don't leave a dangling high surrogate at the end
+		if (Character.isHighSurrogate(documentBuilder.charAt(documentSize - 1))) {
+			documentBuilder.setCharAt(documentSize - 1, '\n');
+		}
+		document = documentBuilder.toString();
+		documentChars = document.toCharArray();
+		buffySummers = ByteBuffer.allocateDirect(chunkSize);
+		encoder = Charset.forName("UTF-8").newEncoder();
+		streamingEncoder = new StreamingUtf8Encoder();
+	}
+
+	@Benchmark
+	public long streamingEncoderString() {
+		return streamingEncode(document);
+	}
+
+	@Benchmark
+	public long streamingEncoderCharSequence() {
+		return streamingEncode(documentBuilder);
+	}
+
+	private long streamingEncode(CharSequence source) {
+		long countBytes = 0;
+		streamingEncoder.reset(source);
+		while (streamingEncoder.encode(buffySummers).isOverflow()) {
+			countBytes += buffySummers.position();
+			buffySummers.clear();
+		}
+		countBytes += buffySummers.position();
+		buffySummers.clear();
+		return countBytes;
+	}
+
+	@Benchmark
+	public long charsetEncoderString() {
+		return charsetEncode(CharBuffer.wrap(document));
+	}
+
+	@Benchmark
+	public long charsetEncoderCharArray() {
+		return charsetEncode(CharBuffer.wrap(documentChars));
+	}
+
+	private long charsetEncode(CharBuffer source) {
+		long countBytes = 0;
+		encoder.reset();
+		CoderResult result;
+		do {
+			result = encoder.encode(source, buffySummers, true);
+			countBytes += buffySummers.position();
+			buffySummers.clear();
+		} while (result.isOverflow());
+		while (encoder.flush(buffySummers).isOverflow()) {
+			countBytes += buffySummers.position();
+			buffySummers.clear();
+		}
+		countBytes += buffySummers.position();
+		buffySummers.clear();
+		return countBytes;
+	}
+}
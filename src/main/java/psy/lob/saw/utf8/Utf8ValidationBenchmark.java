@@ -0,0 +1,121 @@
+package psy.lob.saw.utf8;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Validating a whole inbound buffer of UTF-8 with {@link Utf8Validator}, against a CharsetDecoder set to REPORT
+ * decoding into a reused CharBuffer, and the allocating CharsetDecoder.decode(ByteBuffer). The valid inputs are
+ * {@link Utf8Corpus} lines joined by '\n', the invalid ones are the mixed corpus with a single malformed sequence 90%
+ * of the way in: an overlong '/', a surrogate, a code point above U+10FFFF, or a truncated 3 byte sequence.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class Utf8ValidationBenchmark {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Param({ "samples", "ascii", "cjk", "mixed", "overlong", "surrogate", "aboveMax", "truncated" })
+	String input;
+
+	@Param({ "false", "true" })
+	boolean directBuffer;
+
+	private ByteBuffer bytes;
+	private CharBuffer chars;
+	private CharsetDecoder decoder;
+
+	@Setup
+	public void init() {
+		byte[] utf8 = encode(Utf8Corpus.load(isValidInput() ? input : "mixed", "samples"));
+		if (!isValidInput()) {
+			utf8 = corrupt(utf8, input);
+		}
+		bytes = directBuffer ? ByteBuffer.allocateDirect(utf8.length) : ByteBuffer.allocate(utf8.length);
+		bytes.put(utf8).flip();
+		chars = CharBuffer.allocate(utf8.length);
+		decoder = UTF8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+		        .onUnmappableCharacter(CodingErrorAction.REPORT);
+		if (Utf8Validator.isValid(bytes) != isValidInput()) {
+			throw new IllegalStateException("Validator got " + input + " wrong");
+		}
+	}
+
+	private boolean isValidInput() {
+		return "samples".equals(input) || "ascii".equals(input) || "cjk".equals(input) || "mixed".equals(input);
+	}
+
+	private static byte[] encode(List<String> lines) {
+		StringBuilder sb = new StringBuilder();
+		for (String line : lines) {
+			sb.append(line).append('\n');
+		}
+		return sb.toString().getBytes(UTF8);
+	}
+
+	private static byte[] corrupt(byte[] utf8, String input) {
+		byte[] bad;
+		if ("overlong".equals(input)) {
+			bad = new byte[] { (byte) 0xC0, (byte) 0xAF };
+		} else if ("surrogate".equals(input)) {
+			bad = new byte[] { (byte) 0xED, (byte) 0xA0, (byte) 0x80 };
+		} else if ("aboveMax".equals(input)) {
+			bad = new byte[] { (byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80 };
+		} else if ("truncated".equals(input)) {
+			bad = new byte[] { (byte) 0xE4, (byte) 0xB8 };
+		} else {
+			throw new IllegalArgumentException("Unknown input: " + input);
+		}
+		// put it on a line boundary so it doesn't land in the middle of a valid sequence
+		int at = utf8.length * 9 / 10;
+		while (utf8[at] != '\n') {
+			at++;
+		}
+		at++;
+		byte[] corrupted = new byte[utf8.length + bad.length];
+		System.arraycopy(utf8, 0, corrupted, 0, at);
+		System.arraycopy(bad, 0, corrupted, at, bad.length);
+		System.arraycopy(utf8, at, corrupted, at + bad.length, utf8.length - at);
+		return corrupted;
+	}
+
+	@Benchmark
+	public boolean validator() {
+		return Utf8Validator.isValid(bytes);
+	}
+
+	@Benchmark
+	public boolean charsetDecoder() {
+		// capacity is the input length, so clear is a rewind
+		bytes.clear();
+		chars.clear();
+		decoder.reset();
+		return !decoder.decode(bytes, chars, true).isError() && !decoder.flush(chars).isError();
+	}
+
+	@Benchmark
+	public boolean charsetDecoderAllocating() {
+		try {
+			bytes.clear();
+			decoder.decode(bytes);
+			return true;
+		} catch (CharacterCodingException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package psy.lob.saw.utf8;
+
+import static psy.lob.saw.util.UnsafeAccess.UNSAFE;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Checks bytes are well formed UTF-8 without decoding them. ASCII is skipped 8 bytes at a time with Unsafe long
+ * reads, multi byte sequences are checked against the well formed byte sequences table from the Unicode standard
+ * (table 3-7), which rules out overlong encodings, surrogates (U+D800-U+DFFF) and code points above U+10FFFF. Heap
+ * arrays and direct memory go through the same Unsafe code, as in {@link StatelessUtf8Encoder}.
+ *
+ * @author nitsan
+ */
+public final class Utf8Validator {
+    private static final long BYTE_ARRAY_BASE = UNSAFE.arrayBaseOffset(byte[].class);
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private Utf8Validator() {
+    }
+
+    public static boolean isValid(byte[] src) {
+        return validate(src, 0, src.length) == -1;
+    }
+
+    public static boolean isValid(ByteBuffer src) {
+        return validate(src) == -1;
+    }
+
+    /**
+     * @return the index of the first byte of the first malformed sequence in [from, to), or -1 if it is all valid
+     */
+    public static int validate(byte[] src, int from, int to) {
+        if (from < 0 || to > src.length || from > to)
+            throw new IndexOutOfBoundsException("from=" + from + " to=" + to + " length=" + src.length);
+        int invalid = validate(src, BYTE_ARRAY_BASE + from, to - from);
+        return invalid == -1 ? -1 : from + invalid;
+    }
+
+    /**
+     * Validates the bytes between the position and the limit, which are left as they are.
+     *
+     * @return the index in the buffer of the first byte of the first malformed sequence, or -1 if it is all valid
+     */
+    public static int validate(ByteBuffer src) {
+        int invalid;
+        if (src.isDirect())
+            invalid = validate(null, UnsafeDirectByteBuffer.getAddress(src) + src.position(), src.remaining());
+        else
+            // read only heap buffers have no accessible array, but do have one
+            invalid = validate(UnsafeDirectByteBuffer.getArray(src), BYTE_ARRAY_BASE
+                    + UnsafeDirectByteBuffer.getArrayOffset(src) + src.position(), src.remaining());
+        return invalid == -1 ? -1 : src.position() + invalid;
+    }
+
+    /**
+     * @return the offset from address of the first byte of the first malformed sequence, or -1 if it is all valid
+     */
+    public static int validate(long address, int length) {
+        return validate(null, address, length);
+    }
+
+    /**
+     * @param base array, or null if offset is an address
+     * @return the offset from the start of the first byte of the first malformed sequence, or -1 if it is all valid
+     */
+    private static int validate(Object base, long offset, int length) {
+        int i = 0;
+        while (i < length) {
+            // skip ascii a word at a time
+            while (i + 8 <= length) {
+                long nonAscii = UNSAFE.getLong(base, offset + i) & HIGH_BITS;
+                if (nonAscii != 0) {
+                    // step to the first non-ascii byte in memory order
+                    i += (LITTLE_ENDIAN ? Long.numberOfTrailingZeros(nonAscii)
+                            : Long.numberOfLeadingZeros(nonAscii)) >>> 3;
+                    break;
+                }
+                i += 8;
+            }
+            // and the tail a byte at a time
+            while (i < length && UNSAFE.getByte(base, offset + i) >= 0) {
+                i++;
+            }
+            if (i == length)
+                return -1;
+            int next = sequenceEnd(base, offset, i, length);
+            if (next < 0)
+                return i;
+            i = next;
+        }
+        return -1;
+    }
+
+    /**
+     * Checks the multi byte sequence starting at i against table 3-7.
+     *
+     * @return the index after the sequence, or -1 if it is malformed
+     */
+    private static int sequenceEnd(Object base, long offset, int i, int length) {
+        int b0 = UNSAFE.getByte(base, offset + i) & 0xFF;
+        // the allowed range for the second byte, the rest are always 0x80-0xBF
+        int size;
+        int low = 0x80;
+        int high = 0xBF;
+        if (b0 < 0xC2) {
+            // continuation byte, or a 2 byte overlong lead
+            return -1;
+        } else if (b0 < 0xE0) {
+            size = 2;
+        } else if (b0 < 0xF0) {
+            size = 3;
+            if (b0 == 0xE0)
+                low = 0xA0; // overlong
+            else if (b0 == 0xED)
+                high = 0x9F; // surrogates
+        } else if (b0 < 0xF5) {
+            size = 4;
+            if (b0 == 0xF0)
+                low = 0x90; // overlong
+            else if (b0 == 0xF4)
+                high = 0x8F; // above U+10FFFF
+        } else {
+            return -1;
+        }
+        if (length - i < size)
+            return -1;
+        int b1 = UNSAFE.getByte(base, offset + i + 1) & 0xFF;
+        if (b1 < low || b1 > high)
+            return -1;
+        for (int j = 2; j < size; j++) {
+            if ((UNSAFE.getByte(base, offset + i + j) & 0xC0) != 0x80)
+                return -1;
+        }
+        return i + size;
+    }
+}
@@ -0,0 +1,77 @@
+package psy.lob.saw.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A power of 2 number of reference slots, each on a cache line of its own, for pooling free instances between
+ * threads. A thread starts looking for a full slot (to take from) or an empty one (to put into) from a slot picked by
+ * its id, so threads mostly stay out of each others way. Used by the utf8 CodecPool and the AlignedBufferPool.
+ *
+ * @author nitsan
+ */
+public final class StripedSlots<T> {
+    /**
+     * References are at most 8 bytes, so 16 apart keeps each slot on a separate 64b cache line (and then some). Also
+     * good for spreading per slot ints/longs kept alongside.
+     */
+    public static final int SLOT_SPREAD = 16;
+
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+
+    /**
+     * @param size rounded up to the next power of 2
+     */
+    public StripedSlots(int size) {
+        int capacity = Integer.highestOneBit(Math.max(size, 1) - 1) << 1;
+        if (capacity == 0)
+            capacity = 1;
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<T>(capacity * SLOT_SPREAD);
+    }
+
+    public int size() {
+        return mask + 1;
+    }
+
+    /**
+     * Fill a slot before the slots are shared, e.g. in the owner's constructor.
+     */
+    public void init(int slot, T instance) {
+        slots.lazySet((slot & mask) * SLOT_SPREAD, instance);
+    }
+
+    /**
+     * @return an instance taken out of the first full slot from the probe on, or null if none was seen
+     */
+    public T take(int probe) {
+        for (int i = 0; i <= mask; i++) {
+            int index = ((probe + i) & mask) * SLOT_SPREAD;
+            T instance = slots.get(index);
+            if (instance != null && slots.compareAndSet(index, instance, null))
+                return instance;
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the instance was put in the first empty slot from the probe on, false if none was seen
+     */
+    public boolean put(int probe, T instance) {
+        for (int i = 0; i <= mask; i++) {
+            int index = ((probe + i) & mask) * SLOT_SPREAD;
+            if (slots.get(index) == null && slots.compareAndSet(index, null, instance))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return where the current thread starts looking, also usable as a stripe index for other per thread state
+     */
+    public static int probe() {
+        long id = Thread.currentThread().getId();
+        // spread the sequential thread ids
+        return (int) (id ^ (id >>> 16)) * 0x9E3779B9;
+    }
+}